@@ -0,0 +1,153 @@
+package com.espressif.ui.Data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.espressif.ui.models.ESPDevice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Lookup and update by device_id, with the unique index of the current schema and without it (version 1 schema),
+ * at 10, 1,000 and 10,000 devices. Results are logged for comparison between changes, the test does not fail on timing.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DeviceDatabaseHelperBenchmark {
+
+    private static final String TAG = "DeviceDatabaseBenchmark";
+
+    private static final String DATABASE_NAME = "devices_benchmark.db";
+    private static final String V1_DATABASE_NAME = "devices_benchmark_v1.db";
+    private static final int[] DEVICE_COUNTS = {10, 1000, 10000};
+    private static final int OPERATION_COUNT = 500;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        deleteDatabases();
+    }
+
+    @After
+    public void tearDown() {
+        deleteDatabases();
+    }
+
+    @Test
+    public void lookupAndUpdateByDeviceId() {
+        for (int deviceCount : DEVICE_COUNTS) {
+            deleteDatabases();
+
+            DeviceDatabaseHelper helper = new DeviceDatabaseHelper(context, DATABASE_NAME);
+            List<ESPDevice> devices = new ArrayList<>();
+            for (int i = 0; i < deviceCount; i++) {
+                ESPDevice device = new ESPDevice(deviceId(i), "/devices/" + deviceId(i) + "/command");
+                device.setName("Device " + i);
+                devices.add(device);
+            }
+            helper.persistDevices(devices, Collections.emptyList());
+            assertEquals(deviceCount, helper.getAllDevices().size());
+
+            SQLiteDatabase v1Db = createV1Database(deviceCount);
+
+            Random random = new Random(deviceCount);
+            long startTime = System.nanoTime();
+            for (int i = 0; i < OPERATION_COUNT; i++) {
+                assertNotNull(helper.getDeviceById(deviceId(random.nextInt(deviceCount))));
+            }
+            long lookupTime = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            for (int i = 0; i < OPERATION_COUNT; i++) {
+                assertNotNull(getV1DeviceName(v1Db, deviceId(random.nextInt(deviceCount))));
+            }
+            long v1LookupTime = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            for (int i = 0; i < OPERATION_COUNT; i++) {
+                ESPDevice device = devices.get(random.nextInt(deviceCount));
+                device.setLightOn(!device.isLightOn());
+                helper.persistDevices(Collections.singletonList(device), Collections.emptyList());
+            }
+            long updateTime = System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            for (int i = 0; i < OPERATION_COUNT; i++) {
+                ContentValues values = new ContentValues();
+                values.put(DeviceDatabaseHelper.COLUMN_IS_LIGHT_ON, i % 2);
+                assertEquals(1, v1Db.update(DeviceDatabaseHelper.TABLE_DEVICES, values,
+                        DeviceDatabaseHelper.COLUMN_DEVICE_ID + " = ?", new String[]{deviceId(random.nextInt(deviceCount))}));
+            }
+            long v1UpdateTime = System.nanoTime() - startTime;
+
+            v1Db.close();
+            helper.close();
+
+            String result = String.format("%d devices : lookup %.1f us (without index %.1f us), update %.1f us (without index %.1f us)",
+                    deviceCount, lookupTime / 1000.0 / OPERATION_COUNT, v1LookupTime / 1000.0 / OPERATION_COUNT,
+                    updateTime / 1000.0 / OPERATION_COUNT, v1UpdateTime / 1000.0 / OPERATION_COUNT);
+            Log.i(TAG, result);
+            System.out.println(result);
+        }
+    }
+
+    private SQLiteDatabase createV1Database(int deviceCount) {
+        SQLiteDatabase db = context.openOrCreateDatabase(V1_DATABASE_NAME, Context.MODE_PRIVATE, null);
+        db.execSQL(DeviceDatabaseHelperMigrationTest.V1_TABLE_CREATE);
+        db.setVersion(1);
+        // Same journal mode as DeviceDatabaseHelper, so that only the index differs.
+        db.enableWriteAheadLogging();
+
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < deviceCount; i++) {
+                ContentValues values = new ContentValues();
+                values.put(DeviceDatabaseHelper.COLUMN_DEVICE_ID, deviceId(i));
+                values.put(DeviceDatabaseHelper.COLUMN_NAME, "Device " + i);
+                values.put(DeviceDatabaseHelper.COLUMN_COMMAND_TOPIC, "/devices/" + deviceId(i) + "/command");
+                values.put(DeviceDatabaseHelper.COLUMN_IS_LIGHT_ON, 0);
+                values.put(DeviceDatabaseHelper.COLUMN_IS_RGB_MODE, 0);
+                db.insert(DeviceDatabaseHelper.TABLE_DEVICES, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return db;
+    }
+
+    private static String getV1DeviceName(SQLiteDatabase db, String deviceId) {
+        Cursor cursor = db.query(DeviceDatabaseHelper.TABLE_DEVICES, null,
+                DeviceDatabaseHelper.COLUMN_DEVICE_ID + " = ?", new String[]{deviceId}, null, null, null);
+        String name = cursor.moveToFirst() ? cursor.getString(cursor.getColumnIndexOrThrow(DeviceDatabaseHelper.COLUMN_NAME)) : null;
+        cursor.close();
+        return name;
+    }
+
+    private static String deviceId(int index) {
+        return "esp_device_" + index;
+    }
+
+    private void deleteDatabases() {
+        context.deleteDatabase(DATABASE_NAME);
+        context.deleteDatabase(V1_DATABASE_NAME);
+    }
+}
@@ -0,0 +1,173 @@
+package com.espressif.ui.Data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.espressif.ui.models.ESPDevice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Upgrade of a database created by version 1 of the schema, which had no index on device_id
+ * and could hold duplicate and NULL device ids.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DeviceDatabaseHelperMigrationTest {
+
+    private static final String UPGRADED_DATABASE_NAME = "devices_migration_test.db";
+    private static final String CREATED_DATABASE_NAME = "devices_create_test.db";
+
+    // Schema of version 1, as it was shipped.
+    static final String V1_TABLE_CREATE = "CREATE TABLE devices (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            "device_id TEXT, " +
+            "name TEXT, " +
+            "command_topic TEXT, " +
+            "is_light_on INTEGER, " +
+            "is_rgb_mode INTEGER" +
+            ");";
+
+    private Context context;
+    private DeviceDatabaseHelper upgradedHelper;
+    private DeviceDatabaseHelper createdHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(UPGRADED_DATABASE_NAME);
+        context.deleteDatabase(CREATED_DATABASE_NAME);
+
+        SQLiteDatabase db = context.openOrCreateDatabase(UPGRADED_DATABASE_NAME, Context.MODE_PRIVATE, null);
+        db.execSQL(V1_TABLE_CREATE);
+        db.setVersion(1);
+        insertV1Row(db, "esp_a", "A first", 1);
+        insertV1Row(db, null, "No id", 1);
+        insertV1Row(db, "esp_b", "B first", 0);
+        insertV1Row(db, "esp_a", "A duplicate", 0);
+        insertV1Row(db, null, "No id either", 0);
+        insertV1Row(db, "esp_b", "B duplicate", 1);
+        insertV1Row(db, "esp_c", "C", 1);
+        db.close();
+
+        upgradedHelper = new DeviceDatabaseHelper(context, UPGRADED_DATABASE_NAME);
+        createdHelper = new DeviceDatabaseHelper(context, CREATED_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        upgradedHelper.close();
+        createdHelper.close();
+        context.deleteDatabase(UPGRADED_DATABASE_NAME);
+        context.deleteDatabase(CREATED_DATABASE_NAME);
+    }
+
+    @Test
+    public void oldestRowOfEveryDeviceIdSurvives() {
+        SQLiteDatabase db = upgradedHelper.getReadableDatabase();
+        assertEquals(3, db.getVersion());
+
+        Map<String, Long> rowIds = new HashMap<>();
+        Map<String, String> names = new HashMap<>();
+        Cursor cursor = db.query(DeviceDatabaseHelper.TABLE_DEVICES, null, null, null, null, null, null);
+        while (cursor.moveToNext()) {
+            String deviceId = cursor.getString(cursor.getColumnIndexOrThrow(DeviceDatabaseHelper.COLUMN_DEVICE_ID));
+            assertNotNull("Row without device id survived", deviceId);
+            rowIds.put(deviceId, cursor.getLong(cursor.getColumnIndexOrThrow(DeviceDatabaseHelper.COLUMN_ID)));
+            names.put(deviceId, cursor.getString(cursor.getColumnIndexOrThrow(DeviceDatabaseHelper.COLUMN_NAME)));
+        }
+        cursor.close();
+
+        assertEquals(3, rowIds.size());
+        assertEquals(Long.valueOf(1), rowIds.get("esp_a"));
+        assertEquals(Long.valueOf(3), rowIds.get("esp_b"));
+        assertEquals(Long.valueOf(7), rowIds.get("esp_c"));
+        assertEquals("A first", names.get("esp_a"));
+        assertEquals("B first", names.get("esp_b"));
+    }
+
+    @Test
+    public void deviceIdIsUnique() {
+        SQLiteDatabase db = upgradedHelper.getWritableDatabase();
+        assertTrue(getIndexSql(db, "index_devices_device_id").startsWith("CREATE UNIQUE INDEX"));
+
+        ContentValues values = new ContentValues();
+        values.put(DeviceDatabaseHelper.COLUMN_DEVICE_ID, "esp_a");
+        try {
+            db.insertOrThrow(DeviceDatabaseHelper.TABLE_DEVICES, null, values);
+            fail("Duplicate device id was inserted");
+        } catch (SQLiteConstraintException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void roomColumnIsAddedAndIndexed() {
+        SQLiteDatabase db = upgradedHelper.getWritableDatabase();
+        assertNotNull(getIndexSql(db, "index_devices_room"));
+
+        ESPDevice device = upgradedHelper.getDeviceById("esp_c");
+        assertNotNull(device);
+        assertNull(device.getRoom());
+
+        device.setRoom("kitchen");
+        upgradedHelper.persistDevices(Collections.singletonList(device), Collections.emptyList());
+        assertEquals("kitchen", upgradedHelper.getDeviceById("esp_c").getRoom());
+        assertEquals(3, upgradedHelper.getAllDevices().size());
+        assertEquals(1, upgradedHelper.updateStateLight(false, "kitchen"));
+    }
+
+    @Test
+    public void upgradedSchemaIsSameAsCreatedSchema() {
+        assertEquals(getSchema(createdHelper.getReadableDatabase()), getSchema(upgradedHelper.getReadableDatabase()));
+    }
+
+    private static void insertV1Row(SQLiteDatabase db, String deviceId, String name, int isLightOn) {
+        ContentValues values = new ContentValues();
+        values.put("device_id", deviceId);
+        values.put("name", name);
+        values.put("command_topic", deviceId == null ? null : "/devices/" + deviceId + "/command");
+        values.put("is_light_on", isLightOn);
+        values.put("is_rgb_mode", 0);
+        db.insertOrThrow("devices", null, values);
+    }
+
+    private static String getIndexSql(SQLiteDatabase db, String indexName) {
+        Cursor cursor = db.rawQuery("SELECT sql FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[]{indexName});
+        String sql = cursor.moveToFirst() ? cursor.getString(0) : null;
+        cursor.close();
+        assertNotNull("Missing index " + indexName, sql);
+        return sql;
+    }
+
+    private static List<String> getSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master WHERE tbl_name = 'devices' ORDER BY name", null);
+        while (cursor.moveToNext()) {
+            schema.add(cursor.getString(0) + " " + cursor.getString(1) + " " + cursor.getString(2));
+        }
+        cursor.close();
+        return schema;
+    }
+}
@@ -1,51 +1,98 @@
 package com.espressif.ui.Data;
 
-import android.os.Handler;
-import android.os.Looper;
+import android.content.Context;
 import android.util.Log;
 
 import com.espressif.ui.models.ESPDevice;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * In-memory state of all devices, keyed by device_id. This is the source of truth for device state:
+ * it is loaded from SQLite on first use, reads never touch the database and every change is applied here
+ * first and then persisted asynchronously through {@link MqttIngestPipeline}.
+ * Cached devices are never handed out, callers get copies and write changes back with {@link #updateDevice}.
+ */
 public class AppDataManager {
-    private static AppDataManager instance;
-    private final List<ESPDevice> espDevices;
-    private final Handler handler = new Handler(Looper.getMainLooper());
+
     private static final String TAG = "AppDataManager";
 
-    private AppDataManager() {
-        espDevices = Collections.synchronizedList(new ArrayList<>());
+    private static AppDataManager instance;
+
+    private static class CachedDevice {
+
+        final ESPDevice device;
+        // Keeps order in which devices were added, same as row order in the database.
+        final long sequence;
+
+        CachedDevice(ESPDevice device, long sequence) {
+            this.device = device;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<CachedDevice> BY_SEQUENCE = (first, second) -> Long.compare(first.sequence, second.sequence);
+
+    private final DeviceDatabaseHelper dbHelper;
+    private final ConcurrentHashMap<String, CachedDevice> devices = new ConcurrentHashMap<>();
+    private final AtomicLong nextSequence = new AtomicLong();
+    private volatile boolean isLoaded = false;
+
+    private AppDataManager(DeviceDatabaseHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    public static AppDataManager getInstance(Context context) {
+        return getInstance(DeviceDatabaseHelper.getInstance(context));
+    }
+
+    static synchronized AppDataManager getInstance(DeviceDatabaseHelper dbHelper) {
+        if (instance == null) {
+            instance = new AppDataManager(dbHelper);
+        }
+        return instance;
     }
 
     public static synchronized AppDataManager getInstance() {
         if (instance == null) {
-            instance = new AppDataManager();
+            throw new IllegalStateException("AppDataManager is not initialized. Call getInstance(context) first.");
         }
         return instance;
     }
 
-    public void removeDevice(String deviceId) {
-        if (deviceId == null) {
-            Log.w(TAG, "Attempted to remove device with null ID");
-            return;
+    public ESPDevice getFirstDevice() {
+        List<ESPDevice> allDevices = getAllDevices();
+        return allDevices.isEmpty() ? null : allDevices.get(0);
+    }
+
+    public List<ESPDevice> getAllDevices() {
+        ensureLoaded();
+        List<CachedDevice> entries = new ArrayList<>(devices.values());
+        Collections.sort(entries, BY_SEQUENCE);
+
+        List<ESPDevice> allDevices = new ArrayList<>(entries.size());
+        for (CachedDevice entry : entries) {
+            allDevices.add(new ESPDevice(entry.device));
         }
+        return allDevices;
+    }
+
+    public ESPDevice getDeviceById(String deviceId) {
+        if (deviceId == null) return null;
 
-        handler.post(() -> {
-            synchronized (espDevices) {
-                boolean removed = espDevices.removeIf(device ->
-                        device != null && deviceId.equals(device.getDeviceId()));
+        ensureLoaded();
+        CachedDevice entry = devices.get(deviceId);
+        return entry == null ? null : new ESPDevice(entry.device);
+    }
 
-                if (removed) {
-                    Log.d(TAG, "Removed device: " + deviceId);
-                } else {
-                    Log.w(TAG, "Device not found for removal: " + deviceId);
-                }
-                logDeviceList();
-            }
-        });
+    public int getDeviceCount() {
+        ensureLoaded();
+        return devices.size();
     }
 
     public void addDevice(String deviceId, String commandTopic) {
@@ -53,16 +100,15 @@ public class AppDataManager {
             Log.w(TAG, "Invalid device parameters: deviceId=" + deviceId + ", topic=" + commandTopic);
             return;
         }
+        writeThrough(DeviceUpdate.added(deviceId, commandTopic));
+    }
 
-        handler.post(() -> {
-            synchronized (espDevices) {
-                if (getDeviceById(deviceId) == null) {
-                    ESPDevice newDevice = new ESPDevice(deviceId, commandTopic);
-                    espDevices.add(newDevice);
-                    Log.d(TAG, "Added device: " + deviceId + " with topic: " + commandTopic);
-                }
-            }
-        });
+    public void removeDevice(String deviceId) {
+        if (deviceId == null) {
+            Log.w(TAG, "Attempted to remove device with null ID");
+            return;
+        }
+        writeThrough(DeviceUpdate.removed(deviceId));
     }
 
     public void updateDeviceName(String deviceId, String newName) {
@@ -70,131 +116,165 @@ public class AppDataManager {
             Log.w(TAG, "Invalid parameters for renaming: deviceId=" + deviceId + ", newName=" + newName);
             return;
         }
+        writeThrough(DeviceUpdate.renamed(deviceId, newName));
+    }
 
-        handler.post(() -> {
-            synchronized (espDevices) {
-                ESPDevice device = getDeviceById(deviceId);
-                if (device != null) {
-                    device.setName(newName);
-                    Log.d(TAG, "Updated name for device " + deviceId + " to: " + newName);
-                    logDeviceList();
-                } else {
-                    Log.w(TAG, "Device not found for renaming: " + deviceId);
-                }
-            }
-        });
+    public void setDeviceLightState(String deviceId, boolean isLightOn) {
+        ESPDevice device = getDeviceById(deviceId);
+        if (device != null) {
+            writeThrough(DeviceUpdate.state(deviceId, isLightOn, device.isRGBMode()));
+        }
     }
 
-    public ESPDevice getFirstDevice() {
-        synchronized (espDevices) {
-            return espDevices.isEmpty() ? null : espDevices.get(0);
+    public void setDeviceRoom(String deviceId, String room) {
+        if (deviceId == null || room == null) {
+            return;
         }
+        writeThrough(DeviceUpdate.movedToRoom(deviceId, room));
     }
 
-    public List<ESPDevice> getAllDevices() {
-        synchronized (espDevices) {
-            return new ArrayList<>(espDevices); // Return a copy to prevent external modification
+    /**
+     * Set light state of all devices, or of all devices in given room.
+     * Cache is updated in one pass, database with one statement and listeners get one notification.
+     *
+     * @param room      Room of devices, null for all devices.
+     * @param isLightOn New light state.
+     */
+    public void setRoomLightState(String room, boolean isLightOn) {
+        List<DeviceUpdate> applied = applyUpdates(Collections.singletonList(DeviceUpdate.roomLights(room, isLightOn)));
+        // Nothing changed: no notification, no write.
+        if (!applied.isEmpty()) {
+            dbHelper.submitBulkUpdate(applied.get(0));
         }
     }
 
-    public ESPDevice getDeviceById(String deviceId) {
-        if (deviceId == null) return null;
+    /**
+     * Store name, state and room of given device.
+     */
+    public void updateDevice(ESPDevice device) {
+        if (device == null || device.getDeviceId() == null) {
+            return;
+        }
+        writeThrough(DeviceUpdate.of(device));
+    }
+
+    public void handleMqttMessage(String topic, String message) {
+        dbHelper.handleMqttMessage(topic, message);
+    }
 
-        synchronized (espDevices) {
-            for (ESPDevice device : espDevices) {
-                if (deviceId.equals(device.getDeviceId())) {
-                    return device;
+    private void writeThrough(DeviceUpdate update) {
+        applyUpdates(Collections.singletonList(update));
+        dbHelper.submitUpdate(update);
+    }
+
+    /**
+     * Apply updates to cached state.
+     *
+     * @return Updates which changed cached state.
+     */
+    List<DeviceUpdate> applyUpdates(List<DeviceUpdate> updates) {
+        ensureLoaded();
+        List<DeviceUpdate> applied = new ArrayList<>(updates.size());
+
+        for (DeviceUpdate update : updates) {
+            if (update.isForAllDevices()) {
+                if (applyToAllDevices(update)) {
+                    applied.add(update);
                 }
+                continue;
             }
-            return null;
-        }
-    }
 
-    public void setDeviceLightState(String deviceId, boolean isLightOn) {
-        handler.post(() -> {
-            ESPDevice device = getDeviceById(deviceId);
-            if (device != null) {
-                device.setLightOn(isLightOn);
-                Log.d(TAG, "Set " + deviceId + " light state to: " + isLightOn);
+            String deviceId = update.getDeviceId();
+            boolean isChanged = false;
+
+            if (update.isRemoved()) {
+                isChanged = devices.remove(deviceId) != null;
+            }
+
+            if (update.isAdded()) {
+                ESPDevice device = new ESPDevice(deviceId, update.getCommandTopic());
+                device.setName(DeviceDatabaseHelper.DEFAULT_DEVICE_NAME);
+                isChanged |= devices.putIfAbsent(deviceId, new CachedDevice(device, nextSequence.getAndIncrement())) == null;
+            }
+
+            if (update.hasStateChange()) {
+                isChanged |= applyState(deviceId, update);
             }
-        });
+
+            if (isChanged) {
+                applied.add(update);
+            }
+        }
+        return applied;
     }
 
-    public void handleMqttMessage(String topic, String message) {
-        if (topic == null || message == null) {
-            Log.w(TAG, "Received null topic or message");
-            return;
+    private boolean applyToAllDevices(DeviceUpdate update) {
+        if (update.getLightOn() == null) {
+            return false;
         }
 
-        String[] parts = topic.split("/");
-        if (parts.length < 3) {
-            Log.w(TAG, "Invalid topic format: " + topic);
-            return;
+        boolean isChanged = false;
+        for (CachedDevice entry : devices.values()) {
+            if (update.appliesTo(entry.device)) {
+                isChanged |= applyState(entry.device.getDeviceId(), DeviceUpdate.light(entry.device.getDeviceId(), update.getLightOn()));
+            }
         }
+        return isChanged;
+    }
 
-        String deviceId = parts[2];
-        Log.d(TAG, "Received topic: " + topic + ", message: " + message + ", deviceId: " + deviceId);
+    /**
+     * Cached device is replaced by an updated copy, so a reader never sees a partially updated device.
+     *
+     * @return False if device is not cached or already has given state.
+     */
+    private boolean applyState(String deviceId, DeviceUpdate update) {
+        while (true) {
+            CachedDevice entry = devices.get(deviceId);
+            if (entry == null) {
+                return false;
+            }
 
-        handler.post(() -> {
-            synchronized (espDevices) {
-                ESPDevice device = getDeviceById(deviceId);
+            ESPDevice current = entry.device;
+            String name = update.getName() != null ? update.getName() : current.getName();
+            boolean isLightOn = update.getLightOn() != null ? update.getLightOn() : current.isLightOn();
+            boolean isRGBMode = update.getRgbMode() != null ? update.getRgbMode() : current.isRGBMode();
+            String room = update.getRoom() != null ? update.getRoom() : current.getRoom();
 
-                if ("deleteNVS".equals(message)) {
-                    removeDevice(deviceId);
-                    return;
-                }
+            if (isLightOn == current.isLightOn() && isRGBMode == current.isRGBMode()
+                    && equals(name, current.getName()) && equals(room, current.getRoom())) {
+                return false;
+            }
 
-                if (device == null) {
-                    addDevice(deviceId, topic);
-                    device = getDeviceById(deviceId);
-                }
+            ESPDevice device = new ESPDevice(current);
+            device.setName(name);
+            device.setLightOn(isLightOn);
+            device.setRGBMode(isRGBMode);
+            device.setRoom(room);
 
-                updateDeviceState(device, message);
-                logDeviceList();
+            if (devices.replace(deviceId, entry, new CachedDevice(device, entry.sequence))) {
+                return true;
             }
-        });
-    }
-
-    private void updateDeviceState(ESPDevice device, String message) {
-        switch (message) {
-            case "on":
-                device.setLightOn(true);
-                device.setRGBMode(false);
-                Log.d(TAG, "Set " + device.getDeviceId() + " to ON (Single mode)");
-                break;
-            case "off":
-                device.setLightOn(false);
-                device.setRGBMode(false);
-                Log.d(TAG, "Set " + device.getDeviceId() + " to OFF (Single mode)");
-                break;
-            case "onRGB":
-                device.setLightOn(true);
-                device.setRGBMode(true);
-                Log.d(TAG, "Set " + device.getDeviceId() + " to ON (RGB mode)");
-                break;
-            case "offRGB":
-                device.setLightOn(false);
-                device.setRGBMode(true);
-                Log.d(TAG, "Set " + device.getDeviceId() + " to OFF (RGB mode)");
-                break;
-            case "deleteNVS":
-                removeDevice(device.getDeviceId());
-                Log.d(TAG, "Delete " + device.getDeviceId());
-                break;
-            default:
-                Log.w(TAG, "Unhandled message type: " + message);
-                break;
-        }
-    }
-
-    private void logDeviceList() {
-        Log.d(TAG, "Current device count: " + espDevices.size());
-        for (ESPDevice d : espDevices) {
-            Log.d(TAG, "Device: " + d.getDeviceId() +
-                    ", Name: " + d.getName() +
-                    ", Topic: " + d.getCommandTopic() +
-                    ", State: " + d.isLightOn() +
-                    ", RGB: " + d.isRGBMode());
-        }
-    }
-}
\ No newline at end of file
+        }
+    }
+
+    private static boolean equals(String first, String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    private void ensureLoaded() {
+        if (isLoaded) {
+            return;
+        }
+        synchronized (this) {
+            if (isLoaded) {
+                return;
+            }
+            long startTime = System.currentTimeMillis();
+            for (ESPDevice device : dbHelper.getAllDevices()) {
+                devices.putIfAbsent(device.getDeviceId(), new CachedDevice(device, nextSequence.getAndIncrement()));
+            }
+            isLoaded = true;
+            Log.d(TAG, "Loaded " + devices.size() + " devices in " + (System.currentTimeMillis() - startTime) + " ms");
+        }
+    }
+}
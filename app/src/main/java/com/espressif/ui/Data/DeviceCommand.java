@@ -0,0 +1,88 @@
+package com.espressif.ui.Data;
+
+/**
+ * Command carried by an MQTT payload. Payload is decoded once when it is routed,
+ * handlers switch on the command instead of comparing strings.
+ */
+public enum DeviceCommand {
+
+    ON,
+    OFF,
+    ON_RGB,
+    OFF_RGB,
+    // "name/<name>"
+    RENAME,
+    // "room/<room>"
+    ROOM,
+    DELETE,
+    // "turn on" or "turn on/<room>"
+    TURN_ON_ALL,
+    // "turn off" or "turn off/<room>"
+    TURN_OFF_ALL,
+    UNKNOWN;
+
+    private static final String NAME_PREFIX = "name/";
+    private static final String ROOM_PREFIX = "room/";
+    private static final String TURN_ON = "turn on";
+    private static final String TURN_OFF = "turn off";
+
+    /**
+     * Decode command from payload of a device or speech command topic.
+     */
+    public static DeviceCommand decode(String payload) {
+        switch (payload) {
+            case "on":
+                return ON;
+            case "off":
+                return OFF;
+            case "onRGB":
+                return ON_RGB;
+            case "offRGB":
+                return OFF_RGB;
+            case "deleteNVS":
+                return DELETE;
+            case TURN_ON:
+                return TURN_ON_ALL;
+            case TURN_OFF:
+                return TURN_OFF_ALL;
+        }
+        if (payload.startsWith(NAME_PREFIX)) {
+            return RENAME;
+        }
+        if (payload.startsWith(ROOM_PREFIX)) {
+            return ROOM;
+        }
+        if (isCommandWithArgument(payload, TURN_ON)) {
+            return TURN_ON_ALL;
+        }
+        if (isCommandWithArgument(payload, TURN_OFF)) {
+            return TURN_OFF_ALL;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Argument of decoded command: new name, room, or room limiting a "turn on" / "turn off" command.
+     *
+     * @return Argument, empty string if payload has an empty argument, null if command has no argument.
+     */
+    public static String argumentOf(DeviceCommand command, String payload) {
+        switch (command) {
+            case RENAME:
+                return payload.substring(NAME_PREFIX.length());
+            case ROOM:
+                return payload.substring(ROOM_PREFIX.length());
+            case TURN_ON_ALL:
+                return payload.length() > TURN_ON.length() ? payload.substring(TURN_ON.length() + 1) : null;
+            case TURN_OFF_ALL:
+                return payload.length() > TURN_OFF.length() ? payload.substring(TURN_OFF.length() + 1) : null;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isCommandWithArgument(String payload, String command) {
+        return payload.length() > command.length() && payload.charAt(command.length()) == '/'
+                && payload.startsWith(command);
+    }
+}
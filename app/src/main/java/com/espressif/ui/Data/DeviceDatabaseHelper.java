@@ -5,8 +5,6 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 
 import com.espressif.ui.models.ESPDevice;
@@ -14,10 +12,17 @@ import com.espressif.ui.models.ESPDevice;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * SQLite storage of devices. Only {@link AppDataManager} and {@link MqttIngestPipeline} read and write it,
+ * everything else goes through {@link AppDataManager}, which keeps the cache and the database in sync.
+ */
 public class DeviceDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "devices.db";
-    private static final int DATABASE_VERSION = 1;
+    // 1: bảng devices ban đầu
+    // 2: index UNIQUE trên device_id
+    // 3: cột room để điều khiển theo phòng / nhóm
+    private static final int DATABASE_VERSION = 3;
 
     public static final String TABLE_DEVICES = "devices";
     public static final String COLUMN_ID = "_id";
@@ -26,13 +31,17 @@ public class DeviceDatabaseHelper extends SQLiteOpenHelper {
     public static final String COLUMN_COMMAND_TOPIC = "command_topic";
     public static final String COLUMN_IS_LIGHT_ON = "is_light_on";
     public static final String COLUMN_IS_RGB_MODE = "is_rgb_mode";
+    public static final String COLUMN_ROOM = "room";
+
+    static final String DEFAULT_DEVICE_NAME = "ESP Device";
 
-    private static final String DEFAULT_TOPIC_1 = "/devices/notification"; // Topic mặc định 1
-    private static final String DEFAULT_TOPIC_2 = "/speech/command";    // Topic mặc định 2
-    private final Handler handler = new Handler(Looper.getMainLooper());
     private static DeviceDatabaseHelper instance;
     private static final String TAG = "DeviceDatabaseHelper";
 
+    private static final String INDEX_DEVICE_ID = "index_devices_device_id";
+    private static final String INDEX_ROOM = "index_devices_room";
+
+    // Schema của version 1, các version sau được tạo bằng migration
     private static final String TABLE_CREATE =
             "CREATE TABLE " + TABLE_DEVICES + " (" +
                     COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
@@ -57,160 +66,130 @@ public class DeviceDatabaseHelper extends SQLiteOpenHelper {
         return instance;
     }
 
+    private final MqttIngestPipeline ingestPipeline;
+
     public DeviceDatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    // Tên DB riêng cho test, để không đụng đến dữ liệu của app
+    DeviceDatabaseHelper(Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
+        // MQTT worker ghi trong khi UI đọc, WAL cho phép đọc song song với ghi
+        setWriteAheadLoggingEnabled(true);
+        ingestPipeline = new MqttIngestPipeline(this);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        // Cài mới cũng đi qua các migration, để schema luôn giống với bản được nâng cấp
         db.execSQL(TABLE_CREATE);
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_DEVICES);
-        onCreate(db);
-    }
-
-    // Tách hàm phụ
-    public void handleMqttMessage(String topic, String message) {
-        if (topic == null || message == null) {
-            logWarning("Received null topic or message");
-            return;
+        // Mỗi bước chỉ nâng lên một version và giữ nguyên dữ liệu
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            switch (version) {
+                case 2:
+                    migrateToVersion2(db);
+                    break;
+                case 3:
+                    migrateToVersion3(db);
+                    break;
+                default:
+                    throw new IllegalStateException("No migration to database version " + version);
+            }
+            Log.d(TAG, "Migrated database to version " + version);
         }
-
-        logDebug("Received topic: " + topic + ", message: " + message);
-
-        handler.post(() -> processMessage(topic, message));
     }
 
-    private void processMessage(String topic, String message) {
-        if (isDeleteRequest(message)) {
-            handleDeleteDevice(topic);
-            return;
-        }
-
-        if (isNotificationTopic(topic)) {
-            handleNotificationMessage(message);
-            return;
-        }
-
-        if (isLightControlTopic(topic)) {
-            handleLightControlMessage(message);
-            return;
-        }
+    /**
+     * device_id had no index, so every lookup by device_id scanned the whole table,
+     * and CONFLICT_IGNORE on insert never detected a duplicate.
+     * Duplicate rows (kept in sync by updates by device_id) are reduced to the oldest one before the index is added.
+     */
+    private void migrateToVersion2(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + TABLE_DEVICES + " WHERE " + COLUMN_DEVICE_ID + " IS NULL");
+        db.execSQL("DELETE FROM " + TABLE_DEVICES + " WHERE " + COLUMN_ID + " NOT IN (" +
+                "SELECT MIN(" + COLUMN_ID + ") FROM " + TABLE_DEVICES + " GROUP BY " + COLUMN_DEVICE_ID + ")");
+        db.execSQL("CREATE UNIQUE INDEX " + INDEX_DEVICE_ID + " ON " + TABLE_DEVICES + " (" + COLUMN_DEVICE_ID + ")");
+    }
 
-        handleDeviceSpecificMessage(topic, message);
+    /**
+     * Devices can be grouped by room, so that a bulk command can target one room.
+     */
+    private void migrateToVersion3(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_DEVICES + " ADD COLUMN " + COLUMN_ROOM + " TEXT");
+        db.execSQL("CREATE INDEX " + INDEX_ROOM + " ON " + TABLE_DEVICES + " (" + COLUMN_ROOM + ")");
     }
 
-    private boolean isDeleteRequest(String message) {
-        return "deleteNVS".equals(message);
+    // Dừng luồng nền của pipeline, các cập nhật còn chờ được ghi trước khi đóng DB
+    @Override
+    public void close() {
+        ingestPipeline.quit();
+        super.close();
     }
 
-    private boolean isNotificationTopic(String topic) {
-        return DEFAULT_TOPIC_1.equals(topic);
+    // Tin nhắn được xử lý và ghi vào DB trên luồng nền, không chặn UI
+    public void handleMqttMessage(String topic, String message) {
+        ingestPipeline.submit(topic, message);
     }
 
-    private boolean isLightControlTopic(String topic) {
-        return DEFAULT_TOPIC_2.equals(topic);
+    public void addDeviceChangeListener(MqttIngestPipeline.DeviceChangeListener listener) {
+        ingestPipeline.addDeviceChangeListener(listener);
     }
 
-    private void handleDeleteDevice(String topic) {
-        String deviceId = extractDeviceIdFromTopic(topic);
-        if (deviceId != null) {
-            removeDevice(deviceId);
-        } else {
-            logWarning("Invalid topic format for deleteNVS: " + topic);
-        }
+    public void removeDeviceChangeListener(MqttIngestPipeline.DeviceChangeListener listener) {
+        ingestPipeline.removeDeviceChangeListener(listener);
     }
 
-    private void handleNotificationMessage(String message) {
-        String[] parts = message.split("/");
-        if (parts.length >= 3) {
-            String deviceId = parts[2];
-            if (getDeviceById(deviceId) == null) {
-                addDevice(deviceId, message);
-            }
-        } else {
-            logWarning("Invalid message format in /devices/notification: " + message);
-        }
+    /**
+     * Persist update which is already applied to {@link AppDataManager}.
+     */
+    void submitUpdate(DeviceUpdate update) {
+        ingestPipeline.persist(update);
     }
 
-    private void handleLightControlMessage(String message) {
-        switch (message) {
-            case "turn on":
-                updateStateLight(true);
-                break;
-            case "turn off":
-                updateStateLight(false);
-                break;
-            default:
-                logWarning("Unknown light control message: " + message);
-        }
+    /**
+     * Persist update of all devices (or of a room) which is already applied to {@link AppDataManager}.
+     */
+    void submitBulkUpdate(DeviceUpdate update) {
+        ingestPipeline.persistBulk(update);
     }
 
-    private void handleDeviceSpecificMessage(String topic, String message) {
-        String deviceId = extractDeviceIdFromTopic(topic);
-        if (deviceId != null) {
-            ESPDevice device = getDeviceById(deviceId);
-            if (device == null) {
-                logWarning("Device not found for ID: " + deviceId);
-                return;
+    /**
+     * Write state of changed devices and delete removed devices in one transaction.
+     */
+    void persistDevices(List<ESPDevice> changedDevices, List<String> removedDeviceIds) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String deviceId : removedDeviceIds) {
+                db.delete(TABLE_DEVICES, COLUMN_DEVICE_ID + " = ?", new String[]{deviceId});
             }
-
-            // Check if message starts with "name/" for setting device name
-            if (message.startsWith("name/")) {
-                String[] parts = message.split("/", 2); // Split into "name" and "<newName>"
-                if (parts.length == 2 && !parts[1].isEmpty()) {
-                    String newName = parts[1]; // Get the name after "name/"
-                    device.setName(newName);  // Set the new name
-                    updateDevice(device);     // Update the database
-                    logDebug("Set device name to: " + newName + " for device " + deviceId);
-                } else {
-                    logWarning("Invalid name format in message: " + message + " for device: " + deviceId);
-                }
-            } else if ("deleteNVS".equals(message)) {
-                try {
-                    removeDevice(device.getDeviceId());
-                    logDebug("Deleted device with ID: " + deviceId);
-                } catch (Exception e) {
-                    logWarning("Error deleting device with ID: " + deviceId + ": " + e.getMessage());
+            for (ESPDevice device : changedDevices) {
+                if (!updateDevice(device)) {
+                    ContentValues values = toContentValues(device);
+                    values.put(COLUMN_DEVICE_ID, device.getDeviceId());
+                    db.insertWithOnConflict(TABLE_DEVICES, null, values, SQLiteDatabase.CONFLICT_IGNORE);
                 }
-            } else {
-                // Handle existing cases
-                switch (message) {
-                    case "onRGB":
-                        device.setLightOn(true);
-                        device.setRGBMode(true);
-                        break;
-                    case "offRGB":
-                        device.setLightOn(false);
-                        device.setRGBMode(true);
-                        break;
-                    case "on":
-                        device.setLightOn(true);
-                        device.setRGBMode(false);
-                        break;
-                    case "off":
-                        device.setLightOn(false);
-                        device.setRGBMode(false);
-                        break;
-                    default:
-                        logWarning("Unknown message: " + message + " for device: " + deviceId);
-                        return;
-                }
-                // Update database for state changes
-                updateDevice(device);
-                logDebug("Processed message: " + message + " for device " + deviceId +
-                        ", LightOn: " + device.isLightOn() + ", RGBMode: " + device.isRGBMode());
             }
-        } else {
-            logWarning("Could not extract device ID from topic: " + topic);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
     }
-    private String extractDeviceIdFromTopic(String topic) {
-        String[] parts = topic.split("/");
-        return parts.length >= 3 ? parts[2] : null;
+
+    private ContentValues toContentValues(ESPDevice device) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_NAME, device.getName());
+        values.put(COLUMN_COMMAND_TOPIC, device.getCommandTopic());
+        values.put(COLUMN_IS_LIGHT_ON, device.isLightOn() ? 1 : 0);
+        values.put(COLUMN_IS_RGB_MODE, device.isRGBMode() ? 1 : 0);
+        values.put(COLUMN_ROOM, device.getRoom());
+        return values;
     }
 
     private void logWarning(String msg) {
@@ -222,72 +201,31 @@ public class DeviceDatabaseHelper extends SQLiteOpenHelper {
     }
 
 
-    // Cập nhật trạng thái đèn cho tất cả thiết bị (ít dùng hơn)
-    public void updateStateLight(boolean isLightOn) {
+    /**
+     * Set light state of all devices, or of all devices in given room, with one UPDATE statement.
+     *
+     * @param isLightOn New light state.
+     * @param room      Room of devices to be updated, null for all devices.
+     * @return Number of updated devices.
+     */
+    int updateStateLight(boolean isLightOn, String room) {
         SQLiteDatabase db = this.getWritableDatabase();
-        List<ESPDevice> espDevices = getAllDevices();
-
-        if (espDevices.isEmpty()) {
-            Log.w(TAG, "No devices found in database to update");
-            return; // Không đóng db
-        }
-
         ContentValues values = new ContentValues();
         values.put(COLUMN_IS_LIGHT_ON, isLightOn ? 1 : 0);
 
-        for (ESPDevice device : espDevices) {
-            int rowsAffected = db.update(
-                    TABLE_DEVICES,
-                    values,
-                    COLUMN_DEVICE_ID + " = ?",
-                    new String[]{device.getDeviceId()}
-            );
-
-            if (rowsAffected > 0) {
-                Log.d(TAG, "Updated state for device " + device.getName() + " (ID: " + device.getDeviceId() + ") to " + (isLightOn ? "ON" : "OFF"));
-            } else {
-                Log.w(TAG, "Failed to update state for device " + device.getName() + " (ID: " + device.getDeviceId() + ")");
-            }
-        }
-        // Không đóng db ở đây
-    }
-
-    // Cập nhật trạng thái đèn cho một thiết bị cụ thể
-    public void updateStateLight(String deviceId, int newState) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_IS_LIGHT_ON, newState);
-
-        int rowsAffected = db.update(
-                TABLE_DEVICES,
-                values,
-                COLUMN_DEVICE_ID + " = ?",
-                new String[]{deviceId}
-        );
-
-        if (rowsAffected > 0) {
-            Log.d(TAG, "Updated state for device ID " + deviceId + " to " + (newState == 1 ? "ON" : "OFF"));
+        int rowsAffected;
+        if (room == null) {
+            rowsAffected = db.update(TABLE_DEVICES, values, null, null);
         } else {
-            Log.w(TAG, "Failed to update state for device ID " + deviceId);
+            rowsAffected = db.update(TABLE_DEVICES, values, COLUMN_ROOM + " = ?", new String[]{room});
         }
-        // Không đóng db ở đây
-    }
 
-    public void addDevice(String deviceId, String commandTopic) {
-        if (deviceId == null || commandTopic == null) return;
-
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_DEVICE_ID, deviceId);
-        values.put(COLUMN_COMMAND_TOPIC, commandTopic);
-        values.put(COLUMN_NAME, "ESP Device");
-        values.put(COLUMN_IS_LIGHT_ON, 0);
-        values.put(COLUMN_IS_RGB_MODE, 0);
-        db.insertWithOnConflict(TABLE_DEVICES, null, values, SQLiteDatabase.CONFLICT_IGNORE);
-        // Không đóng db
+        Log.d(TAG, "Updated state of " + rowsAffected + " devices" + (room == null ? "" : " in " + room)
+                + " to " + (isLightOn ? "ON" : "OFF"));
+        return rowsAffected;
     }
 
-    public ESPDevice getDeviceById(String deviceId) {
+    ESPDevice getDeviceById(String deviceId) {
         SQLiteDatabase db = this.getReadableDatabase();
         ESPDevice device = null;
 
@@ -303,11 +241,13 @@ public class DeviceDatabaseHelper extends SQLiteOpenHelper {
             String topic = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_COMMAND_TOPIC));
             boolean isLightOn = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_IS_LIGHT_ON)) == 1;
             boolean isRGBMode = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_IS_RGB_MODE)) == 1;
+            String room = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ROOM));
 
             device = new ESPDevice(id, topic);
             device.setName(name);
             device.setLightOn(isLightOn);
             device.setRGBMode(isRGBMode);
+            device.setRoom(room);
         }
 
         if (cursor != null) {
@@ -317,36 +257,9 @@ public class DeviceDatabaseHelper extends SQLiteOpenHelper {
         return device;
     }
 
-    public boolean deleteDeviceById(String deviceId) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        int deletedRows = db.delete(TABLE_DEVICES, COLUMN_DEVICE_ID + " = ?", new String[]{deviceId});
-        // Không đóng db
-        return deletedRows > 0;
-    }
-
-    public void removeDevice(String deviceId) {
-        if (deviceId == null) {
-            Log.w(TAG, "Attempted to remove device with null ID");
-            return;
-        }
-
-        boolean removed = deleteDeviceById(deviceId);
-        if (removed) {
-            Log.d(TAG, "Removed device from SQLite: " + deviceId);
-        } else {
-            Log.w(TAG, "Device not found in SQLite for removal: " + deviceId);
-        }
-    }
-
-    public boolean updateDevice(ESPDevice device) {
+    private boolean updateDevice(ESPDevice device) {
         SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-
-//        System.out.println(device.isRGBMode() ? 1 : 0);
-        values.put(COLUMN_NAME, device.getName());
-        values.put(COLUMN_COMMAND_TOPIC, device.getCommandTopic());
-        values.put(COLUMN_IS_LIGHT_ON, device.isLightOn() ? 1 : 0);
-        values.put(COLUMN_IS_RGB_MODE, device.isRGBMode() ? 1 : 0);
+        ContentValues values = toContentValues(device);
 
         int rowsAffected = db.update(
                 TABLE_DEVICES,
@@ -358,7 +271,7 @@ public class DeviceDatabaseHelper extends SQLiteOpenHelper {
         return rowsAffected > 0;
     }
 
-    public List<ESPDevice> getAllDevices() {
+    List<ESPDevice> getAllDevices() {
         List<ESPDevice> devices = new ArrayList<>();
         SQLiteDatabase db = this.getReadableDatabase();
         Cursor cursor = db.query(TABLE_DEVICES, null, null, null, null, null, null);
@@ -369,11 +282,13 @@ public class DeviceDatabaseHelper extends SQLiteOpenHelper {
             String topic = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_COMMAND_TOPIC));
             boolean isLightOn = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_IS_LIGHT_ON)) == 1;
             boolean isRGBMode = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_IS_RGB_MODE)) == 1;
+            String room = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ROOM));
 
             ESPDevice device = new ESPDevice(deviceId, topic);
             device.setName(name);
             device.setLightOn(isLightOn);
             device.setRGBMode(isRGBMode);
+            device.setRoom(room);
             devices.add(device);
         }
         cursor.close();
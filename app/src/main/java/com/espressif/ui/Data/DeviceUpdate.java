@@ -0,0 +1,174 @@
+package com.espressif.ui.Data;
+
+import com.espressif.ui.models.ESPDevice;
+
+/**
+ * Change of one device (or of all devices), received over MQTT or made in the app.
+ * Updates of the same device which arrive close to each other are merged into one,
+ * so that only the final state is written to the database and shown in UI.
+ */
+public class DeviceUpdate {
+
+    private final String deviceId;
+    private boolean isAdded;
+    private boolean isRemoved;
+    private String commandTopic;
+    private String name;
+    private Boolean lightOn;
+    private Boolean rgbMode;
+    // Room assigned to the device, or for update of all devices, room to which update is limited.
+    private String room;
+
+    private DeviceUpdate(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public static DeviceUpdate added(String deviceId, String commandTopic) {
+        DeviceUpdate update = new DeviceUpdate(deviceId);
+        update.isAdded = true;
+        update.commandTopic = commandTopic;
+        return update;
+    }
+
+    public static DeviceUpdate removed(String deviceId) {
+        DeviceUpdate update = new DeviceUpdate(deviceId);
+        update.isRemoved = true;
+        return update;
+    }
+
+    public static DeviceUpdate renamed(String deviceId, String name) {
+        DeviceUpdate update = new DeviceUpdate(deviceId);
+        update.name = name;
+        return update;
+    }
+
+    public static DeviceUpdate state(String deviceId, boolean lightOn, boolean rgbMode) {
+        DeviceUpdate update = new DeviceUpdate(deviceId);
+        update.lightOn = lightOn;
+        update.rgbMode = rgbMode;
+        return update;
+    }
+
+    static DeviceUpdate light(String deviceId, boolean lightOn) {
+        DeviceUpdate update = new DeviceUpdate(deviceId);
+        update.lightOn = lightOn;
+        return update;
+    }
+
+    public static DeviceUpdate movedToRoom(String deviceId, String room) {
+        DeviceUpdate update = new DeviceUpdate(deviceId);
+        update.room = room;
+        return update;
+    }
+
+    /**
+     * Name, state and room of given device.
+     */
+    public static DeviceUpdate of(ESPDevice device) {
+        DeviceUpdate update = new DeviceUpdate(device.getDeviceId());
+        update.name = device.getName();
+        update.lightOn = device.isLightOn();
+        update.rgbMode = device.isRGBMode();
+        update.room = device.getRoom();
+        return update;
+    }
+
+    /**
+     * Light state of all devices, e.g. from a voice command.
+     */
+    public static DeviceUpdate allLights(boolean lightOn) {
+        return roomLights(null, lightOn);
+    }
+
+    /**
+     * Light state of all devices in given room.
+     *
+     * @param room Room of devices, null for all devices.
+     */
+    public static DeviceUpdate roomLights(String room, boolean lightOn) {
+        DeviceUpdate update = new DeviceUpdate(null);
+        update.lightOn = lightOn;
+        update.room = room;
+        return update;
+    }
+
+    /**
+     * Merge a newer update of the same device into this one.
+     */
+    void merge(DeviceUpdate newer) {
+        if (newer.isRemoved) {
+            isRemoved = true;
+            isAdded = false;
+            commandTopic = null;
+            name = null;
+            lightOn = null;
+            rgbMode = null;
+            room = null;
+            return;
+        }
+        if (newer.isAdded && !isAdded) {
+            isAdded = true;
+            commandTopic = newer.commandTopic;
+        }
+        if (newer.name != null) {
+            name = newer.name;
+        }
+        if (newer.lightOn != null) {
+            lightOn = newer.lightOn;
+        }
+        if (newer.rgbMode != null) {
+            rgbMode = newer.rgbMode;
+        }
+        if (newer.room != null) {
+            room = newer.room;
+        }
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public boolean isForAllDevices() {
+        return deviceId == null;
+    }
+
+    public boolean isAdded() {
+        return isAdded;
+    }
+
+    public boolean isRemoved() {
+        return isRemoved;
+    }
+
+    public String getCommandTopic() {
+        return commandTopic;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Boolean getLightOn() {
+        return lightOn;
+    }
+
+    public Boolean getRgbMode() {
+        return rgbMode;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public boolean hasStateChange() {
+        return name != null || lightOn != null || rgbMode != null || room != null;
+    }
+
+    /**
+     * Check whether update of all devices applies to given device.
+     */
+    public boolean appliesTo(ESPDevice device) {
+        return isForAllDevices() ? (room == null || room.equals(device.getRoom()))
+                : deviceId.equals(device.getDeviceId());
+    }
+}
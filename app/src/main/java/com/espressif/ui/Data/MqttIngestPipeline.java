@@ -0,0 +1,322 @@
+package com.espressif.ui.Data;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import com.espressif.ui.models.ESPDevice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Write-behind pipeline for MQTT messages.
+ * Messages are routed by {@link MqttTopicRouter} on a worker thread and turned into {@link DeviceUpdate}s,
+ * which are applied to {@link AppDataManager} right away. Changes of the same device within a short window are merged:
+ * listeners are notified on the main thread once per flush, only with updates which changed something,
+ * and final state of changed devices is written to SQLite in one transaction.
+ * Changes made through {@link AppDataManager} are persisted by the same flush.
+ */
+public class MqttIngestPipeline {
+
+    private static final String TAG = "MqttIngestPipeline";
+
+    public static final String NOTIFICATION_TOPIC = "/devices/notification";
+    public static final String SPEECH_COMMAND_TOPIC = "/speech/command";
+    // "/devices/<device_id>/command": device topics have at least four levels, unlike the two topics above.
+    static final String DEVICE_TOPIC_FILTER = "/+/+/+/#";
+    static final int DEVICE_ID_LEVEL = 2;
+
+    private static final long COALESCE_WINDOW_MS = 100;
+    private static final int MAX_PENDING_UPDATES = 256;
+    private static final long QUIT_TIMEOUT_MS = 1000;
+
+    public interface DeviceChangeListener {
+        void onDevicesChanged(List<DeviceUpdate> updates);
+    }
+
+    private final DeviceDatabaseHelper dbHelper;
+    private final HandlerThread workerThread;
+    private final Handler workerHandler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<DeviceChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final MqttTopicRouter router = new MqttTopicRouter(DEVICE_ID_LEVEL);
+
+    // Accessed only on worker thread.
+    private final LinkedHashMap<String, DeviceUpdate> pendingUpdates = new LinkedHashMap<>();
+    private final LinkedHashSet<String> dirtyDeviceIds = new LinkedHashSet<>();
+    private boolean isFlushScheduled;
+    private AppDataManager deviceCache;
+
+    private final Runnable flushRunnable = () -> {
+        isFlushScheduled = false;
+        flush();
+    };
+
+    MqttIngestPipeline(DeviceDatabaseHelper dbHelper) {
+        this.dbHelper = dbHelper;
+        workerThread = new HandlerThread("MqttIngest");
+        workerThread.start();
+        workerHandler = new Handler(workerThread.getLooper());
+
+        router.register(NOTIFICATION_TOPIC, this::onDeviceAnnounced);
+        router.register(SPEECH_COMMAND_TOPIC, this::onSpeechCommand);
+        router.register(DEVICE_TOPIC_FILTER, this::onDeviceMessage);
+    }
+
+    /**
+     * Write updates which are still waiting for their flush and stop the worker thread.
+     * Messages submitted after this are dropped.
+     */
+    void quit() {
+        // quitSafely() drops messages which are not due yet, so the delayed flush is replaced by an immediate one.
+        workerHandler.removeCallbacks(flushRunnable);
+        workerHandler.post(flushRunnable);
+        workerThread.quitSafely();
+        try {
+            workerThread.join(QUIT_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void addDeviceChangeListener(DeviceChangeListener listener) {
+        if (listener != null && !listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeDeviceChangeListener(DeviceChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queue a received message, can be called from any thread.
+     */
+    public void submit(String topic, String message) {
+        if (topic == null || message == null) {
+            Log.w(TAG, "Received null topic or message");
+            return;
+        }
+        workerHandler.post(() -> process(topic, message));
+    }
+
+    /**
+     * Persist update which is already applied to {@link AppDataManager}, can be called from any thread.
+     */
+    void persist(DeviceUpdate update) {
+        workerHandler.post(() -> {
+            dirtyDeviceIds.add(update.getDeviceId());
+            scheduleFlush();
+        });
+    }
+
+    /**
+     * Persist update of all devices (or of a room) which is already applied to {@link AppDataManager}
+     * and changed its state, and notify listeners, can be called from any thread.
+     */
+    void persistBulk(DeviceUpdate update) {
+        workerHandler.post(() -> {
+            notifyPendingUpdates();
+            notifyListeners(Collections.singletonList(update));
+            persistBulkUpdate(update);
+            flushNow();
+        });
+    }
+
+    private void process(String topic, String message) {
+        if (router.route(topic, message) == 0) {
+            Log.w(TAG, "No handler for topic: " + topic);
+        }
+    }
+
+    private void onDeviceAnnounced(MqttTopicRouter.Message message) {
+        // Payload is command topic of the device, which holds device id at the same level as device topics.
+        String commandTopic = message.getPayload();
+        String deviceId = MqttTopicRouter.levelOf(commandTopic, DEVICE_ID_LEVEL);
+        if (deviceId != null && !deviceId.isEmpty()) {
+            enqueue(DeviceUpdate.added(deviceId, commandTopic));
+        } else {
+            Log.w(TAG, "Invalid message format in " + NOTIFICATION_TOPIC + ": " + commandTopic);
+        }
+    }
+
+    private void onSpeechCommand(MqttTopicRouter.Message message) {
+        // "turn on" / "turn off" for all devices, "turn on/<room>" / "turn off/<room>" for one room
+        String room = message.getArgument();
+        if (room != null && room.isEmpty()) {
+            Log.w(TAG, "Invalid room in light control message: " + message.getPayload());
+            return;
+        }
+        switch (message.getCommand()) {
+            case TURN_ON_ALL:
+                applyToAllDevices(DeviceUpdate.roomLights(room, true));
+                break;
+            case TURN_OFF_ALL:
+                applyToAllDevices(DeviceUpdate.roomLights(room, false));
+                break;
+            default:
+                Log.w(TAG, "Unknown light control message: " + message.getPayload());
+        }
+    }
+
+    private void onDeviceMessage(MqttTopicRouter.Message message) {
+        String deviceId = message.getDeviceId();
+        String argument = message.getArgument();
+
+        switch (message.getCommand()) {
+            case DELETE:
+                enqueue(DeviceUpdate.removed(deviceId));
+                break;
+            case RENAME:
+                if (!argument.isEmpty()) {
+                    enqueue(DeviceUpdate.renamed(deviceId, argument));
+                } else {
+                    Log.w(TAG, "Invalid name format in message: " + message.getPayload() + " for device: " + deviceId);
+                }
+                break;
+            case ROOM:
+                if (!argument.isEmpty()) {
+                    enqueue(DeviceUpdate.movedToRoom(deviceId, argument));
+                } else {
+                    Log.w(TAG, "Invalid room format in message: " + message.getPayload() + " for device: " + deviceId);
+                }
+                break;
+            case ON_RGB:
+                enqueue(DeviceUpdate.state(deviceId, true, true));
+                break;
+            case OFF_RGB:
+                enqueue(DeviceUpdate.state(deviceId, false, true));
+                break;
+            case ON:
+                enqueue(DeviceUpdate.state(deviceId, true, false));
+                break;
+            case OFF:
+                enqueue(DeviceUpdate.state(deviceId, false, false));
+                break;
+            default:
+                Log.w(TAG, "Unknown message: " + message.getPayload() + " for device: " + deviceId);
+        }
+    }
+
+    private void enqueue(DeviceUpdate update) {
+        if (getDeviceCache().applyUpdates(Collections.singletonList(update)).isEmpty()) {
+            return;
+        }
+
+        DeviceUpdate pending = pendingUpdates.get(update.getDeviceId());
+        if (pending == null) {
+            pendingUpdates.put(update.getDeviceId(), update);
+        } else {
+            pending.merge(update);
+        }
+        dirtyDeviceIds.add(update.getDeviceId());
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (dirtyDeviceIds.size() >= MAX_PENDING_UPDATES) {
+            flushNow();
+        } else if (!isFlushScheduled) {
+            isFlushScheduled = true;
+            workerHandler.postDelayed(flushRunnable, COALESCE_WINDOW_MS);
+        }
+    }
+
+    /**
+     * Updates of all devices are applied in order with per device updates, so pending updates are notified first.
+     * Whole update is one pass over the cache, one UPDATE statement and one notification, whatever the number of devices.
+     */
+    private void applyToAllDevices(DeviceUpdate update) {
+        notifyPendingUpdates();
+
+        List<DeviceUpdate> applied = getDeviceCache().applyUpdates(Collections.singletonList(update));
+        if (!applied.isEmpty()) {
+            notifyListeners(applied);
+            persistBulkUpdate(update);
+        }
+        flushNow();
+    }
+
+    /**
+     * Dirty devices are written after this statement by the caller, so that a device changed after the bulk update
+     * keeps its latest cached state in the database.
+     */
+    private void persistBulkUpdate(DeviceUpdate update) {
+        if (update.getLightOn() == null) {
+            return;
+        }
+        try {
+            dbHelper.updateStateLight(update.getLightOn(), update.getRoom());
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write light state of all devices: " + e.getMessage());
+        }
+    }
+
+    private void flushNow() {
+        workerHandler.removeCallbacks(flushRunnable);
+        isFlushScheduled = false;
+        flush();
+    }
+
+    private void flush() {
+        notifyPendingUpdates();
+
+        if (dirtyDeviceIds.isEmpty()) {
+            return;
+        }
+
+        // Latest state is written, whichever update made the device dirty.
+        List<ESPDevice> changedDevices = new ArrayList<>();
+        List<String> removedDeviceIds = new ArrayList<>();
+        for (String deviceId : dirtyDeviceIds) {
+            ESPDevice device = getDeviceCache().getDeviceById(deviceId);
+            if (device != null) {
+                changedDevices.add(device);
+            } else {
+                removedDeviceIds.add(deviceId);
+            }
+        }
+        dirtyDeviceIds.clear();
+        persistDevices(changedDevices, removedDeviceIds);
+    }
+
+    private void notifyPendingUpdates() {
+        if (!pendingUpdates.isEmpty()) {
+            notifyListeners(new ArrayList<>(pendingUpdates.values()));
+            pendingUpdates.clear();
+        }
+    }
+
+    private void persistDevices(List<ESPDevice> changedDevices, List<String> removedDeviceIds) {
+        try {
+            dbHelper.persistDevices(changedDevices, removedDeviceIds);
+            Log.d(TAG, "Persisted " + changedDevices.size() + " devices, removed " + removedDeviceIds.size());
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write device updates: " + e.getMessage());
+        }
+    }
+
+    private AppDataManager getDeviceCache() {
+        if (deviceCache == null) {
+            deviceCache = AppDataManager.getInstance(dbHelper);
+        }
+        return deviceCache;
+    }
+
+    private void notifyListeners(List<DeviceUpdate> updates) {
+        if (updates.isEmpty() || listeners.isEmpty()) {
+            return;
+        }
+        mainHandler.post(() -> {
+            for (DeviceChangeListener listener : listeners) {
+                listener.onDevicesChanged(updates);
+            }
+        });
+    }
+}
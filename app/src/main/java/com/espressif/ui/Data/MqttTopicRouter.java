@@ -0,0 +1,238 @@
+package com.espressif.ui.Data;
+
+import java.util.Arrays;
+
+/**
+ * Dispatches MQTT messages to handlers registered for topic filters.
+ * Filters are compiled into a trie of topic levels when they are registered, with MQTT wildcards
+ * "+" (exactly one level) and "#" (this and all following levels, last level of a filter only).
+ * Routing walks the trie by comparing topic regions in place, so no level strings are created, and handlers
+ * of every matching filter receive the same {@link Message}, whose payload is decoded at most once.
+ * Handlers are registered before messages are routed; routing is done from one thread.
+ */
+public class MqttTopicRouter {
+
+    private static final char LEVEL_SEPARATOR = '/';
+    private static final String SINGLE_LEVEL_WILDCARD = "+";
+    private static final String MULTI_LEVEL_WILDCARD = "#";
+
+    public interface MessageHandler {
+        void onMessage(Message message);
+    }
+
+    /**
+     * Routed message. Device id and command are extracted when first requested and then reused.
+     */
+    public static class Message {
+
+        private final String topic;
+        private final String payload;
+        private final int deviceIdLevel;
+        private String deviceId;
+        private boolean isDeviceIdExtracted;
+        private DeviceCommand command;
+        private String argument;
+
+        Message(String topic, String payload, int deviceIdLevel) {
+            this.topic = topic;
+            this.payload = payload;
+            this.deviceIdLevel = deviceIdLevel;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+
+        /**
+         * @return Device id level of the topic, null if topic has fewer levels.
+         */
+        public String getDeviceId() {
+            if (!isDeviceIdExtracted) {
+                deviceId = levelOf(topic, deviceIdLevel);
+                isDeviceIdExtracted = true;
+            }
+            return deviceId;
+        }
+
+        public DeviceCommand getCommand() {
+            if (command == null) {
+                command = DeviceCommand.decode(payload);
+                argument = DeviceCommand.argumentOf(command, payload);
+            }
+            return command;
+        }
+
+        /**
+         * @return Argument of the command, see {@link DeviceCommand#argumentOf}.
+         */
+        public String getArgument() {
+            getCommand();
+            return argument;
+        }
+    }
+
+    private static class Node {
+
+        final String level;
+        // Arrays rather than lists, trie is built once and read for every message.
+        Node[] children = new Node[0];
+        MessageHandler[] handlers = new MessageHandler[0];
+        Node singleLevelChild;
+        Node multiLevelChild;
+
+        Node(String level) {
+            this.level = level;
+        }
+    }
+
+    private final Node root = new Node(null);
+    private final int deviceIdLevel;
+    private int deliveredCount;
+
+    /**
+     * @param deviceIdLevel Index of the topic level which holds device id, e.g. 2 for "/devices/&lt;id&gt;/command".
+     */
+    public MqttTopicRouter(int deviceIdLevel) {
+        this.deviceIdLevel = deviceIdLevel;
+    }
+
+    /**
+     * Register handler for messages of topics matching given filter.
+     *
+     * @throws IllegalArgumentException If filter is not a valid MQTT topic filter.
+     */
+    public void register(String topicFilter, MessageHandler handler) {
+        if (topicFilter == null || topicFilter.isEmpty() || handler == null) {
+            throw new IllegalArgumentException("Topic filter and handler are required");
+        }
+
+        Node node = root;
+        int levelStart = 0;
+        while (true) {
+            int levelEnd = topicFilter.indexOf(LEVEL_SEPARATOR, levelStart);
+            boolean isLastLevel = levelEnd == -1;
+            String level = topicFilter.substring(levelStart, isLastLevel ? topicFilter.length() : levelEnd);
+
+            if (MULTI_LEVEL_WILDCARD.equals(level)) {
+                if (!isLastLevel) {
+                    throw new IllegalArgumentException("'#' must be the last level of topic filter: " + topicFilter);
+                }
+                if (node.multiLevelChild == null) {
+                    node.multiLevelChild = new Node(level);
+                }
+                node = node.multiLevelChild;
+            } else if (SINGLE_LEVEL_WILDCARD.equals(level)) {
+                if (node.singleLevelChild == null) {
+                    node.singleLevelChild = new Node(level);
+                }
+                node = node.singleLevelChild;
+            } else {
+                if (level.indexOf('+') != -1 || level.indexOf('#') != -1) {
+                    throw new IllegalArgumentException("Wildcard must occupy a whole level of topic filter: " + topicFilter);
+                }
+                node = getOrAddChild(node, level);
+            }
+
+            if (isLastLevel) {
+                break;
+            }
+            levelStart = levelEnd + 1;
+        }
+        node.handlers = Arrays.copyOf(node.handlers, node.handlers.length + 1);
+        node.handlers[node.handlers.length - 1] = handler;
+    }
+
+    /**
+     * Deliver message to handlers of all filters matching its topic.
+     *
+     * @return Number of handlers which received the message.
+     */
+    public int route(String topic, String payload) {
+        deliveredCount = 0;
+        // Topics starting with '$' are reserved by the broker and are not matched by wildcards on the first level.
+        boolean isWildcardAllowed = topic.isEmpty() || topic.charAt(0) != '$';
+        match(root, topic, payload, 0, null, isWildcardAllowed);
+        return deliveredCount;
+    }
+
+    /**
+     * Topic level at given index, without splitting the topic.
+     *
+     * @return Level, null if topic has fewer levels.
+     */
+    public static String levelOf(String topic, int index) {
+        int levelStart = 0;
+        for (int i = 0; i < index; i++) {
+            int separator = topic.indexOf(LEVEL_SEPARATOR, levelStart);
+            if (separator == -1) {
+                return null;
+            }
+            levelStart = separator + 1;
+        }
+        int levelEnd = topic.indexOf(LEVEL_SEPARATOR, levelStart);
+        return topic.substring(levelStart, levelEnd == -1 ? topic.length() : levelEnd);
+    }
+
+    /**
+     * @param levelStart Start of the next topic level, topic length + 1 when all levels are matched.
+     * @return Message created for delivery, reused by subsequent matches.
+     */
+    private Message match(Node node, String topic, String payload, int levelStart, Message message, boolean isWildcardAllowed) {
+        // "#" also matches the parent level, so it is delivered before checking whether topic has more levels.
+        if (node.multiLevelChild != null && isWildcardAllowed) {
+            message = deliver(node.multiLevelChild, topic, payload, message);
+        }
+
+        if (levelStart > topic.length()) {
+            return deliver(node, topic, payload, message);
+        }
+
+        int levelEnd = topic.indexOf(LEVEL_SEPARATOR, levelStart);
+        if (levelEnd == -1) {
+            levelEnd = topic.length();
+        }
+        int levelLength = levelEnd - levelStart;
+
+        for (Node child : node.children) {
+            if (child.level.length() == levelLength && topic.regionMatches(levelStart, child.level, 0, levelLength)) {
+                message = match(child, topic, payload, levelEnd + 1, message, true);
+                break;
+            }
+        }
+
+        if (node.singleLevelChild != null && isWildcardAllowed) {
+            message = match(node.singleLevelChild, topic, payload, levelEnd + 1, message, true);
+        }
+        return message;
+    }
+
+    private Message deliver(Node node, String topic, String payload, Message message) {
+        if (node.handlers.length == 0) {
+            return message;
+        }
+        if (message == null) {
+            message = new Message(topic, payload, deviceIdLevel);
+        }
+        for (MessageHandler handler : node.handlers) {
+            handler.onMessage(message);
+            deliveredCount++;
+        }
+        return message;
+    }
+
+    private static Node getOrAddChild(Node node, String level) {
+        for (Node child : node.children) {
+            if (child.level.equals(level)) {
+                return child;
+            }
+        }
+        Node child = new Node(level);
+        node.children = Arrays.copyOf(node.children, node.children.length + 1);
+        node.children[node.children.length - 1] = child;
+        return child;
+    }
+}
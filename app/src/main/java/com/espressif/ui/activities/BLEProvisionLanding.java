@@ -32,10 +32,8 @@ import android.os.Handler;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
-import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
@@ -44,13 +42,18 @@ import android.widget.Toast;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.widget.Toolbar;
 import androidx.core.app.ActivityCompat;
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.espressif.AppConstants;
 import com.espressif.provisioning.DeviceConnectionEvent;
 import com.espressif.provisioning.ESPConstants;
-import com.espressif.provisioning.listeners.BleScanListener;
+import com.espressif.provisioning.BlePeripheral;
+import com.espressif.provisioning.listeners.BleScanUpdateListener;
 import com.espressif.ui.adapters.BleDeviceListAdapter;
 import com.espressif.ui.models.BleDevice;
+import com.espressif.ui.models.BleDeviceList;
 import com.espressif.ui.utils.Utils;
 import com.espressif.wifi_provisioning.BuildConfig;
 import com.espressif.wifi_provisioning.R;
@@ -59,7 +62,6 @@ import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 
 public class BLEProvisionLanding extends ManualProvBaseActivity {
 
@@ -75,18 +77,17 @@ public class BLEProvisionLanding extends ManualProvBaseActivity {
 //    public static boolean isBleWorkDone = false;
 
     private Button btnScan, btnPrefix;
-    private ListView listView;
+    private RecyclerView listView;
     private TextView textPrefix;
     private ProgressBar progressBar;
     private RelativeLayout prefixLayout;
 
     private BleDeviceListAdapter adapter;
     private BluetoothAdapter bleAdapter;
-    private ArrayList<BleDevice> deviceList;
-    private HashMap<BluetoothDevice, String> bluetoothDevices;
+    private BleDeviceList bleDevices;
     private Handler handler;
 
-    private int position = -1;
+    private BleDevice selectedDevice;
     private String deviceNamePrefix;
     private boolean isDeviceConnected = false, isConnecting = false;
     private boolean isScanning = false;
@@ -120,8 +121,7 @@ public class BLEProvisionLanding extends ManualProvBaseActivity {
         isConnecting = false;
         isDeviceConnected = false;
         handler = new Handler();
-        bluetoothDevices = new HashMap<>();
-        deviceList = new ArrayList<>();
+        bleDevices = new BleDeviceList();
         deviceNamePrefix = sharedPreferences.getString(AppConstants.KEY_BLE_DEVICE_NAME_PREFIX,
                 getResources().getString(R.string.ble_device_name_prefix));
         initViews();
@@ -264,11 +264,12 @@ public class BLEProvisionLanding extends ManualProvBaseActivity {
             prefixLayout.setVisibility(View.GONE);
         }
 
-        adapter = new BleDeviceListAdapter(this, R.layout.item_ble_scan, deviceList);
+        adapter = new BleDeviceListAdapter(this, bleDevices, onDeviceClickListener);
 
-        // Assign adapter to ListView
+        // Assign adapter to RecyclerView
+        listView.setLayoutManager(new LinearLayoutManager(this));
+        listView.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
         listView.setAdapter(adapter);
-        listView.setOnItemClickListener(onDeviceCLickListener);
         btnScan.setOnClickListener(btnScanClickListener);
         btnPrefix.setOnClickListener(btnPrefixChangeClickListener);
     }
@@ -349,8 +350,8 @@ public class BLEProvisionLanding extends ManualProvBaseActivity {
         }
 
         isScanning = true;
-        deviceList.clear();
-        bluetoothDevices.clear();
+        bleDevices.clear();
+        adapter.reset();
 
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
             provisionManager.searchBleEspDevices(deviceNamePrefix, bleScanListener);
@@ -373,7 +374,7 @@ public class BLEProvisionLanding extends ManualProvBaseActivity {
             Toast.makeText(BLEProvisionLanding.this, "Please give location permission to stop BLE scan", Toast.LENGTH_LONG).show();
         }
 
-        if (deviceList.size() <= 0) {
+        if (bleDevices.size() <= 0) {
             Toast.makeText(BLEProvisionLanding.this, R.string.error_no_ble_device, Toast.LENGTH_SHORT).show();
         }
     }
@@ -405,8 +406,6 @@ public class BLEProvisionLanding extends ManualProvBaseActivity {
         @Override
         public void onClick(View v) {
 
-            bluetoothDevices.clear();
-            adapter.clear();
             startScan();
         }
     };
@@ -420,7 +419,7 @@ public class BLEProvisionLanding extends ManualProvBaseActivity {
         }
     };
 
-    private BleScanListener bleScanListener = new BleScanListener() {
+    private BleScanUpdateListener bleScanListener = new BleScanUpdateListener() {
 
         @Override
         public void scanStartFailed() {
@@ -438,7 +437,6 @@ public class BLEProvisionLanding extends ManualProvBaseActivity {
                 Log.d(TAG, "====== onPeripheralFound ===== " + device.getName());
             }
 
-            boolean deviceExists = false;
             String serviceUuid = "";
 
             if (scanResult.getScanRecord().getServiceUuids() != null && scanResult.getScanRecord().getServiceUuids().size() > 0) {
@@ -446,19 +444,27 @@ public class BLEProvisionLanding extends ManualProvBaseActivity {
             }
             Log.d(TAG, "Add service UUID : " + serviceUuid);
 
-            if (bluetoothDevices.containsKey(device)) {
-                deviceExists = true;
+            BleDevice bleDevice = new BleDevice();
+            bleDevice.setName(scanResult.getScanRecord().getDeviceName());
+            bleDevice.setBluetoothDevice(device);
+            bleDevice.setPrimaryServiceUuid(serviceUuid);
+            bleDevice.setRssi(scanResult.getRssi());
+
+            if (bleDevices.addOrUpdate(device.getAddress(), bleDevice)) {
+                listView.setVisibility(View.VISIBLE);
+                adapter.refresh();
             }
+        }
 
-            if (!deviceExists) {
-                BleDevice bleDevice = new BleDevice();
-                bleDevice.setName(scanResult.getScanRecord().getDeviceName());
-                bleDevice.setBluetoothDevice(device);
+        @Override
+        public void onPeripheralsUpdated(ArrayList<BlePeripheral> peripherals) {
 
-                listView.setVisibility(View.VISIBLE);
-                bluetoothDevices.put(device, serviceUuid);
-                deviceList.add(bleDevice);
-                adapter.notifyDataSetChanged();
+            boolean isChanged = false;
+            for (BlePeripheral peripheral : peripherals) {
+                isChanged |= bleDevices.updateRssi(peripheral.getAddress(), peripheral.getRssi());
+            }
+            if (isChanged) {
+                adapter.refresh();
             }
         }
 
@@ -475,10 +481,10 @@ public class BLEProvisionLanding extends ManualProvBaseActivity {
         }
     };
 
-    private AdapterView.OnItemClickListener onDeviceCLickListener = new AdapterView.OnItemClickListener() {
+    private BleDeviceListAdapter.OnDeviceClickListener onDeviceClickListener = new BleDeviceListAdapter.OnDeviceClickListener() {
 
         @Override
-        public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
+        public void onDeviceClick(BleDevice bleDevice) {
 
             stopScan();
             isConnecting = true;
@@ -486,9 +492,9 @@ public class BLEProvisionLanding extends ManualProvBaseActivity {
             btnScan.setVisibility(View.GONE);
             listView.setVisibility(View.GONE);
             progressBar.setVisibility(View.VISIBLE);
-            BLEProvisionLanding.this.position = position;
-            BleDevice bleDevice = adapter.getItem(position);
-            String uuid = bluetoothDevices.get(bleDevice.getBluetoothDevice());
+            adapter.cancelRefresh();
+            selectedDevice = bleDevice;
+            String uuid = bleDevice.getPrimaryServiceUuid();
             Log.d(TAG, "=================== Connect to device : " + bleDevice.getName() + " UUID : " + uuid);
 
             if (ActivityCompat.checkSelfPermission(BLEProvisionLanding.this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
@@ -559,7 +565,7 @@ public class BLEProvisionLanding extends ManualProvBaseActivity {
 
         finish();
         Intent popIntent = new Intent(getApplicationContext(), ProofOfPossessionActivity.class);
-        popIntent.putExtra(AppConstants.KEY_DEVICE_NAME, deviceList.get(position).getName());
+        popIntent.putExtra(AppConstants.KEY_DEVICE_NAME, selectedDevice.getName());
         startActivity(popIntent);
     }
 
@@ -567,7 +573,7 @@ public class BLEProvisionLanding extends ManualProvBaseActivity {
 
         finish();
         Intent wifiListIntent = new Intent(getApplicationContext(), WiFiScanActivity.class);
-        wifiListIntent.putExtra(AppConstants.KEY_DEVICE_NAME, deviceList.get(position).getName());
+        wifiListIntent.putExtra(AppConstants.KEY_DEVICE_NAME, selectedDevice.getName());
         startActivity(wifiListIntent);
     }
 
@@ -575,7 +581,7 @@ public class BLEProvisionLanding extends ManualProvBaseActivity {
 
         finish();
         Intent threadConfigIntent = new Intent(getApplicationContext(), ThreadConfigActivity.class);
-        threadConfigIntent.putExtra(AppConstants.KEY_DEVICE_NAME, deviceList.get(position).getName());
+        threadConfigIntent.putExtra(AppConstants.KEY_DEVICE_NAME, selectedDevice.getName());
         threadConfigIntent.putExtra(AppConstants.KEY_THREAD_SCAN_AVAILABLE, scanCapAvailable);
         startActivity(threadConfigIntent);
     }
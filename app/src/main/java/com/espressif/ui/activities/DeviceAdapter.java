@@ -19,7 +19,10 @@ import androidx.appcompat.widget.PopupMenu;
 import androidx.cardview.widget.CardView;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.espressif.ui.Data.AppDataManager;
 import com.espressif.ui.Data.DeviceDatabaseHelper;
+import com.espressif.ui.Data.DeviceUpdate;
+import com.espressif.ui.Data.MqttIngestPipeline;
 import com.espressif.ui.Services.MQTTService;
 import com.espressif.ui.models.ESPDevice;
 import com.espressif.wifi_provisioning.R;
@@ -27,7 +30,8 @@ import com.hivemq.client.mqtt.datatypes.MqttQos;
 
 import java.util.List;
 
-public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.DeviceViewHolder> implements MQTTService.MQTTCallback {
+public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.DeviceViewHolder>
+        implements MQTTService.MQTTCallback, MqttIngestPipeline.DeviceChangeListener {
 
     private static final String TAG = "DeviceAdapter";
     private Context context;
@@ -35,12 +39,26 @@ public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.DeviceView
     private MQTTService mqttService;
     private final Handler handler = new Handler(Looper.getMainLooper());
     private DeviceDatabaseHelper dbHelper;
+    private AppDataManager appDataManager;
 
     public DeviceAdapter(Context context, List<ESPDevice> devices, MQTTService mqttService) {
         this.context = context;
         this.deviceList = devices;
         this.mqttService = mqttService;
         this.dbHelper = DeviceDatabaseHelper.getInstance(context);
+        this.appDataManager = AppDataManager.getInstance(context);
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        dbHelper.addDeviceChangeListener(this);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        dbHelper.removeDeviceChangeListener(this);
     }
 
     @NonNull
@@ -68,7 +86,7 @@ public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.DeviceView
             String topic = device.getCommandTopic();
             String message = device.isRGBMode() ? (newState ? "onRGB" : "offRGB") : (newState ? "on" : "off");
 
-            dbHelper.updateDevice(device);
+            appDataManager.updateDevice(device);
             updateDeviceUI(holder, device);
             Log.d(TAG, "Publishing: " + message + " to " + topic);
             publishMqttMessage(topic, message);
@@ -88,7 +106,7 @@ public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.DeviceView
                     String topic = device.getCommandTopic();
                     String message = isRGB ? (device.isLightOn() ? "onRGB" : "offRGB") : (device.isLightOn() ? "on" : "off");
 
-                    dbHelper.updateDevice(device);
+                    appDataManager.updateDevice(device);
                     updateDeviceUI(holder, device);
                     Log.d(TAG, "Publishing after toggle: " + message + " to " + topic);
                     publishMqttMessage(topic, message);
@@ -107,7 +125,7 @@ public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.DeviceView
                         if (!newName.isEmpty()) {
                             Log.d(TAG, "Renaming device " + device.getDeviceId() + " to " + newName);
                             device.setName(newName);
-                            dbHelper.updateDevice(device);
+                            appDataManager.updateDevice(device);
                             updateDeviceUI(holder, device);
                         }
                     });
@@ -137,7 +155,7 @@ public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.DeviceView
             String topic = device.getCommandTopic();
             String message = "deleteNVS";
 
-            dbHelper.removeDevice(device.getDeviceId());
+            appDataManager.removeDevice(device.getDeviceId());
             publishMqttMessage(topic, message);
 
             handler.post(() -> {
@@ -166,46 +184,60 @@ public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.DeviceView
 
     @Override
     public void onMessageReceived(String topic, String message) {
-        Log.d(TAG, "Received: " + message + " from " + topic);
-        dbHelper.handleMqttMessage(topic, message);
-
-        handler.post(() -> {
-            for (int i = 0; i < deviceList.size(); i++) {
-                ESPDevice device = deviceList.get(i);
-                if (topic.equals(device.getCommandTopic())) {
-                    ESPDevice updatedDevice = dbHelper.getDeviceById(device.getDeviceId());
-                    if (updatedDevice != null) {
-                        if ("deleteNVS".equals(message)) {
-                            deviceList.remove(i);
-                            notifyItemRemoved(i);
-                            Log.d(TAG, "Removed device from UI: " + device.getDeviceId());
-                        } else if ("turn on".equals(message) || "onRGB".equals(message)) {
-                            updatedDevice.setLightOn(true);
-                            deviceList.set(i, updatedDevice);
-                            notifyItemChanged(i);
-                            Log.d(TAG, "Turned on device: " + device.getDeviceId());
-                        } else if ("turn off".equals(message) || "offRGB".equals(message)) {
-                            updatedDevice.setLightOn(false);
-                            deviceList.set(i, updatedDevice);
-                            notifyItemChanged(i);
-                            Log.d(TAG, "Turned off device: " + device.getDeviceId());
-                        } else {
-                            if (updatedDevice.isLightOn() != device.isLightOn() ||
-                                    updatedDevice.isRGBMode() != device.isRGBMode() ||
-                                    !updatedDevice.getName().equals(device.getName())) {
-                                deviceList.set(i, updatedDevice);
-                                notifyItemChanged(i);
-                                Log.d(TAG, "Updated UI for device: " + device.getDeviceId() +
-                                        ", LightOn: " + updatedDevice.isLightOn() +
-                                        ", RGBMode: " + updatedDevice.isRGBMode() +
-                                        ", Name: " + updatedDevice.getName());
-                            }
+        // Message is persisted by MQTTService, UI is updated from onDevicesChanged once it is written.
+    }
+
+    @Override
+    public void onDevicesChanged(List<DeviceUpdate> updates) {
+        for (DeviceUpdate update : updates) {
+            if (update.isForAllDevices()) {
+                if (update.getLightOn() != null) {
+                    for (ESPDevice device : deviceList) {
+                        if (update.appliesTo(device)) {
+                            device.setLightOn(update.getLightOn());
                         }
                     }
-                    break;
+                    notifyItemRangeChanged(0, deviceList.size());
                 }
+                continue;
             }
-        });
+
+            int position = indexOfDevice(update.getDeviceId());
+            if (position == -1) {
+                continue;
+            }
+
+            if (update.isRemoved() && !update.isAdded()) {
+                deviceList.remove(position);
+                notifyItemRemoved(position);
+                Log.d(TAG, "Removed device from UI: " + update.getDeviceId());
+                continue;
+            }
+
+            ESPDevice device = deviceList.get(position);
+            if (update.getName() != null) {
+                device.setName(update.getName());
+            }
+            if (update.getLightOn() != null) {
+                device.setLightOn(update.getLightOn());
+            }
+            if (update.getRgbMode() != null) {
+                device.setRGBMode(update.getRgbMode());
+            }
+            if (update.getRoom() != null) {
+                device.setRoom(update.getRoom());
+            }
+            notifyItemChanged(position);
+        }
+    }
+
+    private int indexOfDevice(String deviceId) {
+        for (int i = 0; i < deviceList.size(); i++) {
+            if (deviceList.get(i).getDeviceId().equals(deviceId)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     @Override
@@ -48,8 +48,8 @@ public class NewScreenActivity extends AppCompatActivity implements MQTTService.
             Log.d(TAG, "MQTT initialized");
 
             // Lấy danh sách thiết bị
-            DeviceDatabaseHelper dbHelper = new DeviceDatabaseHelper(this);
-            deviceList = dbHelper.getAllDevices();
+            dbHelper = DeviceDatabaseHelper.getInstance(this);
+            deviceList = AppDataManager.getInstance(this).getAllDevices();
 
             if (deviceList == null || deviceList.isEmpty()) {
                 Log.w(TAG, "No devices found, showing empty state");
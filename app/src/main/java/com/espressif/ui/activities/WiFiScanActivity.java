@@ -22,11 +22,9 @@ import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
-import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageView;
-import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -34,13 +32,16 @@ import android.widget.Toast;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.espressif.AppConstants;
 import com.espressif.provisioning.DeviceConnectionEvent;
 import com.espressif.provisioning.ESPConstants;
 import com.espressif.provisioning.ESPProvisionManager;
 import com.espressif.provisioning.WiFiAccessPoint;
-import com.espressif.provisioning.listeners.WiFiScanListener;
+import com.espressif.provisioning.listeners.WiFiScanUpdateListener;
 import com.espressif.ui.adapters.WiFiListAdapter;
 import com.espressif.wifi_provisioning.R;
 import com.google.android.material.textfield.TextInputLayout;
@@ -57,12 +58,14 @@ public class WiFiScanActivity extends AppCompatActivity {
 
     private Handler handler;
     private ImageView ivRefresh;
-    private ListView wifiListView;
+    private RecyclerView wifiListView;
     private ProgressBar progressBar;
     private WiFiListAdapter adapter;
-    private ArrayList<WiFiAccessPoint> wifiAPList;
     private ESPProvisionManager provisionManager;
 
+    // Incremented for every scan, so that results of a previous scan are not shown after refresh.
+    private int scanGeneration;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -77,7 +80,6 @@ public class WiFiScanActivity extends AppCompatActivity {
 
         progressBar.setVisibility(View.VISIBLE);
 
-        wifiAPList = new ArrayList<>();
         handler = new Handler();
         provisionManager = ESPProvisionManager.getInstance(getApplicationContext());
 
@@ -87,28 +89,29 @@ public class WiFiScanActivity extends AppCompatActivity {
         tvWifiMsg.setText(wifiMsg);
 
         ivRefresh.setOnClickListener(refreshClickListener);
-        adapter = new WiFiListAdapter(this, R.id.tv_wifi_name, wifiAPList);
-
-        // Assign adapter to ListView
-        wifiListView.setAdapter(adapter);
-        wifiListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        adapter = new WiFiListAdapter(this, new WiFiListAdapter.OnAccessPointClickListener() {
 
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int pos, long l) {
+            public void onAccessPointClick(WiFiAccessPoint accessPoint) {
 
-                Log.d(TAG, "Device to be connected -" + wifiAPList.get(pos));
-                String ssid = wifiAPList.get(pos).getWifiName();
+                Log.d(TAG, "Device to be connected -" + accessPoint);
+                String ssid = accessPoint.getWifiName();
 
                 if (ssid.equals(getString(R.string.join_other_network))) {
-                    askForNetwork(wifiAPList.get(pos).getWifiName(), wifiAPList.get(pos).getSecurity());
-                } else if (wifiAPList.get(pos).getSecurity() == ESPConstants.WIFI_OPEN) {
-                    goForProvisioning(wifiAPList.get(pos).getWifiName(), "");
+                    askForNetwork(accessPoint.getWifiName(), accessPoint.getSecurity());
+                } else if (accessPoint.getSecurity() == ESPConstants.WIFI_OPEN) {
+                    goForProvisioning(accessPoint.getWifiName(), "");
                 } else {
-                    askForNetwork(wifiAPList.get(pos).getWifiName(), wifiAPList.get(pos).getSecurity());
+                    askForNetwork(accessPoint.getWifiName(), accessPoint.getSecurity());
                 }
             }
         });
 
+        // Assign adapter to RecyclerView
+        wifiListView.setLayoutManager(new LinearLayoutManager(this));
+        wifiListView.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+        wifiListView.setAdapter(adapter);
+
         wifiListView.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
 
             @Override
@@ -150,7 +153,8 @@ public class WiFiScanActivity extends AppCompatActivity {
     private void startWifiScan() {
 
         Log.d(TAG, "Start Wi-Fi Scan");
-        wifiAPList.clear();
+        final int generation = ++scanGeneration;
+        adapter.clear();
 
         runOnUiThread(new Runnable() {
 
@@ -160,9 +164,30 @@ public class WiFiScanActivity extends AppCompatActivity {
             }
         });
 
+        handler.removeCallbacks(stopScanningTask);
         handler.postDelayed(stopScanningTask, 15000);
 
-        provisionManager.getEspDevice().scanNetworks(new WiFiScanListener() {
+        provisionManager.getEspDevice().scanNetworks(new WiFiScanUpdateListener() {
+
+            @Override
+            public void onWifiListUpdated(ArrayList<WiFiAccessPoint> updatedList) {
+                // Partial list is used to update UI.
+            }
+
+            @Override
+            public void onPartialWifiListReceived(final ArrayList<WiFiAccessPoint> partialList) {
+
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != scanGeneration) {
+                            return;
+                        }
+                        adapter.updateList(partialList);
+                        showPartialWifiList();
+                    }
+                });
+            }
 
             @Override
             public void onWifiListReceived(final ArrayList<WiFiAccessPoint> wifiList) {
@@ -170,8 +195,10 @@ public class WiFiScanActivity extends AppCompatActivity {
                 runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        wifiAPList.addAll(wifiList);
-                        completeWifiList();
+                        if (generation != scanGeneration) {
+                            return;
+                        }
+                        completeWifiList(wifiList);
                     }
                 });
             }
@@ -185,6 +212,9 @@ public class WiFiScanActivity extends AppCompatActivity {
                 runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
+                        if (generation != scanGeneration) {
+                            return;
+                        }
                         updateProgressAndScanBtn(false);
                         Toast.makeText(WiFiScanActivity.this, "Failed to get Wi-Fi scan list", Toast.LENGTH_LONG).show();
                     }
@@ -193,12 +223,14 @@ public class WiFiScanActivity extends AppCompatActivity {
         });
     }
 
-    private void completeWifiList() {
+    private void completeWifiList(ArrayList<WiFiAccessPoint> wifiList) {
 
         // Add "Join network" Option as a list item
         WiFiAccessPoint wifiAp = new WiFiAccessPoint();
         wifiAp.setWifiName(getString(R.string.join_other_network));
-        wifiAPList.add(wifiAp);
+        ArrayList<WiFiAccessPoint> completeList = new ArrayList<>(wifiList);
+        completeList.add(wifiAp);
+        adapter.updateList(completeList);
 
         updateProgressAndScanBtn(false);
         handler.removeCallbacks(stopScanningTask);
@@ -327,7 +359,17 @@ public class WiFiScanActivity extends AppCompatActivity {
             progressBar.setVisibility(View.GONE);
             wifiListView.setVisibility(View.VISIBLE);
             ivRefresh.setVisibility(View.VISIBLE);
-            adapter.notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * This method will show networks received so far while scan is still in progress.
+     */
+    private void showPartialWifiList() {
+
+        if (wifiListView.getVisibility() != View.VISIBLE) {
+            progressBar.setVisibility(View.GONE);
+            wifiListView.setVisibility(View.VISIBLE);
         }
     }
 
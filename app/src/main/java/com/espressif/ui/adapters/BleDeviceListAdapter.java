@@ -14,41 +14,145 @@
 
 package com.espressif.ui.adapters;
 
-import android.app.Activity;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.ListUpdateCallback;
+import androidx.recyclerview.widget.RecyclerView;
+
 import com.espressif.ui.models.BleDevice;
+import com.espressif.ui.models.BleDeviceList;
 import com.espressif.wifi_provisioning.R;
 
 import java.util.ArrayList;
 
-public class BleDeviceListAdapter extends ArrayAdapter<BleDevice> {
+/**
+ * Shows devices of a {@link BleDeviceList}. Adapter keeps its own copy of the list, which is updated
+ * with item inserts / moves / changes on refresh, so rows are not rebound and animate to their new position.
+ */
+public class BleDeviceListAdapter extends RecyclerView.Adapter<BleDeviceListAdapter.ViewHolder> {
+
+    // Max number of list refreshes per second while scan results are coming.
+    private static final int MAX_REFRESH_RATE = 5;
+    private static final long MIN_REFRESH_INTERVAL = 1000 / MAX_REFRESH_RATE;
+
+    public interface OnDeviceClickListener {
+        void onDeviceClick(BleDevice device);
+    }
 
     private Context context;
-    private ArrayList<BleDevice> bluetoothDevices;
+    private BleDeviceList bleDevices;
+    private OnDeviceClickListener clickListener;
+    private final ArrayList<BleDevice> displayedDevices = new ArrayList<>();
+    private final ListUpdateCallback updateCallback = new AdapterListUpdateCallback(this);
+    private Handler handler;
+    private long lastRefreshTime;
+    private boolean isRefreshScheduled;
 
-    public BleDeviceListAdapter(Context context, int resource, ArrayList<BleDevice> bluetoothDevices) {
-        super(context, resource, bluetoothDevices);
+    public BleDeviceListAdapter(Context context, BleDeviceList bleDevices, OnDeviceClickListener clickListener) {
         this.context = context;
-        this.bluetoothDevices = bluetoothDevices;
+        this.bleDevices = bleDevices;
+        this.clickListener = clickListener;
+        this.handler = new Handler(Looper.getMainLooper());
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+
+        View view = LayoutInflater.from(context).inflate(R.layout.item_ble_scan, parent, false);
+        final ViewHolder holder = new ViewHolder(view);
+
+        view.setOnClickListener(new View.OnClickListener() {
+
+            @Override
+            public void onClick(View v) {
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && clickListener != null) {
+                    clickListener.onDeviceClick(displayedDevices.get(position));
+                }
+            }
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        holder.bleDeviceNameText.setText(displayedDevices.get(position).getName());
+    }
+
+    @Override
+    public int getItemCount() {
+        return displayedDevices.size();
+    }
+
+    /**
+     * This method is used to refresh list view after device list has been changed.
+     * Refreshes are throttled to {@link #MAX_REFRESH_RATE} per second, so many scan results received
+     * within a short time are shown with a single refresh.
+     */
+    public void refresh() {
+
+        if (isRefreshScheduled) {
+            return;
+        }
+
+        long delay = lastRefreshTime + MIN_REFRESH_INTERVAL - SystemClock.elapsedRealtime();
+        if (delay <= 0) {
+            refreshNow();
+        } else {
+            isRefreshScheduled = true;
+            handler.postDelayed(refreshTask, delay);
+        }
+    }
+
+    /**
+     * This method is used to cancel pending refresh, for example when list is not shown anymore.
+     */
+    public void cancelRefresh() {
+        handler.removeCallbacks(refreshTask);
+        isRefreshScheduled = false;
+    }
+
+    /**
+     * This method is used to clear displayed list, when device list has been cleared for a new scan.
+     */
+    public void reset() {
+        cancelRefresh();
+        int count = displayedDevices.size();
+        displayedDevices.clear();
+        notifyItemRangeRemoved(0, count);
+    }
+
+    private void refreshNow() {
+        lastRefreshTime = SystemClock.elapsedRealtime();
+        bleDevices.dispatchUpdates(displayedDevices, updateCallback);
     }
 
-    public View getView(int position, View convertView, ViewGroup parent) {
+    private Runnable refreshTask = new Runnable() {
 
-        BleDevice btDevice = bluetoothDevices.get(position);
+        @Override
+        public void run() {
+            isRefreshScheduled = false;
+            refreshNow();
+        }
+    };
 
-        //get the inflater and inflate the XML layout for each item
-        LayoutInflater inflater = (LayoutInflater) context.getSystemService(Activity.LAYOUT_INFLATER_SERVICE);
-        View view = inflater.inflate(R.layout.item_ble_scan, null);
+    public static class ViewHolder extends RecyclerView.ViewHolder {
 
-        TextView bleDeviceNameText = view.findViewById(R.id.tv_ble_device_name);
-        bleDeviceNameText.setText(btDevice.getName());
+        private final TextView bleDeviceNameText;
 
-        return view;
+        ViewHolder(View view) {
+            super(view);
+            bleDeviceNameText = view.findViewById(R.id.tv_ble_device_name);
+        }
     }
 }
@@ -1,62 +1,164 @@
 package com.espressif.ui.adapters;
 
-import android.app.Activity;
 import android.content.Context;
+import android.content.res.ColorStateList;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.espressif.provisioning.ESPConstants;
 import com.espressif.provisioning.WiFiAccessPoint;
 import com.espressif.wifi_provisioning.R;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 
-public class WiFiListAdapter extends ArrayAdapter<WiFiAccessPoint> {
+public class WiFiListAdapter extends RecyclerView.Adapter<WiFiListAdapter.ViewHolder> {
+
+    public interface OnAccessPointClickListener {
+        void onAccessPointClick(WiFiAccessPoint accessPoint);
+    }
 
     private Context context;
-    private ArrayList<WiFiAccessPoint> wifiApList;
+    private OnAccessPointClickListener clickListener;
+    private final ArrayList<WiFiAccessPoint> wifiApList = new ArrayList<>();
 
-    public WiFiListAdapter(Context context, int resource, ArrayList<WiFiAccessPoint> wifiList) {
-        super(context, resource, wifiList);
+    public WiFiListAdapter(Context context, OnAccessPointClickListener clickListener) {
         this.context = context;
-        this.wifiApList = wifiList;
+        this.clickListener = clickListener;
     }
 
-    public View getView(int position, View convertView, ViewGroup parent) {
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
 
-        WiFiAccessPoint wiFiAccessPoint = wifiApList.get(position);
+        View view = LayoutInflater.from(context).inflate(R.layout.item_wifi_access_point, parent, false);
+        final ViewHolder holder = new ViewHolder(view);
 
-        //get the inflater and inflate the XML layout for each item
-        LayoutInflater inflater = (LayoutInflater) context.getSystemService(Activity.LAYOUT_INFLATER_SERVICE);
-        View view = inflater.inflate(R.layout.item_wifi_access_point, null);
+        view.setOnClickListener(new View.OnClickListener() {
 
-        TextView wifiNameText = view.findViewById(R.id.tv_wifi_name);
-        ImageView rssiImage = view.findViewById(R.id.iv_wifi_rssi);
-        ImageView lockImage = view.findViewById(R.id.iv_wifi_security);
+            @Override
+            public void onClick(View v) {
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && clickListener != null) {
+                    clickListener.onAccessPointClick(wifiApList.get(position));
+                }
+            }
+        });
+        return holder;
+    }
 
-        wifiNameText.setText(wiFiAccessPoint.getWifiName());
-        rssiImage.setImageLevel(getRssiLevel(wiFiAccessPoint.getRssi()));
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+
+        WiFiAccessPoint wiFiAccessPoint = wifiApList.get(position);
+        holder.wifiNameText.setText(wiFiAccessPoint.getWifiName());
 
         if (wiFiAccessPoint.getSecurity() == ESPConstants.WIFI_OPEN) {
-            lockImage.setVisibility(View.GONE);
+            holder.lockImage.setVisibility(View.GONE);
         } else {
-            lockImage.setVisibility(View.VISIBLE);
+            holder.lockImage.setVisibility(View.VISIBLE);
         }
 
         if (wiFiAccessPoint.getWifiName().equals(context.getString(R.string.join_other_network))) {
 
-            wifiNameText.setTextColor(ContextCompat.getColor(context.getApplicationContext(), R.color.colorPrimary));
-            rssiImage.setVisibility(View.VISIBLE);
-            rssiImage.setImageResource(R.drawable.ic_right_arrow);
+            holder.wifiNameText.setTextColor(ContextCompat.getColor(context.getApplicationContext(), R.color.colorPrimary));
+            holder.rssiImage.setVisibility(View.VISIBLE);
+            holder.rssiImage.setImageResource(R.drawable.ic_right_arrow);
+        } else {
+            // Row may have been used for "Join other network" item before.
+            holder.wifiNameText.setTextColor(holder.defaultTextColor);
+            holder.rssiImage.setImageResource(R.drawable.ic_wifi);
+            holder.rssiImage.setImageLevel(getRssiLevel(wiFiAccessPoint.getRssi()));
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return wifiApList.size();
+    }
+
+    /**
+     * This method is used to apply a new list of access points, for example partial scan result.
+     * Items are matched by SSID and security. Only rows which have been removed, inserted or moved,
+     * or whose displayed RSSI level has changed are notified, so other rows are not rebound.
+     *
+     * @param newList New list of access points, in order in which they should be displayed.
+     * @return Returns true if list has been changed.
+     */
+    public boolean updateList(List<WiFiAccessPoint> newList) {
+
+        boolean isChanged = false;
+        HashSet<String> newKeys = new HashSet<>(newList.size() * 2);
+        for (WiFiAccessPoint accessPoint : newList) {
+            newKeys.add(getKey(accessPoint));
+        }
+
+        for (int i = wifiApList.size() - 1; i >= 0; i--) {
+            if (!newKeys.contains(getKey(wifiApList.get(i)))) {
+                wifiApList.remove(i);
+                notifyItemRemoved(i);
+                isChanged = true;
+            }
         }
 
-        return view;
+        for (int i = 0; i < newList.size(); i++) {
+
+            WiFiAccessPoint newItem = newList.get(i);
+            int position = indexOf(getKey(newItem), i);
+
+            if (position == -1) {
+                wifiApList.add(i, newItem);
+                notifyItemInserted(i);
+                isChanged = true;
+                continue;
+            }
+
+            if (position != i) {
+                wifiApList.add(i, wifiApList.remove(position));
+                notifyItemMoved(position, i);
+                isChanged = true;
+            }
+
+            WiFiAccessPoint item = wifiApList.get(i);
+            if (getRssiLevel(item.getRssi()) != getRssiLevel(newItem.getRssi())) {
+                notifyItemChanged(i);
+                isChanged = true;
+            }
+            item.setRssi(newItem.getRssi());
+        }
+        return isChanged;
+    }
+
+    /**
+     * This method is used to clear displayed list, for example when a new scan is started.
+     */
+    public void clear() {
+        int count = wifiApList.size();
+        wifiApList.clear();
+        notifyItemRangeRemoved(0, count);
+    }
+
+    private int indexOf(String key, int fromIndex) {
+
+        // Rows before fromIndex are already in their final order.
+        for (int i = fromIndex; i < wifiApList.size(); i++) {
+            if (getKey(wifiApList.get(i)).equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String getKey(WiFiAccessPoint accessPoint) {
+        return accessPoint.getWifiName() + '\u0000' + accessPoint.getSecurity();
     }
 
     private int getRssiLevel(int rssiValue) {
@@ -71,4 +173,20 @@ public class WiFiListAdapter extends ArrayAdapter<WiFiAccessPoint> {
             return 0;
         }
     }
+
+    public static class ViewHolder extends RecyclerView.ViewHolder {
+
+        private final TextView wifiNameText;
+        private final ImageView rssiImage;
+        private final ImageView lockImage;
+        private final ColorStateList defaultTextColor;
+
+        ViewHolder(View view) {
+            super(view);
+            wifiNameText = view.findViewById(R.id.tv_wifi_name);
+            rssiImage = view.findViewById(R.id.iv_wifi_rssi);
+            lockImage = view.findViewById(R.id.iv_wifi_security);
+            defaultTextColor = wifiNameText.getTextColors();
+        }
+    }
 }
@@ -20,6 +20,8 @@ public class BleDevice {
 
     private String name;
     private BluetoothDevice bluetoothDevice;
+    private String primaryServiceUuid;
+    private int rssi;
 
     public String getName() {
         return name;
@@ -36,4 +38,20 @@ public class BleDevice {
     public void setBluetoothDevice(BluetoothDevice bluetoothDevice) {
         this.bluetoothDevice = bluetoothDevice;
     }
+
+    public String getPrimaryServiceUuid() {
+        return primaryServiceUuid;
+    }
+
+    public void setPrimaryServiceUuid(String primaryServiceUuid) {
+        this.primaryServiceUuid = primaryServiceUuid;
+    }
+
+    public int getRssi() {
+        return rssi;
+    }
+
+    public void setRssi(int rssi) {
+        this.rssi = rssi;
+    }
 }
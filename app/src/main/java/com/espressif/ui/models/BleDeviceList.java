@@ -0,0 +1,198 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.espressif.ui.models;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * List of BLE devices found in scan, indexed by device address.
+ * Devices are kept sorted by RSSI. RSSI of a device is updated only when it changes by at least
+ * {@link #RSSI_HYSTERESIS} dB, so small fluctuations do not reorder the list and rows do not jump around
+ * while scan is going on.
+ * <p>
+ * List shown by the adapter is a separate copy, which is brought up to date with {@link #dispatchUpdates}
+ * using item level inserts, moves and changes, so many scan results are shown with one small update.
+ */
+public class BleDeviceList {
+
+    private static final int RSSI_HYSTERESIS = 5;
+
+    private static final Comparator<BleDevice> RSSI_COMPARATOR = new Comparator<BleDevice>() {
+
+        @Override
+        public int compare(BleDevice d1, BleDevice d2) {
+            // Stable sort keeps existing order of devices with same RSSI.
+            return d2.getRssi() - d1.getRssi();
+        }
+    };
+
+    private final ArrayList<BleDevice> devices = new ArrayList<>();
+    private final HashMap<String, BleDevice> devicesByAddress = new HashMap<>();
+    // Devices whose name changed since last dispatch of updates.
+    private final HashSet<BleDevice> changedDevices = new HashSet<>();
+
+    /**
+     * @return Returns list of devices sorted by RSSI.
+     */
+    public ArrayList<BleDevice> getDevices() {
+        return devices;
+    }
+
+    public BleDevice get(String address) {
+        return devicesByAddress.get(address);
+    }
+
+    public boolean contains(String address) {
+        return devicesByAddress.containsKey(address);
+    }
+
+    public int size() {
+        return devices.size();
+    }
+
+    public void clear() {
+        devices.clear();
+        devicesByAddress.clear();
+        changedDevices.clear();
+    }
+
+    /**
+     * Add device or update existing device with same address.
+     *
+     * @return Returns true if displayed list has been changed (device added, renamed or moved).
+     */
+    public boolean addOrUpdate(String address, BleDevice device) {
+
+        BleDevice existingDevice = devicesByAddress.get(address);
+
+        if (existingDevice == null) {
+            devicesByAddress.put(address, device);
+            devices.add(device);
+            sort();
+            return true;
+        }
+
+        boolean isChanged = false;
+
+        if (device.getName() != null && !device.getName().equals(existingDevice.getName())) {
+            existingDevice.setName(device.getName());
+            changedDevices.add(existingDevice);
+            isChanged = true;
+        }
+        if (device.getPrimaryServiceUuid() != null) {
+            existingDevice.setPrimaryServiceUuid(device.getPrimaryServiceUuid());
+        }
+        return updateRssi(address, device.getRssi()) || isChanged;
+    }
+
+    /**
+     * Update RSSI of a device in the list. Device which is not in the list is ignored.
+     *
+     * @param address Device address.
+     * @param rssi    RSSI in dBm.
+     * @return Returns true if list order has been changed.
+     */
+    public boolean updateRssi(String address, int rssi) {
+
+        BleDevice device = devicesByAddress.get(address);
+        if (device == null) {
+            return false;
+        }
+
+        if (Math.abs(rssi - device.getRssi()) < RSSI_HYSTERESIS) {
+            return false;
+        }
+        device.setRssi(rssi);
+        return sort();
+    }
+
+    /**
+     * Bring displayed list up to date with this list and report every step to the callback,
+     * e.g. AdapterListUpdateCallback of a RecyclerView adapter.
+     * Devices are only added and reordered during a scan, so each device is either inserted at its position
+     * or moved there from further down the displayed list. Devices not in this list anymore are removed at the end.
+     *
+     * @param displayedDevices List shown by the adapter, modified in place.
+     * @param callback         Receives inserts, moves, changes and removals in the order they are applied.
+     */
+    public void dispatchUpdates(List<BleDevice> displayedDevices, ListUpdateCallback callback) {
+
+        for (int i = 0; i < devices.size(); i++) {
+
+            BleDevice device = devices.get(i);
+            // Positions before i already match, so device is either at i, further down or not displayed yet.
+            int displayedPosition = indexOf(displayedDevices, device, i);
+
+            if (displayedPosition == -1) {
+                displayedDevices.add(i, device);
+                callback.onInserted(i, 1);
+            } else if (displayedPosition != i) {
+                displayedDevices.remove(displayedPosition);
+                displayedDevices.add(i, device);
+                callback.onMoved(displayedPosition, i);
+            }
+
+            if (changedDevices.contains(device)) {
+                callback.onChanged(i, 1, null);
+            }
+        }
+
+        int removedCount = displayedDevices.size() - devices.size();
+        if (removedCount > 0) {
+            displayedDevices.subList(devices.size(), displayedDevices.size()).clear();
+            callback.onRemoved(devices.size(), removedCount);
+        }
+        changedDevices.clear();
+    }
+
+    private static int indexOf(List<BleDevice> list, BleDevice device, int fromIndex) {
+        for (int i = fromIndex; i < list.size(); i++) {
+            if (list.get(i) == device) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sort devices by RSSI.
+     *
+     * @return Returns true if order has been changed.
+     */
+    private boolean sort() {
+
+        boolean isSorted = true;
+        for (int i = 1; i < devices.size(); i++) {
+            if (RSSI_COMPARATOR.compare(devices.get(i - 1), devices.get(i)) > 0) {
+                isSorted = false;
+                break;
+            }
+        }
+
+        if (isSorted) {
+            return false;
+        }
+        Collections.sort(devices, RSSI_COMPARATOR);
+        return true;
+    }
+}
@@ -6,6 +6,7 @@ public class ESPDevice {
     private String commandTopic; // Topic để gửi lệnh (ví dụ: /devices/esp_device_XXXXXX/command)
     private boolean isLightOn;   // Trạng thái đèn
     private boolean isRGBMode;   // Chế độ Single hay RGB
+    private String room;         // Phòng / nhóm của thiết bị, null nếu chưa gán
 
     public ESPDevice(String deviceId, String commandTopic) {
         this.deviceId = deviceId;
@@ -23,6 +24,15 @@ public class ESPDevice {
         this.isRGBMode = isRGBMode;
     }
 
+    public ESPDevice(ESPDevice other) {
+        this.deviceId = other.deviceId;
+        this.name = other.name;
+        this.commandTopic = other.commandTopic;
+        this.isLightOn = other.isLightOn;
+        this.isRGBMode = other.isRGBMode;
+        this.room = other.room;
+    }
+
     public String getDeviceId() {
         return deviceId;
     }
@@ -54,4 +64,12 @@ public class ESPDevice {
     public void setRGBMode(boolean isRGBMode) {
         this.isRGBMode = isRGBMode;
     }
-}
\ No newline at end of file
+
+    public String getRoom() {
+        return room;
+    }
+
+    public void setRoom(String room) {
+        this.room = room;
+    }
+}
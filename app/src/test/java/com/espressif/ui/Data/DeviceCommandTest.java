@@ -0,0 +1,60 @@
+package com.espressif.ui.Data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests of payload decoding of {@link DeviceCommand}.
+ */
+public class DeviceCommandTest {
+
+    @Test
+    public void decodesCommandsWithoutArgument() {
+        assertEquals(DeviceCommand.ON, DeviceCommand.decode("on"));
+        assertEquals(DeviceCommand.OFF, DeviceCommand.decode("off"));
+        assertEquals(DeviceCommand.ON_RGB, DeviceCommand.decode("onRGB"));
+        assertEquals(DeviceCommand.OFF_RGB, DeviceCommand.decode("offRGB"));
+        assertEquals(DeviceCommand.DELETE, DeviceCommand.decode("deleteNVS"));
+        assertNull(DeviceCommand.argumentOf(DeviceCommand.ON, "on"));
+    }
+
+    @Test
+    public void decodesRenameAndRoom() {
+        assertEquals(DeviceCommand.RENAME, DeviceCommand.decode("name/Kitchen lamp"));
+        assertEquals("Kitchen lamp", DeviceCommand.argumentOf(DeviceCommand.RENAME, "name/Kitchen lamp"));
+
+        assertEquals(DeviceCommand.ROOM, DeviceCommand.decode("room/kitchen"));
+        assertEquals("kitchen", DeviceCommand.argumentOf(DeviceCommand.ROOM, "room/kitchen"));
+
+        // Name may contain separator.
+        assertEquals("a/b", DeviceCommand.argumentOf(DeviceCommand.RENAME, "name/a/b"));
+        assertEquals("", DeviceCommand.argumentOf(DeviceCommand.RENAME, "name/"));
+    }
+
+    @Test
+    public void decodesTurnOnAndOffWithOptionalRoom() {
+        assertEquals(DeviceCommand.TURN_ON_ALL, DeviceCommand.decode("turn on"));
+        assertNull(DeviceCommand.argumentOf(DeviceCommand.TURN_ON_ALL, "turn on"));
+
+        assertEquals(DeviceCommand.TURN_ON_ALL, DeviceCommand.decode("turn on/kitchen"));
+        assertEquals("kitchen", DeviceCommand.argumentOf(DeviceCommand.TURN_ON_ALL, "turn on/kitchen"));
+
+        assertEquals(DeviceCommand.TURN_OFF_ALL, DeviceCommand.decode("turn off"));
+        assertEquals(DeviceCommand.TURN_OFF_ALL, DeviceCommand.decode("turn off/kitchen"));
+        assertEquals("kitchen", DeviceCommand.argumentOf(DeviceCommand.TURN_OFF_ALL, "turn off/kitchen"));
+        assertEquals("", DeviceCommand.argumentOf(DeviceCommand.TURN_OFF_ALL, "turn off/"));
+    }
+
+    @Test
+    public void unknownPayloadsAreNotPartiallyMatched() {
+        assertEquals(DeviceCommand.UNKNOWN, DeviceCommand.decode(""));
+        assertEquals(DeviceCommand.UNKNOWN, DeviceCommand.decode("ON"));
+        assertEquals(DeviceCommand.UNKNOWN, DeviceCommand.decode("onx"));
+        assertEquals(DeviceCommand.UNKNOWN, DeviceCommand.decode("turn onx"));
+        assertEquals(DeviceCommand.UNKNOWN, DeviceCommand.decode("turn offx/kitchen"));
+        assertEquals(DeviceCommand.UNKNOWN, DeviceCommand.decode("name"));
+        assertNull(DeviceCommand.argumentOf(DeviceCommand.UNKNOWN, "name"));
+    }
+}
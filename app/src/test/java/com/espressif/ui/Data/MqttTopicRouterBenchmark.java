@@ -0,0 +1,175 @@
+package com.espressif.ui.Data;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Throughput and allocation of {@link MqttTopicRouter} compared to routing by topic string comparison and
+ * String.split, which {@link MqttIngestPipeline} did before. Both sides do the same work per message:
+ * extract device id, decode the command and its argument. Results are printed for comparison between changes,
+ * the test does not fail on timing.
+ */
+public class MqttTopicRouterBenchmark {
+
+    private static final int MESSAGE_COUNT = 1024;
+    private static final int ROUTED_MESSAGE_COUNT = 5_000_000;
+    private static final int ROUNDS = 3;
+
+    private static final String[] DEVICE_PAYLOADS = {"on", "off", "onRGB", "offRGB", "name/Kitchen lamp", "room/kitchen"};
+
+    private long sink;
+
+    @Test
+    public void routeMessageMix() {
+        String[][] messages = createMessages();
+        MqttTopicRouter router = createRouter();
+
+        // Both routings see same messages, so they must produce same result.
+        long routedSink = 0;
+        long splitSink = 0;
+        for (String[] message : messages) {
+            sink = 0;
+            router.route(message[0], message[1]);
+            routedSink += sink;
+            sink = 0;
+            routeBySplit(message[0], message[1]);
+            splitSink += sink;
+        }
+        assertEquals(splitSink, routedSink);
+
+        double splitRate = 0;
+        double routerRate = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long startTime = System.nanoTime();
+            for (int i = 0; i < ROUTED_MESSAGE_COUNT; i++) {
+                String[] message = messages[i % MESSAGE_COUNT];
+                routeBySplit(message[0], message[1]);
+            }
+            long splitEndTime = System.nanoTime();
+            for (int i = 0; i < ROUTED_MESSAGE_COUNT; i++) {
+                String[] message = messages[i % MESSAGE_COUNT];
+                router.route(message[0], message[1]);
+            }
+            long routerEndTime = System.nanoTime();
+
+            splitRate = Math.max(splitRate, ROUTED_MESSAGE_COUNT * 1e3 / (splitEndTime - startTime));
+            routerRate = Math.max(routerRate, ROUTED_MESSAGE_COUNT * 1e3 / (routerEndTime - splitEndTime));
+        }
+        System.out.println(String.format("MQTT routing : split/equals %.1f M msg/s, topic router %.1f M msg/s",
+                splitRate, routerRate));
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+            long threadId = Thread.currentThread().getId();
+
+            long startBytes = allocationBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < ROUTED_MESSAGE_COUNT; i++) {
+                String[] message = messages[i % MESSAGE_COUNT];
+                routeBySplit(message[0], message[1]);
+            }
+            long splitEndBytes = allocationBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < ROUTED_MESSAGE_COUNT; i++) {
+                String[] message = messages[i % MESSAGE_COUNT];
+                router.route(message[0], message[1]);
+            }
+            long routerEndBytes = allocationBean.getThreadAllocatedBytes(threadId);
+
+            System.out.println(String.format("MQTT routing : allocated per message, split/equals %d B, topic router %d B",
+                    (splitEndBytes - startBytes) / ROUTED_MESSAGE_COUNT, (routerEndBytes - splitEndBytes) / ROUTED_MESSAGE_COUNT));
+        }
+    }
+
+    /**
+     * Mix seen by the app: mostly device commands, some announcements of new devices and speech commands.
+     */
+    private static String[][] createMessages() {
+        Random random = new Random(1);
+        String[][] messages = new String[MESSAGE_COUNT][];
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            int kind = random.nextInt(20);
+            if (kind == 0) {
+                messages[i] = new String[]{MqttIngestPipeline.NOTIFICATION_TOPIC,
+                        "/devices/esp_device_" + random.nextInt(100) + "/command"};
+            } else if (kind == 1) {
+                messages[i] = new String[]{MqttIngestPipeline.SPEECH_COMMAND_TOPIC,
+                        random.nextBoolean() ? "turn on" : "turn off/kitchen"};
+            } else {
+                messages[i] = new String[]{"/devices/esp_device_" + random.nextInt(100) + "/command",
+                        DEVICE_PAYLOADS[random.nextInt(DEVICE_PAYLOADS.length)]};
+            }
+        }
+        return messages;
+    }
+
+    private MqttTopicRouter createRouter() {
+        MqttTopicRouter router = new MqttTopicRouter(MqttIngestPipeline.DEVICE_ID_LEVEL);
+        router.register(MqttIngestPipeline.NOTIFICATION_TOPIC,
+                message -> consume(DeviceCommand.UNKNOWN, MqttTopicRouter.levelOf(message.getPayload(), 2), null));
+        router.register(MqttIngestPipeline.SPEECH_COMMAND_TOPIC,
+                message -> consume(message.getCommand(), null, message.getArgument()));
+        router.register(MqttIngestPipeline.DEVICE_TOPIC_FILTER,
+                message -> consume(message.getCommand(), message.getDeviceId(), message.getArgument()));
+        return router;
+    }
+
+    /**
+     * Routing as it was done before the topic router.
+     */
+    private void routeBySplit(String topic, String message) {
+        if (MqttIngestPipeline.NOTIFICATION_TOPIC.equals(topic)) {
+            String[] parts = message.split("/");
+            consume(DeviceCommand.UNKNOWN, parts.length >= 3 ? parts[2] : null, null);
+            return;
+        }
+
+        if (MqttIngestPipeline.SPEECH_COMMAND_TOPIC.equals(topic)) {
+            int separator = message.indexOf('/');
+            String command = separator == -1 ? message : message.substring(0, separator);
+            String room = separator == -1 ? null : message.substring(separator + 1);
+            switch (command) {
+                case "turn on":
+                    consume(DeviceCommand.TURN_ON_ALL, null, room);
+                    break;
+                case "turn off":
+                    consume(DeviceCommand.TURN_OFF_ALL, null, room);
+                    break;
+            }
+            return;
+        }
+
+        String[] parts = topic.split("/");
+        String deviceId = parts.length >= 3 ? parts[2] : null;
+        if (message.startsWith("name/")) {
+            consume(DeviceCommand.RENAME, deviceId, message.substring("name/".length()));
+        } else if (message.startsWith("room/")) {
+            consume(DeviceCommand.ROOM, deviceId, message.substring("room/".length()));
+        } else {
+            switch (message) {
+                case "on":
+                    consume(DeviceCommand.ON, deviceId, null);
+                    break;
+                case "off":
+                    consume(DeviceCommand.OFF, deviceId, null);
+                    break;
+                case "onRGB":
+                    consume(DeviceCommand.ON_RGB, deviceId, null);
+                    break;
+                case "offRGB":
+                    consume(DeviceCommand.OFF_RGB, deviceId, null);
+                    break;
+            }
+        }
+    }
+
+    private void consume(DeviceCommand command, String deviceId, String argument) {
+        sink = sink * 31 + command.ordinal();
+        sink = sink * 31 + (deviceId == null ? 0 : deviceId.hashCode());
+        sink = sink * 31 + (argument == null ? 0 : argument.hashCode());
+    }
+}
@@ -0,0 +1,178 @@
+package com.espressif.ui.Data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of topic filter matching of {@link MqttTopicRouter}.
+ */
+public class MqttTopicRouterTest {
+
+    private MqttTopicRouter router;
+    private List<String> matchedFilters;
+
+    @Before
+    public void setUp() {
+        router = new MqttTopicRouter(MqttIngestPipeline.DEVICE_ID_LEVEL);
+        matchedFilters = new ArrayList<>();
+    }
+
+    private void register(String topicFilter) {
+        router.register(topicFilter, message -> matchedFilters.add(topicFilter));
+    }
+
+    private List<String> route(String topic) {
+        matchedFilters.clear();
+        int count = router.route(topic, "on");
+        assertEquals(matchedFilters.size(), count);
+        return matchedFilters;
+    }
+
+    @Test
+    public void exactFilterMatchesOnlySameTopic() {
+        register("/devices/notification");
+
+        assertEquals(1, route("/devices/notification").size());
+        assertTrue(route("/devices/notification/x").isEmpty());
+        assertTrue(route("/devices").isEmpty());
+        assertTrue(route("devices/notification").isEmpty());
+        assertTrue(route("/devices/notificatio").isEmpty());
+    }
+
+    @Test
+    public void singleLevelWildcardMatchesExactlyOneLevel() {
+        register("/devices/+/command");
+
+        assertEquals(1, route("/devices/esp_1/command").size());
+        // Empty level is a level too.
+        assertEquals(1, route("/devices//command").size());
+        assertTrue(route("/devices/esp_1/x/command").isEmpty());
+        assertTrue(route("/devices/command").isEmpty());
+    }
+
+    @Test
+    public void multiLevelWildcardMatchesParentAndAllChildLevels() {
+        register("a/#");
+
+        assertEquals(1, route("a").size());
+        assertEquals(1, route("a/b").size());
+        assertEquals(1, route("a/b/c").size());
+        assertTrue(route("b").isEmpty());
+        assertTrue(route("ab").isEmpty());
+    }
+
+    @Test
+    public void multiLevelWildcardAloneMatchesEverything() {
+        register("#");
+
+        assertEquals(1, route("a").size());
+        assertEquals(1, route("/devices/notification").size());
+        assertEquals(1, route("/").size());
+    }
+
+    @Test
+    public void dollarTopicsAreNotMatchedByFirstLevelWildcards() {
+        register("#");
+        register("+/info");
+        register("$SYS/#");
+        register("$SYS/+");
+
+        List<String> matched = route("$SYS/info");
+        assertEquals(2, matched.size());
+        assertTrue(matched.contains("$SYS/#"));
+        assertTrue(matched.contains("$SYS/+"));
+
+        matched = route("SYS/info");
+        assertEquals(2, matched.size());
+        assertTrue(matched.contains("#"));
+        assertTrue(matched.contains("+/info"));
+    }
+
+    @Test
+    public void trailingSeparatorIsAnEmptyLevel() {
+        register("a/+");
+        register("a");
+
+        List<String> matched = route("a/");
+        assertEquals(1, matched.size());
+        assertEquals("a/+", matched.get(0));
+
+        matched = route("a");
+        assertEquals(1, matched.size());
+        assertEquals("a", matched.get(0));
+    }
+
+    @Test
+    public void everyMatchingFilterReceivesSameMessage() {
+        List<MqttTopicRouter.Message> messages = new ArrayList<>();
+        MqttTopicRouter.MessageHandler handler = messages::add;
+        router.register("/devices/+/command", handler);
+        router.register("/devices/#", handler);
+        router.register("#", handler);
+
+        assertEquals(3, router.route("/devices/esp_1/command", "name/Kitchen lamp"));
+        assertSame(messages.get(0), messages.get(1));
+        assertSame(messages.get(0), messages.get(2));
+
+        MqttTopicRouter.Message message = messages.get(0);
+        assertEquals("esp_1", message.getDeviceId());
+        assertEquals(DeviceCommand.RENAME, message.getCommand());
+        assertEquals("Kitchen lamp", message.getArgument());
+    }
+
+    @Test
+    public void pipelineTopicsDoNotOverlap() {
+        register(MqttIngestPipeline.NOTIFICATION_TOPIC);
+        register(MqttIngestPipeline.SPEECH_COMMAND_TOPIC);
+        register(MqttIngestPipeline.DEVICE_TOPIC_FILTER);
+
+        // Both have three levels ("", "devices", "notification"), device filter needs at least four.
+        List<String> matched = route("/devices/notification");
+        assertEquals(1, matched.size());
+        assertEquals(MqttIngestPipeline.NOTIFICATION_TOPIC, matched.get(0));
+
+        matched = route("/speech/command");
+        assertEquals(1, matched.size());
+        assertEquals(MqttIngestPipeline.SPEECH_COMMAND_TOPIC, matched.get(0));
+
+        matched = route("/devices/esp_1/command");
+        assertEquals(1, matched.size());
+        assertEquals(MqttIngestPipeline.DEVICE_TOPIC_FILTER, matched.get(0));
+
+        assertEquals(1, route("/devices/esp_1/command/extra").size());
+        assertTrue(route("/devices").isEmpty());
+    }
+
+    @Test
+    public void levelOfReturnsLevelWithoutSplitting() {
+        assertEquals("", MqttTopicRouter.levelOf("/devices/esp_1/command", 0));
+        assertEquals("devices", MqttTopicRouter.levelOf("/devices/esp_1/command", 1));
+        assertEquals("esp_1", MqttTopicRouter.levelOf("/devices/esp_1/command", 2));
+        assertEquals("command", MqttTopicRouter.levelOf("/devices/esp_1/command", 3));
+        assertEquals("", MqttTopicRouter.levelOf("a/", 1));
+        assertNull(MqttTopicRouter.levelOf("/devices/esp_1/command", 4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void multiLevelWildcardMustBeLastLevel() {
+        register("a/#/b");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wildcardMustOccupyWholeLevel() {
+        register("a/b+");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyFilterIsRejected() {
+        register("");
+    }
+}
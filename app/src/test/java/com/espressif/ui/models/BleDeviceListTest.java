@@ -0,0 +1,323 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.espressif.ui.models;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link BleDeviceList}, including replay of a burst of scan results as it is seen in a room
+ * full of advertising boards. Updates dispatched to the adapter are checked by applying them to a separate list
+ * with RecyclerView semantics.
+ */
+public class BleDeviceListTest {
+
+    private static final int BURST_DEVICE_COUNT = 150;
+    private static final int BURST_ADVERTISEMENT_COUNT = 50000;
+    private static final long BURST_DURATION = 6000;
+    // Same as max refresh rate of BleDeviceListAdapter.
+    private static final long FRAME_INTERVAL = 200;
+
+    /**
+     * One advertisement of the burst.
+     */
+    private static class Advertisement {
+
+        final long time;
+        final String address;
+        final String name;
+        final int rssi;
+
+        Advertisement(long time, String address, String name, int rssi) {
+            this.time = time;
+            this.address = address;
+            this.name = name;
+            this.rssi = rssi;
+        }
+    }
+
+    /**
+     * Applies dispatched updates to its own list, same way RecyclerView applies notifyItem* calls.
+     */
+    private static class ShadowList implements ListUpdateCallback {
+
+        final List<BleDevice> items = new ArrayList<>();
+        final List<BleDevice> source;
+        int insertCount;
+        int moveCount;
+        int changeCount;
+        int removeCount;
+
+        ShadowList(List<BleDevice> source) {
+            this.source = source;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            for (int i = 0; i < count; i++) {
+                // Inserted item is already in the displayed list at this position.
+                items.add(position + i, source.get(position + i));
+            }
+            insertCount += count;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            for (int i = 0; i < count; i++) {
+                items.remove(position);
+            }
+            removeCount += count;
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            items.add(toPosition, items.remove(fromPosition));
+            moveCount++;
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            changeCount += count;
+        }
+    }
+
+    @Test
+    public void newDevicesAreInsertedInRssiOrder() {
+
+        BleDeviceList list = new BleDeviceList();
+        List<BleDevice> displayed = new ArrayList<>();
+        ShadowList shadow = new ShadowList(displayed);
+
+        list.addOrUpdate("A", device("A", -70));
+        list.addOrUpdate("B", device("B", -50));
+        list.addOrUpdate("C", device("C", -60));
+        list.dispatchUpdates(displayed, shadow);
+
+        assertEquals("B", displayed.get(0).getName());
+        assertEquals("C", displayed.get(1).getName());
+        assertEquals("A", displayed.get(2).getName());
+        assertEquals(3, shadow.insertCount);
+        assertEquals(0, shadow.moveCount);
+        assertSameItems(displayed, shadow.items);
+    }
+
+    @Test
+    public void smallRssiChangeDoesNotReorder() {
+
+        BleDeviceList list = new BleDeviceList();
+        list.addOrUpdate("A", device("A", -60));
+        list.addOrUpdate("B", device("B", -62));
+
+        assertFalse(list.updateRssi("B", -58));
+        assertEquals("A", list.getDevices().get(0).getName());
+
+        assertTrue(list.updateRssi("B", -50));
+        assertEquals("B", list.getDevices().get(0).getName());
+    }
+
+    @Test
+    public void reorderIsDispatchedAsMove() {
+
+        BleDeviceList list = new BleDeviceList();
+        List<BleDevice> displayed = new ArrayList<>();
+        ShadowList shadow = new ShadowList(displayed);
+
+        list.addOrUpdate("A", device("A", -50));
+        list.addOrUpdate("B", device("B", -60));
+        list.addOrUpdate("C", device("C", -70));
+        list.dispatchUpdates(displayed, shadow);
+
+        list.updateRssi("C", -40);
+        list.dispatchUpdates(displayed, shadow);
+
+        assertEquals("C", displayed.get(0).getName());
+        assertEquals(3, shadow.insertCount);
+        assertEquals(1, shadow.moveCount);
+        assertSameItems(displayed, shadow.items);
+    }
+
+    @Test
+    public void renameIsDispatchedAsChange() {
+
+        BleDeviceList list = new BleDeviceList();
+        List<BleDevice> displayed = new ArrayList<>();
+        ShadowList shadow = new ShadowList(displayed);
+
+        list.addOrUpdate("A", device("A", -50));
+        list.dispatchUpdates(displayed, shadow);
+
+        assertTrue(list.addOrUpdate("A", device("PROV_A", -50)));
+        list.dispatchUpdates(displayed, shadow);
+        assertEquals(1, shadow.changeCount);
+
+        // Change is dispatched only once.
+        list.dispatchUpdates(displayed, shadow);
+        assertEquals(1, shadow.changeCount);
+        assertEquals("PROV_A", displayed.get(0).getName());
+    }
+
+    @Test
+    public void clearedDevicesAreRemoved() {
+
+        BleDeviceList list = new BleDeviceList();
+        List<BleDevice> displayed = new ArrayList<>();
+        ShadowList shadow = new ShadowList(displayed);
+
+        list.addOrUpdate("A", device("A", -50));
+        list.addOrUpdate("B", device("B", -60));
+        list.dispatchUpdates(displayed, shadow);
+
+        list.clear();
+        list.dispatchUpdates(displayed, shadow);
+
+        assertTrue(displayed.isEmpty());
+        assertEquals(2, shadow.removeCount);
+        assertSameItems(displayed, shadow.items);
+    }
+
+    @Test
+    public void replayOfScanBurstKeepsDisplayedListInSync() {
+
+        List<Advertisement> burst = createBurst(1);
+        BleDeviceList list = new BleDeviceList();
+        List<BleDevice> displayed = new ArrayList<>();
+        ShadowList shadow = new ShadowList(displayed);
+
+        int frameCount = replay(burst, list, displayed, shadow);
+
+        assertEquals(BURST_DEVICE_COUNT, list.size());
+        assertEquals(BURST_DEVICE_COUNT, shadow.insertCount);
+        assertEquals(0, shadow.removeCount);
+        assertTrue("Frames : " + frameCount, frameCount <= BURST_DURATION / FRAME_INTERVAL + 1);
+        assertSameItems(list.getDevices(), displayed);
+        assertSameItems(displayed, shadow.items);
+    }
+
+    /**
+     * Benchmark of the list model alone, printed for comparison between changes. It does not fail on timing.
+     */
+    @Test
+    public void replayOfScanBurstBenchmark() {
+
+        List<Advertisement> burst = createBurst(2);
+        long bestTime = Long.MAX_VALUE;
+        ShadowList lastShadow = null;
+
+        for (int run = 0; run < 10; run++) {
+
+            BleDeviceList list = new BleDeviceList();
+            List<BleDevice> displayed = new ArrayList<>();
+            ShadowList shadow = new ShadowList(displayed);
+
+            long startTime = System.nanoTime();
+            replay(burst, list, displayed, shadow);
+            bestTime = Math.min(bestTime, System.nanoTime() - startTime);
+            lastShadow = shadow;
+        }
+
+        System.out.println(String.format("BleDeviceList replay : %d advertisements of %d devices, %.2f us per advertisement,"
+                        + " %d inserts, %d moves, %d changes", BURST_ADVERTISEMENT_COUNT, BURST_DEVICE_COUNT,
+                bestTime / 1000.0 / BURST_ADVERTISEMENT_COUNT, lastShadow.insertCount, lastShadow.moveCount, lastShadow.changeCount));
+    }
+
+    /**
+     * Feed advertisements to the list and dispatch updates once per frame, same as throttled adapter refresh.
+     *
+     * @return Number of frames which had updates.
+     */
+    private static int replay(List<Advertisement> burst, BleDeviceList list, List<BleDevice> displayed, ShadowList shadow) {
+
+        int frameCount = 0;
+        long nextFrameTime = FRAME_INTERVAL;
+        boolean hasChanges = false;
+
+        for (Advertisement advertisement : burst) {
+
+            while (advertisement.time >= nextFrameTime) {
+                if (hasChanges) {
+                    list.dispatchUpdates(displayed, shadow);
+                    frameCount++;
+                    hasChanges = false;
+                }
+                nextFrameTime += FRAME_INTERVAL;
+            }
+            hasChanges |= list.addOrUpdate(advertisement.address, device(advertisement.name, advertisement.rssi));
+        }
+
+        if (hasChanges) {
+            list.dispatchUpdates(displayed, shadow);
+            frameCount++;
+        }
+        return frameCount;
+    }
+
+    /**
+     * Burst of advertisements: devices show up during first two seconds, RSSI of every device jitters by +/-4 dB
+     * and some devices are carried around, which moves them in the list. A few devices change their name
+     * (e.g. after provisioning prefix is applied).
+     */
+    private static List<Advertisement> createBurst(long seed) {
+
+        Random random = new Random(seed);
+        long[] firstSeen = new long[BURST_DEVICE_COUNT];
+        int[] baseRssi = new int[BURST_DEVICE_COUNT];
+        int[] drift = new int[BURST_DEVICE_COUNT];
+
+        for (int i = 0; i < BURST_DEVICE_COUNT; i++) {
+            firstSeen[i] = random.nextInt(2000);
+            baseRssi[i] = -45 - random.nextInt(50);
+            // One device out of ten is moving, up to 20 dB over the scan.
+            drift[i] = i % 10 == 0 ? random.nextInt(41) - 20 : 0;
+        }
+
+        List<Advertisement> burst = new ArrayList<>(BURST_ADVERTISEMENT_COUNT);
+        for (int n = 0; n < BURST_ADVERTISEMENT_COUNT; n++) {
+
+            long time = (long) n * BURST_DURATION / BURST_ADVERTISEMENT_COUNT;
+            int i = random.nextInt(BURST_DEVICE_COUNT);
+            if (time < firstSeen[i]) {
+                continue;
+            }
+            int rssi = baseRssi[i] + (int) (drift[i] * time / BURST_DURATION) + random.nextInt(9) - 4;
+            String name = (i % 25 == 0 && time > BURST_DURATION / 2) ? "PROV_" + i : "ESP_" + i;
+            burst.add(new Advertisement(time, "24:0A:C4:00:00:" + i, name, rssi));
+        }
+        return burst;
+    }
+
+    private static BleDevice device(String name, int rssi) {
+        BleDevice device = new BleDevice();
+        device.setName(name);
+        device.setRssi(rssi);
+        return device;
+    }
+
+    private static void assertSameItems(List<BleDevice> expected, List<BleDevice> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame("Position " + i, expected.get(i), actual.get(i));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.espressif.provisioning;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanResult;
+
+/**
+ * This class holds information of a BLE device found in scan.
+ * Repeated advertisements of the same device are coalesced into one object,
+ * which keeps the latest scan result and RSSI smoothed over received advertisements.
+ */
+public class BlePeripheral {
+
+    private final BluetoothDevice bluetoothDevice;
+    private String deviceName;
+    private ScanResult scanResult;
+    private int rssi;
+    private long lastSeenTime;
+    private int advertisementCount;
+
+    public BlePeripheral(BluetoothDevice bluetoothDevice, String deviceName) {
+        this.bluetoothDevice = bluetoothDevice;
+        this.deviceName = deviceName;
+    }
+
+    public BluetoothDevice getBluetoothDevice() {
+        return bluetoothDevice;
+    }
+
+    public String getAddress() {
+        return bluetoothDevice.getAddress();
+    }
+
+    public String getDeviceName() {
+        return deviceName;
+    }
+
+    public void setDeviceName(String deviceName) {
+        this.deviceName = deviceName;
+    }
+
+    /**
+     * @return Returns latest scan result received for this device.
+     */
+    public ScanResult getScanResult() {
+        return scanResult;
+    }
+
+    public void setScanResult(ScanResult scanResult) {
+        this.scanResult = scanResult;
+    }
+
+    /**
+     * @return Returns smoothed RSSI in dBm.
+     */
+    public int getRssi() {
+        return rssi;
+    }
+
+    public void setRssi(int rssi) {
+        this.rssi = rssi;
+    }
+
+    /**
+     * @return Returns time (elapsed realtime) when last advertisement was received.
+     */
+    public long getLastSeenTime() {
+        return lastSeenTime;
+    }
+
+    public void setLastSeenTime(long lastSeenTime) {
+        this.lastSeenTime = lastSeenTime;
+    }
+
+    public int getAdvertisementCount() {
+        return advertisementCount;
+    }
+
+    public void setAdvertisementCount(int advertisementCount) {
+        this.advertisementCount = advertisementCount;
+    }
+}
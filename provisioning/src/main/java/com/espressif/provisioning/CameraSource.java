@@ -45,9 +45,8 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 // Note: This requires Google Play Services 8.1 or higher, due to using indirect byte buffers for
 // storing images.
@@ -155,11 +154,22 @@ public class CameraSource {
     private FrameProcessingRunnable mFrameProcessor;
 
     /**
-     * Map to convert between a byte array, received from the camera, and its associated byte
-     * buffer.  We use byte buffers internally because this is a more efficient way to call into
-     * native code later (avoids a potential copy).
+     * Fixed pool of buffers used by the camera for preview frames.  We use byte buffers internally
+     * because this is a more efficient way to call into native code later (avoids a potential copy).
+     * Pool is allocated once per preview size and reused when the camera is restarted.  Byte array
+     * received from the camera is matched to its byte buffer by reference among these few entries.
      */
-    private Map<byte[], ByteBuffer> mBytesToByteBuffer = new HashMap<>();
+    private static final int PREVIEW_BUFFER_COUNT = 4;
+    private final ByteBuffer[] mPreviewBuffers = new ByteBuffer[PREVIEW_BUFFER_COUNT];
+    private int mPreviewBufferSize;
+
+    /**
+     * Part of the preview frames which is passed to the detector.  Region is centred in the frame,
+     * its size is given as fraction of frame width and height and only every n-th pixel of every
+     * n-th row is used, n being the downsample factor.
+     */
+    private float mRoiScale = 1.0f;
+    private int mDownsampleFactor = 1;
 
     //==============================================================================================
     // Builder
@@ -229,6 +239,28 @@ public class CameraSource {
             return this;
         }
 
+        /**
+         * Sets the region of the camera frames which is passed to the detector.  Region is centred in
+         * the frame and only its luminance is used, downsampled by taking every n-th pixel of every
+         * n-th row.  Smaller frames are decoded faster, which suits codes held in the middle of the
+         * preview like a QR code.  Positions of detected items are relative to the region.
+         * Default: whole frame, no downsampling.
+         *
+         * @param scale            fraction (0, 1] of frame width and height
+         * @param downsampleFactor 1 to use every pixel, 2 to use every second pixel and so on
+         */
+        public Builder setRegionOfInterest(float scale, int downsampleFactor) {
+            if (scale <= 0 || scale > 1) {
+                throw new IllegalArgumentException("Invalid region of interest scale: " + scale);
+            }
+            if (downsampleFactor < 1) {
+                throw new IllegalArgumentException("Invalid downsample factor: " + downsampleFactor);
+            }
+            mCameraSource.mRoiScale = scale;
+            mCameraSource.mDownsampleFactor = downsampleFactor;
+            return this;
+        }
+
         /**
          * Sets the camera to use (either {@link #CAMERA_FACING_BACK} or
          * {@link #CAMERA_FACING_FRONT}). Default: back facing.
@@ -324,9 +356,44 @@ public class CameraSource {
         synchronized (mCameraLock) {
             stop();
             mFrameProcessor.release();
+            Arrays.fill(mPreviewBuffers, null);
+            mPreviewBufferSize = 0;
         }
     }
 
+    /**
+     * Stops sending frames to the underlying detector, without waiting for the frame being
+     * processed.  This can be called from the detector's processor as soon as the expected result
+     * has been found, so that no further frame is decoded.  Camera itself keeps running until
+     * {@link #stop()} or {@link #release()} is called, which must not be done from the processor.
+     */
+    public void stopDetection() {
+        mFrameProcessor.stopDetection();
+    }
+
+    /**
+     * Returns time from start of the camera source till {@link #stopDetection()} was called, in
+     * milliseconds, or -1 if detection has not been stopped.
+     */
+    public long getTimeToDecode() {
+        return mFrameProcessor.getTimeToDecode();
+    }
+
+    /**
+     * Returns average time taken by the detector for one frame, in milliseconds.
+     */
+    public long getAverageDecodeTime() {
+        return mFrameProcessor.getAverageDecodeTime();
+    }
+
+    /**
+     * Returns number of frames passed to the detector per second since the camera source was
+     * started.
+     */
+    public float getProcessedFramesPerSecond() {
+        return mFrameProcessor.getProcessedFramesPerSecond();
+    }
+
     /**
      * Opens the camera and starts sending preview frames to the underlying detector.  The preview
      * frames are not displayed.
@@ -409,8 +476,7 @@ public class CameraSource {
                 mProcessingThread = null;
             }
 
-            // clear the buffer to prevent oom exceptions
-            mBytesToByteBuffer.clear();
+            // Preview buffers are kept for the next start, they are dropped on release.
 
             if (mCamera != null) {
                 mCamera.stopPreview();
@@ -806,11 +872,11 @@ public class CameraSource {
         //   one for the frame that is currently being executed upon in doing detection
         //   one for the next pending frame to process immediately upon completing detection
         //   two for the frames that the camera uses to populate future preview images
+        allocatePreviewBuffers(mPreviewSize);
         camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
+        for (ByteBuffer buffer : mPreviewBuffers) {
+            camera.addCallbackBuffer(buffer.array());
+        }
 
         return camera;
     }
@@ -1023,32 +1089,49 @@ public class CameraSource {
     }
 
     /**
-     * Creates one buffer for the camera preview callback.  The size of the buffer is based off of
-     * the camera preview size and the format of the camera image.
-     *
-     * @return a new preview buffer of the appropriate size for the current camera settings
+     * Fills the pool of buffers for the camera preview callback.  The size of the buffers is based
+     * off of the camera preview size and the format of the camera image.  Buffers allocated earlier
+     * are reused if they have the required size.
      */
-    private byte[] createPreviewBuffer(Size previewSize) {
+    private void allocatePreviewBuffers(Size previewSize) {
         int bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
         long sizeInBits = previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
         int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
 
+        if (bufferSize == mPreviewBufferSize) {
+            return;
+        }
+
         //
         // NOTICE: This code only works when using play services v. 8.1 or higher.
         //
 
-        // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
-        // should guarantee that there will be an array to work with.
-        byte[] byteArray = new byte[bufferSize];
-        ByteBuffer buffer = ByteBuffer.wrap(byteArray);
-        if (!buffer.hasArray() || (buffer.array() != byteArray)) {
-            // I don't think that this will ever happen.  But if it does, then we wouldn't be
-            // passing the preview content to the underlying detector later.
-            throw new IllegalStateException("Failed to create valid buffer for camera source.");
+        for (int i = 0; i < PREVIEW_BUFFER_COUNT; i++) {
+            // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
+            // should guarantee that there will be an array to work with.
+            byte[] byteArray = new byte[bufferSize];
+            ByteBuffer buffer = ByteBuffer.wrap(byteArray);
+            if (!buffer.hasArray() || (buffer.array() != byteArray)) {
+                // I don't think that this will ever happen.  But if it does, then we wouldn't be
+                // passing the preview content to the underlying detector later.
+                throw new IllegalStateException("Failed to create valid buffer for camera source.");
+            }
+            mPreviewBuffers[i] = buffer;
         }
+        mPreviewBufferSize = bufferSize;
+    }
 
-        mBytesToByteBuffer.put(byteArray, buffer);
-        return byteArray;
+    /**
+     * Returns the pool buffer which wraps the given byte array, or null if the array is not from
+     * the pool.
+     */
+    private ByteBuffer findPreviewBuffer(byte[] data) {
+        for (ByteBuffer buffer : mPreviewBuffers) {
+            if (buffer != null && buffer.array() == data) {
+                return buffer;
+            }
+        }
+        return null;
     }
 
     //==============================================================================================
@@ -1074,8 +1157,16 @@ public class CameraSource {
      * frames come in, the most recent frame is held onto as pending.  As soon as detection and its
      * associated processing are done for the previous frame, detection on the mostly recently
      * received frame will immediately start on the same thread.
+     * <p/>
+     * Frames which arrive while detection is expected to run for longer than one more frame
+     * interval would only be replaced by a newer pending frame, so these are given back to the
+     * camera right away.  Expectation is based on average detection time and frame interval.
      */
     private class FrameProcessingRunnable implements Runnable {
+
+        // Weight of the latest sample in average detection time and frame interval.
+        private static final float AVERAGE_WEIGHT = 0.2f;
+
         private Detector<?> mDetector;
         private long mStartTimeMillis = SystemClock.elapsedRealtime();
 
@@ -1088,6 +1179,28 @@ public class CameraSource {
         private int mPendingFrameId = 0;
         private ByteBuffer mPendingFrameData;
 
+        // Start of detection which is running at the moment, 0 if detection is not running.
+        private long mDecodeStartMillis;
+        private float mAverageDecodeMillis;
+        private float mAverageFrameIntervalMillis;
+        private long mLastFrameMillis;
+
+        // Metrics of the current run.
+        private long mDetectionStartMillis;
+        private long mLastProcessedMillis;
+        private long mTimeToDecodeMillis = -1;
+        private int mFramesReceived;
+        private int mFramesProcessed;
+        private int mFramesSkipped;
+
+        // Region of interest passed to the detector instead of the whole frame. Only used by the
+        // processing thread.
+        private ByteBuffer mRoiBuffer;
+        private int mRoiWidth;
+        private int mRoiHeight;
+        private int mRoiOffset;
+        private int mRoiSourceWidth;
+
         FrameProcessingRunnable(Detector<?> detector) {
             mDetector = detector;
         }
@@ -1099,8 +1212,11 @@ public class CameraSource {
         @SuppressLint("Assert")
         void release() {
             assert (mProcessingThread.getState() == State.TERMINATED);
-            mDetector.release();
-            mDetector = null;
+            if (mDetector != null) {
+                mDetector.release();
+                mDetector = null;
+            }
+            mRoiBuffer = null;
         }
 
         /**
@@ -1108,11 +1224,46 @@ public class CameraSource {
          */
         void setActive(boolean active) {
             synchronized (mLock) {
+                if (active) {
+                    resetMetrics();
+                }
                 mActive = active;
                 mLock.notifyAll();
             }
         }
 
+        /**
+         * Marks the runnable as not active and records time taken to get the expected result.
+         */
+        void stopDetection() {
+            synchronized (mLock) {
+                if (mActive && mTimeToDecodeMillis == -1) {
+                    mTimeToDecodeMillis = SystemClock.elapsedRealtime() - mDetectionStartMillis;
+                }
+                mActive = false;
+                mLock.notifyAll();
+            }
+        }
+
+        long getTimeToDecode() {
+            synchronized (mLock) {
+                return mTimeToDecodeMillis;
+            }
+        }
+
+        long getAverageDecodeTime() {
+            synchronized (mLock) {
+                return Math.round(mAverageDecodeMillis);
+            }
+        }
+
+        float getProcessedFramesPerSecond() {
+            synchronized (mLock) {
+                long duration = mLastProcessedMillis - mDetectionStartMillis;
+                return (duration <= 0) ? 0 : (mFramesProcessed * 1000.0f / duration);
+            }
+        }
+
         /**
          * Sets the frame data received from the camera.  This adds the previous unused frame buffer
          * (if present) back to the camera, and keeps a pending reference to the frame data for
@@ -1120,23 +1271,41 @@ public class CameraSource {
          */
         void setNextFrame(byte[] data, Camera camera) {
             synchronized (mLock) {
-                if (mPendingFrameData != null) {
-                    camera.addCallbackBuffer(mPendingFrameData.array());
-                    mPendingFrameData = null;
+                long now = SystemClock.elapsedRealtime();
+                mFramesReceived++;
+                if (mLastFrameMillis != 0) {
+                    mAverageFrameIntervalMillis = average(mAverageFrameIntervalMillis, now - mLastFrameMillis);
                 }
+                mLastFrameMillis = now;
 
-                if (!mBytesToByteBuffer.containsKey(data)) {
+                ByteBuffer buffer = findPreviewBuffer(data);
+                if (buffer == null) {
                     Log.d(TAG,
                         "Skipping frame.  Could not find ByteBuffer associated with the image " +
                         "data from the camera.");
                     return;
                 }
 
+                // Detection in progress will most likely not be done before the next frame
+                // arrives, which would replace this frame anyway.
+                if (mDecodeStartMillis != 0
+                        && (now - mDecodeStartMillis) + mAverageFrameIntervalMillis < mAverageDecodeMillis) {
+                    camera.addCallbackBuffer(data);
+                    mFramesSkipped++;
+                    return;
+                }
+
+                if (mPendingFrameData != null) {
+                    camera.addCallbackBuffer(mPendingFrameData.array());
+                    mPendingFrameData = null;
+                    mFramesSkipped++;
+                }
+
                 // Timestamp and frame ID are maintained here, which will give downstream code some
                 // idea of the timing of frames received and when frames were dropped along the way.
-                mPendingTimeMillis = SystemClock.elapsedRealtime() - mStartTimeMillis;
+                mPendingTimeMillis = now - mStartTimeMillis;
                 mPendingFrameId++;
-                mPendingFrameData = mBytesToByteBuffer.get(data);
+                mPendingFrameData = buffer;
 
                 // Notify the processor thread if it is waiting on the next frame (see below).
                 mLock.notifyAll();
@@ -1161,6 +1330,11 @@ public class CameraSource {
         public void run() {
             Frame outputFrame;
             ByteBuffer data;
+            int frameId;
+            long timestampMillis;
+            long decodeStartMillis;
+
+            prepareRegionOfInterest();
 
             while (true) {
                 synchronized (mLock) {
@@ -1180,22 +1354,19 @@ public class CameraSource {
                         // this here, immediately after the wait() above, to handle the case where
                         // setActive(false) had been called, triggering the termination of this
                         // loop.
+                        logMetrics();
                         return;
                     }
 
-                    outputFrame = new Frame.Builder()
-                            .setImageData(mPendingFrameData, mPreviewSize.getWidth(),
-                                    mPreviewSize.getHeight(), ImageFormat.NV21)
-                            .setId(mPendingFrameId)
-                            .setTimestampMillis(mPendingTimeMillis)
-                            .setRotation(mRotation)
-                            .build();
-
                     // Hold onto the frame data locally, so that we can use this for detection
                     // below.  We need to clear mPendingFrameData to ensure that this buffer isn't
                     // recycled back to the camera before we are done using that data.
                     data = mPendingFrameData;
+                    frameId = mPendingFrameId;
+                    timestampMillis = mPendingTimeMillis;
                     mPendingFrameData = null;
+                    decodeStartMillis = SystemClock.elapsedRealtime();
+                    mDecodeStartMillis = decodeStartMillis;
                 }
 
                 // The code below needs to run outside of synchronization, because this will allow
@@ -1203,13 +1374,126 @@ public class CameraSource {
                 // frame.
 
                 try {
+                    if (mRoiBuffer != null) {
+                        copyRegionOfInterest(data.array());
+                        // Region has been copied, so the camera can fill this buffer again while
+                        // detection is running.
+                        mCamera.addCallbackBuffer(data.array());
+                        data = null;
+                        outputFrame = buildFrame(mRoiBuffer, mRoiWidth, mRoiHeight, frameId, timestampMillis);
+                    } else {
+                        outputFrame = buildFrame(data, mPreviewSize.getWidth(), mPreviewSize.getHeight(),
+                                frameId, timestampMillis);
+                    }
                     mDetector.receiveFrame(outputFrame);
                 } catch (Throwable t) {
                     Log.e(TAG, "Exception thrown from receiver.", t);
                 } finally {
-                    mCamera.addCallbackBuffer(data.array());
+                    if (data != null) {
+                        mCamera.addCallbackBuffer(data.array());
+                    }
+                    onFrameProcessed(decodeStartMillis);
+                }
+            }
+        }
+
+        private Frame buildFrame(ByteBuffer data, int width, int height, int frameId, long timestampMillis) {
+            return new Frame.Builder()
+                    .setImageData(data, width, height, ImageFormat.NV21)
+                    .setId(frameId)
+                    .setTimestampMillis(timestampMillis)
+                    .setRotation(mRotation)
+                    .build();
+        }
+
+        /**
+         * Allocates the buffer for region of interest, if one is configured.  NV21 stores the
+         * luminance plane first, followed by interleaved chroma at quarter resolution.  Only
+         * luminance is copied per frame, chroma of the region is set to neutral grey once.
+         */
+        private void prepareRegionOfInterest() {
+            if (mRoiScale >= 1 && mDownsampleFactor == 1) {
+                mRoiBuffer = null;
+                return;
+            }
+
+            int sourceWidth = mPreviewSize.getWidth();
+            int sourceHeight = mPreviewSize.getHeight();
+            // NV21 requires even width and height.
+            int width = ((int) (sourceWidth * mRoiScale) / mDownsampleFactor) & ~1;
+            int height = ((int) (sourceHeight * mRoiScale) / mDownsampleFactor) & ~1;
+
+            if (width == 0 || height == 0) {
+                Log.w(TAG, "Region of interest is too small, whole frame is used.");
+                mRoiBuffer = null;
+                return;
+            }
+
+            if (mRoiBuffer == null || width != mRoiWidth || height != mRoiHeight) {
+                byte[] roiData = new byte[width * height * 3 / 2];
+                Arrays.fill(roiData, width * height, roiData.length, (byte) 128);
+                mRoiBuffer = ByteBuffer.wrap(roiData);
+                mRoiWidth = width;
+                mRoiHeight = height;
+            }
+
+            int left = (sourceWidth - width * mDownsampleFactor) / 2;
+            int top = (sourceHeight - height * mDownsampleFactor) / 2;
+            mRoiOffset = top * sourceWidth + left;
+            mRoiSourceWidth = sourceWidth;
+        }
+
+        private void copyRegionOfInterest(byte[] frame) {
+            byte[] roi = mRoiBuffer.array();
+            int factor = mDownsampleFactor;
+            int sourceRowStride = mRoiSourceWidth * factor;
+            int source = mRoiOffset;
+            int destination = 0;
+
+            for (int row = 0; row < mRoiHeight; row++) {
+                if (factor == 1) {
+                    System.arraycopy(frame, source, roi, destination, mRoiWidth);
+                } else {
+                    for (int column = 0, index = source; column < mRoiWidth; column++, index += factor) {
+                        roi[destination + column] = frame[index];
+                    }
                 }
+                source += sourceRowStride;
+                destination += mRoiWidth;
+            }
+        }
+
+        private void onFrameProcessed(long decodeStartMillis) {
+            synchronized (mLock) {
+                long now = SystemClock.elapsedRealtime();
+                long decodeTime = now - decodeStartMillis;
+                mAverageDecodeMillis = (mFramesProcessed == 0) ? decodeTime : average(mAverageDecodeMillis, decodeTime);
+                mFramesProcessed++;
+                mLastProcessedMillis = now;
+                mDecodeStartMillis = 0;
             }
         }
+
+        private void resetMetrics() {
+            mDetectionStartMillis = SystemClock.elapsedRealtime();
+            mLastProcessedMillis = mDetectionStartMillis;
+            mTimeToDecodeMillis = -1;
+            mFramesReceived = 0;
+            mFramesProcessed = 0;
+            mFramesSkipped = 0;
+            mLastFrameMillis = 0;
+            mDecodeStartMillis = 0;
+        }
+
+        private void logMetrics() {
+            Log.d(TAG, "Frames received : " + mFramesReceived + ", processed : " + mFramesProcessed
+                    + ", skipped : " + mFramesSkipped + ", fps : " + getProcessedFramesPerSecond()
+                    + ", avg decode time : " + getAverageDecodeTime() + " ms, time to decode : "
+                    + mTimeToDecodeMillis + " ms");
+        }
+
+        private float average(float average, long sample) {
+            return average + AVERAGE_WEIGHT * (sample - average);
+        }
     }
 }
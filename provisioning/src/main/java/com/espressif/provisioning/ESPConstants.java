@@ -51,6 +51,9 @@ public class ESPConstants {
     public static final short EVENT_DEVICE_CONNECTION_FAILED = 2;
     public static final short EVENT_DEVICE_DISCONNECTED = 3;
 
+    // Keys for data of device connection events
+    public static final String KEY_DEVICE_ADDRESS = "device_address";
+
     // Constants for WiFi Security values (As per proto files)
     public static final short WIFI_OPEN = 0;
     public static final short WIFI_WEP = 1;
@@ -14,8 +14,6 @@
 
 package com.espressif.provisioning;
 
-import static java.lang.Thread.sleep;
-
 import android.Manifest;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
@@ -31,6 +29,7 @@ import android.net.wifi.WifiNetworkSpecifier;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -40,6 +39,7 @@ import androidx.annotation.RequiresPermission;
 import com.espressif.provisioning.listeners.ProvisionListener;
 import com.espressif.provisioning.listeners.ResponseListener;
 import com.espressif.provisioning.listeners.WiFiScanListener;
+import com.espressif.provisioning.listeners.WiFiScanUpdateListener;
 import com.espressif.provisioning.security.Security;
 import com.espressif.provisioning.security.Security0;
 import com.espressif.provisioning.security.Security1;
@@ -73,6 +73,13 @@ public class ESPDevice {
 
     private static final String TAG = "ESP:" + ESPDevice.class.getSimpleName();
 
+    private static final int DEFAULT_SCAN_PAGE_SIZE = 4;
+    private static final int MAX_BLE_SCAN_PAGE_SIZE = 8;
+    private static final int MAX_SOFTAP_SCAN_PAGE_SIZE = 16;
+    // Worst case encoded size of one scan result entry (SSID, BSSID, channel, RSSI, auth) and of response framing.
+    private static final int SCAN_ENTRY_SIZE = 60;
+    private static final int SCAN_RESPONSE_OVERHEAD = 16;
+
     private Context context;
     private Handler handler;
 
@@ -94,7 +101,7 @@ public class ESPDevice {
     private String versionInfo;
     private int totalCount;
     private int startIndex;
-    private ArrayList<WiFiAccessPoint> wifiApList;
+    private ScanResultAccumulator scanResults = new ScanResultAccumulator();
     private ArrayList<String> deviceCapabilities = new ArrayList<>();
     private BluetoothDevice bluetoothDevice;
     private WiFiAccessPoint wifiDevice;
@@ -104,6 +111,24 @@ public class ESPDevice {
     private ConnectivityManager connectivityManager;
     private ConnectivityManager.NetworkCallback networkCallback;
 
+    // Connection status polling after credentials are applied.
+    private long statusPollInitialDelay = 1000;
+    private long statusPollInterval = 1000;
+    private float statusPollBackoffMultiplier = 1.5f;
+    private long statusPollMaxInterval = 5000;
+    private long statusPollDeadline = 60000;
+    private StatusPoller statusPoller;
+    private long timeToConnected = -1;
+
+    // Scan result paging. Page size 0 means it is calculated from transport payload capacity.
+    private int scanPageSizeOverride = 0;
+    private int scanPageSize = DEFAULT_SCAN_PAGE_SIZE;
+    private boolean isScanPipelined;
+    private int pendingScanPages;
+    private boolean isScanFailed;
+    private long scanListStartTime;
+    private long scanListFetchTime = -1;
+
     public ESPDevice(Context context, ESPConstants.TransportType transportType, ESPConstants.SecurityType securityType) {
 
         this.context = context;
@@ -155,6 +180,9 @@ public class ESPDevice {
 
         if (transport instanceof BLETransport) {
             deviceName = bluetoothDevice.getName();
+            // Address of the device is part of the session resumption key.
+            this.bluetoothDevice = bluetoothDevice;
+            this.primaryServiceUuid = primaryServiceUuid;
             ((BLETransport) transport).connect(bluetoothDevice, UUID.fromString(primaryServiceUuid));
         } else {
             Log.e(TAG, "Trying to connect device with wrong transport.");
@@ -319,6 +347,9 @@ public class ESPDevice {
         if (transport instanceof BLETransport) {
             ((BLETransport) transport).disconnect();
         }
+        if (statusPoller != null) {
+            statusPoller.cancel();
+        }
         session = null;
         disableOnlyWifiNetwork();
     }
@@ -498,6 +529,68 @@ public class ESPDevice {
         this.primaryServiceUuid = primaryServiceUuid;
     }
 
+    /**
+     * This method is used to configure polling of connection status, done after network credentials are applied.
+     * Delay between polls grows by backoff multiplier up to max interval. Provisioning fails if device is not
+     * connected within the deadline.
+     *
+     * @param initialDelay      Delay before the first status poll, in milliseconds.
+     * @param pollInterval      Delay before the second status poll, in milliseconds.
+     * @param backoffMultiplier Factor by which delay grows after every poll.
+     * @param maxPollInterval   Max delay between two polls, in milliseconds.
+     * @param deadline          Time after credentials are applied when polling gives up, in milliseconds.
+     */
+    public void setStatusPollingConfig(long initialDelay, long pollInterval, float backoffMultiplier,
+                                       long maxPollInterval, long deadline) {
+        this.statusPollInitialDelay = initialDelay;
+        this.statusPollInterval = pollInterval;
+        this.statusPollBackoffMultiplier = backoffMultiplier;
+        this.statusPollMaxInterval = maxPollInterval;
+        this.statusPollDeadline = deadline;
+    }
+
+    /**
+     * This method is used to get time taken by device to connect with the network, measured from the moment
+     * network credentials were applied.
+     *
+     * @return Returns time to connected in milliseconds, -1 if device is not connected yet.
+     */
+    public long getTimeToConnected() {
+        return timeToConnected;
+    }
+
+    /**
+     * This method is used to get time taken to connect with BLE device, measured from connect request
+     * till the device is ready to receive requests (including service and endpoint discovery).
+     *
+     * @return Returns time in milliseconds or -1 if it is not available.
+     */
+    public long getConnectToReadyTime() {
+        if (transport instanceof BLETransport) {
+            return ((BLETransport) transport).getConnectToReadyTime();
+        }
+        return -1;
+    }
+
+    /**
+     * This method is used to set number of scan results requested from device in a single message.
+     * By default, page size is calculated from payload capacity of the transport.
+     *
+     * @param pageSize Number of scan results per request, 0 to calculate it from transport.
+     */
+    public void setScanPageSize(int pageSize) {
+        this.scanPageSizeOverride = Math.max(0, pageSize);
+    }
+
+    /**
+     * This method is used to get time taken to fetch all scan result pages from device in last network scan.
+     *
+     * @return Returns time in milliseconds, -1 if scan results are not fetched yet.
+     */
+    public long getScanListFetchTime() {
+        return scanListFetchTime;
+    }
+
     /**
      * Send scan command to device to get available Wi-Fi access points.
      *
@@ -530,6 +623,17 @@ public class ESPDevice {
         }
     }
 
+    /**
+     * Send scan command to device to get available Wi-Fi access points, with results streamed while they are received.
+     * After each page of scan results, partial list sorted by RSSI is given to the listener,
+     * so networks can be shown before complete list has been fetched from device.
+     *
+     * @param scanUpdateListener WiFiScanUpdateListener to get partial and complete lists of scanned networks.
+     */
+    public void scanNetworks(final WiFiScanUpdateListener scanUpdateListener) {
+        scanNetworks((WiFiScanListener) scanUpdateListener);
+    }
+
     /**
      * Send scan command to device to get available Thread networks.
      *
@@ -595,6 +699,34 @@ public class ESPDevice {
         }
     }
 
+    /**
+     * Send data to custom endpoint of the device, establishing the session first if required.
+     * Returned future can be cancelled or composed with other requests of a flow.
+     *
+     * @param path     Endpoint.
+     * @param data     Data to be send.
+     * @param deadline Time in milliseconds within which response is expected, including session establishment.
+     *                 0 means no deadline.
+     * @return Returns future with response of the device.
+     */
+    public SessionFuture<byte[]> sendDataToCustomEndPoint(final String path, final byte[] data, long deadline) {
+
+        SessionFuture<Void> sessionFuture;
+        if (session == null || !session.isEstablished()) {
+            sessionFuture = initSession();
+        } else {
+            sessionFuture = SessionFuture.completed(null);
+        }
+
+        return sessionFuture.thenCompose(new SessionFuture.Continuation<Void, byte[]>() {
+
+            @Override
+            public SessionFuture<byte[]> then(Void result) {
+                return session.send(path, data);
+            }
+        }).withDeadline(deadline);
+    }
+
     /**
      * Send Wi-Fi credentials to device for provisioning.
      *
@@ -662,6 +794,29 @@ public class ESPDevice {
         }
     }
 
+    /**
+     * This method is used to establish session with the device.
+     *
+     * @return Returns future which completes when session is established.
+     */
+    public SessionFuture<Void> initSession() {
+
+        final SessionFuture<Void> future = new SessionFuture<>();
+        initSession(new ResponseListener() {
+
+            @Override
+            public void onSuccess(byte[] returnData) {
+                future.complete(null);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
     public void initSession(final ResponseListener listener) {
 
         try {
@@ -706,6 +861,105 @@ public class ESPDevice {
             Log.d(TAG, "Capabilities JSON not available.");
         }
 
+        final String sessionKey = SessionCache.buildKey(getSessionDeviceId(), securityType, secPatchVersion,
+                userName, proofOfPossession);
+        Security cachedSecurity = securityType == ESPConstants.SecurityType.SECURITY_0 ? null : SessionCache.get(sessionKey);
+
+        if (cachedSecurity != null) {
+            resumeSession(sessionKey, cachedSecurity, listener);
+        } else {
+            establishSession(sessionKey, listener);
+        }
+    }
+
+    /**
+     * This method is used to set time for which an established session is kept after disconnect,
+     * so that reconnecting to the same device with same credentials can skip the handshake.
+     * Session is resumed only if device still accepts it, otherwise new session is established.
+     *
+     * @param ttl Time in milliseconds. 0 disables session resumption.
+     */
+    public static void setSessionResumptionTtl(long ttl) {
+        SessionCache.setSessionTtl(ttl);
+    }
+
+    private String getSessionDeviceId() {
+
+        if (transportType == ESPConstants.TransportType.TRANSPORT_BLE && bluetoothDevice != null) {
+            return "ble:" + bluetoothDevice.getAddress();
+        } else if (transportType == ESPConstants.TransportType.TRANSPORT_SOFTAP && wifiDevice != null) {
+            return "softap:" + wifiDevice.getWifiName();
+        }
+        return null;
+    }
+
+    /**
+     * Resume a session established earlier with the device. Cached security is already in finished state,
+     * so session is marked established without handshake. An encrypted Wi-Fi status request is then sent
+     * to verify that device still has the same session; if it fails, new session is established.
+     */
+    private void resumeSession(final String sessionKey, final Security cachedSecurity, final ResponseListener listener) {
+
+        final long startTime = SystemClock.elapsedRealtime();
+        Log.d(TAG, "Resuming session with : " + securityType);
+        security = cachedSecurity;
+        session = new Session(transport, security);
+
+        session.init(null, new Session.SessionListener() {
+
+            @Override
+            public void OnSessionEstablished() {
+
+                byte[] message = MessengeHelper.prepareGetWiFiConfigStatusMsg();
+                session.sendDataToDevice(ESPConstants.HANDLER_PROV_CONFIG, message, new ResponseListener() {
+
+                    @Override
+                    public void onSuccess(byte[] returnData) {
+
+                        if (isValidWifiStatusResponse(returnData)) {
+                            Log.d(TAG, "Session resumed in " + (SystemClock.elapsedRealtime() - startTime) + " ms");
+                            SessionCache.put(sessionKey, cachedSecurity);
+                            listener.onSuccess(null);
+                        } else {
+                            onResumeFailed();
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        onResumeFailed();
+                    }
+                });
+            }
+
+            @Override
+            public void OnSessionEstablishFailed(Exception e) {
+                onResumeFailed();
+            }
+
+            private void onResumeFailed() {
+                Log.d(TAG, "Device did not accept cached session, establishing new session");
+                SessionCache.remove(sessionKey);
+                establishSession(sessionKey, listener);
+            }
+        });
+    }
+
+    private boolean isValidWifiStatusResponse(byte[] returnData) {
+
+        if (returnData == null) {
+            return false;
+        }
+        try {
+            NetworkConfig.NetworkConfigPayload payload = NetworkConfig.NetworkConfigPayload.parseFrom(returnData);
+            return payload.getMsg() == NetworkConfig.NetworkConfigMsgType.TypeRespGetWifiStatus;
+        } catch (InvalidProtocolBufferException e) {
+            return false;
+        }
+    }
+
+    private void establishSession(final String sessionKey, final ResponseListener listener) {
+
         try {
             Log.d(TAG, "Init session with : " + securityType);
 
@@ -731,6 +985,9 @@ public class ESPDevice {
 
                 @Override
                 public void OnSessionEstablished() {
+                    if (securityType != ESPConstants.SecurityType.SECURITY_0) {
+                        SessionCache.put(sessionKey, security);
+                    }
                     listener.onSuccess(null);
                 }
 
@@ -770,7 +1027,7 @@ public class ESPDevice {
 
         totalCount = 0;
         startIndex = 0;
-        wifiApList = new ArrayList<>();
+        scanResults.clear();
         byte[] scanCommand = MessengeHelper.prepareWiFiScanMsg();
 
         session.sendDataToDevice(ESPConstants.HANDLER_PROV_SCAN, scanCommand, new ResponseListener() {
@@ -813,7 +1070,7 @@ public class ESPDevice {
         Log.d(TAG, "Start thread network scan");
         totalCount = 0;
         startIndex = 0;
-        wifiApList = new ArrayList<>();
+        scanResults.clear();
         byte[] scanCommand = MessengeHelper.prepareThreadScanMsg();
 
         session.sendDataToDevice(ESPConstants.HANDLER_PROV_SCAN, scanCommand, new ResponseListener() {
@@ -852,57 +1109,106 @@ public class ESPDevice {
     }
 
     private void getFullWiFiList() {
+        getFullNetworkList(false);
+    }
 
-        Log.d(TAG, "Total count : " + totalCount + " and start index is : " + startIndex);
+    private void getFullThreadList() {
+        getFullNetworkList(true);
+    }
 
-        if (totalCount < 4) {
+    private void getFullNetworkList(boolean isThread) {
 
-            getWiFiScanList(0, totalCount);
+        scanPageSize = getScanPageSize();
+        isScanPipelined = session.isPipeliningSupported();
+        isScanFailed = false;
+        startIndex = 0;
+        scanListStartTime = SystemClock.elapsedRealtime();
 
-        } else {
+        Log.d(TAG, "Total count : " + totalCount + ", page size : " + scanPageSize + ", pipelined : " + isScanPipelined);
 
-            int temp = totalCount - startIndex;
-
-            if (temp > 0) {
+        if (totalCount <= 0) {
+            completeWifiList();
+            return;
+        }
 
-                if (temp > 4) {
-                    getWiFiScanList(startIndex, 4);
-                } else {
-                    getWiFiScanList(startIndex, temp);
-                }
+        if (isScanPipelined) {
 
-            } else {
-                Log.d(TAG, "Nothing to do. Wifi list completed.");
-                completeWifiList();
+            // Transport keeps requests in order, so all pages are requested at once.
+            pendingScanPages = (totalCount + scanPageSize - 1) / scanPageSize;
+            for (int start = 0; start < totalCount; start += scanPageSize) {
+                requestScanPage(isThread, start, Math.min(scanPageSize, totalCount - start));
             }
+        } else {
+            requestScanPage(isThread, startIndex, Math.min(scanPageSize, totalCount));
         }
     }
 
-    private void getFullThreadList() {
+    private void requestScanPage(boolean isThread, int start, int count) {
+        if (isThread) {
+            getThreadScanList(start, count);
+        } else {
+            getWiFiScanList(start, count);
+        }
+    }
 
-        Log.d(TAG, "Total count : " + totalCount + " and start index is : " + startIndex);
+    private void onScanPageReceived(boolean isThread) {
 
-        if (totalCount < 4) {
+        if (isScanFailed) {
+            return;
+        }
 
-            getThreadScanList(0, totalCount);
+        if (isScanPipelined) {
 
+            pendingScanPages--;
+            if (pendingScanPages > 0) {
+                return;
+            }
         } else {
 
+            startIndex = startIndex + scanPageSize;
             int temp = totalCount - startIndex;
 
             if (temp > 0) {
+                requestScanPage(isThread, startIndex, Math.min(scanPageSize, temp));
+                return;
+            }
+        }
 
-                if (temp > 4) {
-                    getThreadScanList(startIndex, 4);
-                } else {
-                    getThreadScanList(startIndex, temp);
-                }
+        scanListFetchTime = SystemClock.elapsedRealtime() - scanListStartTime;
+        Log.d(TAG, "Scan list of " + totalCount + " entries fetched in " + scanListFetchTime + " ms with page size " + scanPageSize);
+        completeWifiList();
+    }
 
-            } else {
-                Log.d(TAG, "Nothing to do. Thread list completed.");
-                completeWifiList();
-            }
+    private void onScanPageFailed(Exception e, String message) {
+
+        e.printStackTrace();
+        if (isScanFailed) {
+            return;
+        }
+        isScanFailed = true;
+        if (wifiScanListener != null) {
+            wifiScanListener.onWiFiScanFailed(new RuntimeException(message));
+        }
+    }
+
+    /**
+     * Number of scan results which fit in a single exchange with the device.
+     * For BLE, response of a page has to fit in max attribute value length so page size is bounded.
+     */
+    private int getScanPageSize() {
+
+        if (scanPageSizeOverride > 0) {
+            return scanPageSizeOverride;
+        }
+
+        if (transport instanceof BLETransport) {
+            int capacity = ((BLETransport) transport).getMaxPayloadSize() - SCAN_RESPONSE_OVERHEAD;
+            int pageSize = capacity / SCAN_ENTRY_SIZE;
+            return Math.max(DEFAULT_SCAN_PAGE_SIZE, Math.min(MAX_BLE_SCAN_PAGE_SIZE, pageSize));
+        } else if (transport instanceof SoftAPTransport) {
+            return MAX_SOFTAP_SCAN_PAGE_SIZE;
         }
+        return DEFAULT_SCAN_PAGE_SIZE;
     }
 
     private void getWiFiScanList(int start, int count) {
@@ -925,10 +1231,7 @@ public class ESPDevice {
 
             @Override
             public void onFailure(Exception e) {
-                e.printStackTrace();
-                if (wifiScanListener != null) {
-                    wifiScanListener.onWiFiScanFailed(new RuntimeException("Failed to get Wi-Fi Networks."));
-                }
+                onScanPageFailed(e, "Failed to get Wi-Fi Networks.");
             }
         });
     }
@@ -953,18 +1256,17 @@ public class ESPDevice {
 
             @Override
             public void onFailure(Exception e) {
-                e.printStackTrace();
-                if (wifiScanListener != null) {
-                    wifiScanListener.onWiFiScanFailed(new RuntimeException("Failed to get Thread Networks."));
-                }
+                onScanPageFailed(e, "Failed to get Thread Networks.");
             }
         });
     }
 
     private void completeWifiList() {
 
-        if (wifiScanListener != null) {
-            wifiScanListener.onWifiListReceived(wifiApList);
+        if (wifiScanListener instanceof WiFiScanUpdateListener) {
+            wifiScanListener.onWifiListReceived(scanResults.getSortedList());
+        } else if (wifiScanListener != null) {
+            wifiScanListener.onWifiListReceived(scanResults.getList());
         }
     }
 
@@ -1056,12 +1358,12 @@ public class ESPDevice {
                         provisionListener.wifiConfigApplied();
                     }
 
-                    try {
-                        Thread.sleep(2000);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    pollForWifiConnectionStatus();
+                    startStatusPolling(new Runnable() {
+                        @Override
+                        public void run() {
+                            pollForWifiConnectionStatus();
+                        }
+                    });
                 } else {
                     disableOnlyWifiNetwork();
                     if (provisionListener != null) {
@@ -1097,12 +1399,12 @@ public class ESPDevice {
                         provisionListener.wifiConfigApplied();
                     }
 
-                    try {
-                        Thread.sleep(2000);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    pollForThreadConnectionStatus();
+                    startStatusPolling(new Runnable() {
+                        @Override
+                        public void run() {
+                            pollForThreadConnectionStatus();
+                        }
+                    });
                 } else {
                     disableOnlyWifiNetwork();
                     if (provisionListener != null) {
@@ -1122,6 +1424,17 @@ public class ESPDevice {
         });
     }
 
+    private void startStatusPolling(Runnable pollTask) {
+
+        if (statusPoller != null) {
+            statusPoller.cancel();
+        }
+        timeToConnected = -1;
+        statusPoller = new StatusPoller(statusPollInitialDelay, statusPollInterval, statusPollBackoffMultiplier,
+                statusPollMaxInterval, statusPollDeadline);
+        statusPoller.start(pollTask);
+    }
+
     private void pollForWifiConnectionStatus() {
 
         byte[] message = MessengeHelper.prepareGetWiFiConfigStatusMsg();
@@ -1130,6 +1443,11 @@ public class ESPDevice {
             @Override
             public void onSuccess(byte[] returnData) {
 
+                if (statusPoller.isCancelled()) {
+                    Log.d(TAG, "Status polling is cancelled, ignore response");
+                    return;
+                }
+
                 Object[] statuses = processProvisioningStatusResponse(returnData);
                 NetworkConstants.WifiStationState wifiStationState = (NetworkConstants.WifiStationState) statuses[0];
                 NetworkConstants.WifiConnectFailedReason failedReason = (NetworkConstants.WifiConnectFailedReason) statuses[1];
@@ -1137,6 +1455,8 @@ public class ESPDevice {
                 if (wifiStationState == NetworkConstants.WifiStationState.Connected) {
 
                     // Provision success
+                    timeToConnected = statusPoller.getElapsedTime();
+                    Log.d(TAG, "Time to connected : " + timeToConnected + " ms");
                     if (provisionListener != null) {
                         provisionListener.deviceProvisioningSuccess();
                     }
@@ -1154,11 +1474,8 @@ public class ESPDevice {
 
                 } else if (wifiStationState == NetworkConstants.WifiStationState.Connecting) {
 
-                    try {
-                        sleep(5000);
-                        pollForWifiConnectionStatus();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+                    if (!statusPoller.scheduleNext() && !statusPoller.isCancelled()) {
+                        Log.e(TAG, "Device is not connected within " + statusPollDeadline + " ms");
                         session = null;
                         disableOnlyWifiNetwork();
                         provisionListener.onProvisioningFailed(new RuntimeException("Provisioning Failed"));
@@ -1184,6 +1501,9 @@ public class ESPDevice {
             @Override
             public void onFailure(Exception e) {
                 e.printStackTrace();
+                if (statusPoller.isCancelled()) {
+                    return;
+                }
                 disableOnlyWifiNetwork();
                 provisionListener.onProvisioningFailed(new RuntimeException("Provisioning Failed"));
             }
@@ -1198,6 +1518,11 @@ public class ESPDevice {
             @Override
             public void onSuccess(byte[] returnData) {
 
+                if (statusPoller.isCancelled()) {
+                    Log.d(TAG, "Status polling is cancelled, ignore response");
+                    return;
+                }
+
                 Object[] statuses = processThreadProvisioningStatusResponse(returnData);
                 NetworkConstants.ThreadNetworkState threadNetworkState = (NetworkConstants.ThreadNetworkState) statuses[0];
                 NetworkConstants.ThreadAttachFailedReason failedReason = (NetworkConstants.ThreadAttachFailedReason) statuses[1];
@@ -1205,6 +1530,8 @@ public class ESPDevice {
                 if (threadNetworkState == NetworkConstants.ThreadNetworkState.Attached) {
 
                     // Provision success
+                    timeToConnected = statusPoller.getElapsedTime();
+                    Log.d(TAG, "Time to attached : " + timeToConnected + " ms");
                     if (provisionListener != null) {
                         provisionListener.deviceProvisioningSuccess();
                     }
@@ -1222,11 +1549,8 @@ public class ESPDevice {
 
                 } else if (threadNetworkState == NetworkConstants.ThreadNetworkState.Attaching) {
 
-                    try {
-                        sleep(5000);
-                        pollForThreadConnectionStatus();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+                    if (!statusPoller.scheduleNext() && !statusPoller.isCancelled()) {
+                        Log.e(TAG, "Device is not attached within " + statusPollDeadline + " ms");
                         session = null;
                         disableOnlyWifiNetwork();
                         provisionListener.onProvisioningFailed(new RuntimeException("Provisioning Failed"));
@@ -1252,6 +1576,9 @@ public class ESPDevice {
             @Override
             public void onFailure(Exception e) {
                 e.printStackTrace();
+                if (statusPoller.isCancelled()) {
+                    return;
+                }
                 disableOnlyWifiNetwork();
                 provisionListener.onProvisioningFailed(new RuntimeException("Provisioning Failed"));
             }
@@ -1340,55 +1667,25 @@ public class ESPDevice {
         try {
             NetworkScan.NetworkScanPayload payload = NetworkScan.NetworkScanPayload.parseFrom(responseData);
             final NetworkScan.RespScanWifiResult response = payload.getRespScanWifiResult();
+            boolean isDebugLogEnabled = Log.isLoggable(TAG, Log.DEBUG);
 
-            Log.d(TAG, "Response count : " + response.getEntriesCount());
+            scanResults.beginPage();
 
             for (int i = 0; i < response.getEntriesCount(); i++) {
 
-                Log.d(TAG, "SSID : " + response.getEntries(i).getSsid().toStringUtf8());
-                String ssid = response.getEntries(i).getSsid().toStringUtf8();
-                int rssi = response.getEntries(i).getRssi();
-                boolean isAvailable = false;
-
-                for (int index = 0; index < wifiApList.size(); index++) {
-
-                    if (ssid.equals(wifiApList.get(index).getWifiName())) {
-
-                        isAvailable = true;
-
-                        if (wifiApList.get(index).getRssi() < rssi) {
-
-                            wifiApList.get(index).setRssi(rssi);
-                        }
-                        break;
-                    }
-                }
-
-                if (!isAvailable) {
+                NetworkScan.WiFiScanResult entry = response.getEntries(i);
+                String ssid = entry.getSsid().toStringUtf8();
+                scanResults.merge(ssid, entry.getAuthValue(), entry.getRssi());
 
-                    WiFiAccessPoint wifiAp = new WiFiAccessPoint();
-                    wifiAp.setWifiName(ssid);
-                    wifiAp.setRssi(response.getEntries(i).getRssi());
-                    wifiAp.setSecurity(response.getEntries(i).getAuthValue());
-                    wifiApList.add(wifiAp);
+                if (isDebugLogEnabled) {
+                    Log.d(TAG, "SSID : " + ssid + ", RSSI : " + entry.getRssi());
                 }
-
-                Log.d(TAG, "Size of  list : " + wifiApList.size());
             }
 
-            startIndex = startIndex + 4;
-
-            int temp = totalCount - startIndex;
+            Log.d(TAG, "Response count : " + response.getEntriesCount() + ", list size : " + scanResults.size());
+            dispatchScanUpdate();
+            onScanPageReceived(false);
 
-            if (temp > 0) {
-
-                getFullWiFiList();
-
-            } else {
-
-                Log.e(TAG, "Wi-Fi LIST Completed");
-                completeWifiList();
-            }
         } catch (InvalidProtocolBufferException e) {
 
             e.printStackTrace();
@@ -1400,57 +1697,41 @@ public class ESPDevice {
         try {
             NetworkScan.NetworkScanPayload payload = NetworkScan.NetworkScanPayload.parseFrom(responseData);
             final NetworkScan.RespScanThreadResult response = payload.getRespScanThreadResult();
+            boolean isDebugLogEnabled = Log.isLoggable(TAG, Log.DEBUG);
 
-            Log.d(TAG, "Response count : " + response.getEntriesCount());
+            scanResults.beginPage();
 
             for (int i = 0; i < response.getEntriesCount(); i++) {
 
-                Log.d(TAG, "Network Name : " + response.getEntries(i).getNetworkName());
-                String ssid = response.getEntries(i).getNetworkName();
-                int rssi = response.getEntries(i).getRssi();
-                boolean isAvailable = false;
-
-                for (int index = 0; index < wifiApList.size(); index++) {
-
-                    if (ssid.equals(wifiApList.get(index).getWifiName())) {
-
-                        isAvailable = true;
-
-                        if (wifiApList.get(index).getRssi() < rssi) {
-                            wifiApList.get(index).setRssi(rssi);
-                        }
-                        break;
-                    }
-                }
-
-                if (!isAvailable) {
+                NetworkScan.ThreadScanResult entry = response.getEntries(i);
+                String networkName = entry.getNetworkName();
+                scanResults.merge(networkName, 0, entry.getRssi());
 
-                    WiFiAccessPoint wifiAp = new WiFiAccessPoint();
-                    wifiAp.setWifiName(ssid);
-                    wifiAp.setRssi(response.getEntries(i).getRssi());
-                    wifiAp.setSecurity(0);
-                    wifiApList.add(wifiAp);
+                if (isDebugLogEnabled) {
+                    Log.d(TAG, "Network Name : " + networkName + ", RSSI : " + entry.getRssi());
                 }
-
-                Log.d(TAG, "Size of  list : " + wifiApList.size());
             }
 
-            startIndex = startIndex + 4;
+            Log.d(TAG, "Response count : " + response.getEntriesCount() + ", list size : " + scanResults.size());
+            dispatchScanUpdate();
+            onScanPageReceived(true);
 
-            int temp = totalCount - startIndex;
+        } catch (InvalidProtocolBufferException e) {
 
-            if (temp > 0) {
+            e.printStackTrace();
+        }
+    }
 
-                getFullThreadList();
+    private void dispatchScanUpdate() {
 
-            } else {
+        if (wifiScanListener instanceof WiFiScanUpdateListener) {
 
-                Log.e(TAG, "Thread LIST Completed");
-                completeWifiList();
+            ArrayList<WiFiAccessPoint> updatedList = scanResults.getChangedEntries();
+            if (!updatedList.isEmpty()) {
+                WiFiScanUpdateListener scanUpdateListener = (WiFiScanUpdateListener) wifiScanListener;
+                scanUpdateListener.onWifiListUpdated(updatedList);
+                scanUpdateListener.onPartialWifiListReceived(scanResults.getSortedList());
             }
-        } catch (InvalidProtocolBufferException e) {
-
-            e.printStackTrace();
         }
     }
 
@@ -21,9 +21,11 @@ import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
+import android.hardware.Camera;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.util.SparseArray;
@@ -33,12 +35,12 @@ import androidx.annotation.RequiresPermission;
 
 import com.budiyev.android.codescanner.CodeScanner;
 import com.budiyev.android.codescanner.DecodeCallback;
+import com.espressif.provisioning.device_scanner.BleAdvertisementCache;
 import com.espressif.provisioning.device_scanner.BleScanner;
 import com.espressif.provisioning.device_scanner.WiFiScanner;
 import com.espressif.provisioning.listeners.BleScanListener;
 import com.espressif.provisioning.listeners.QRCodeScanListener;
 import com.espressif.provisioning.listeners.WiFiScanListener;
-import com.google.android.gms.vision.CameraSource;
 import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.barcode.Barcode;
 import com.google.android.gms.vision.barcode.BarcodeDetector;
@@ -50,6 +52,7 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -60,6 +63,9 @@ public class ESPProvisionManager {
 
     private static final String TAG = "ESP:" + ESPProvisionManager.class.getSimpleName();
 
+    private static final float QR_ROI_SCALE = 0.8f;
+    private static final int QR_DOWNSAMPLE_FACTOR = 2;
+
     private static ESPProvisionManager provision;
 
     private ESPDevice espDevice;
@@ -69,6 +75,12 @@ public class ESPProvisionManager {
     private Handler handler;
     private boolean isScanned = false;
 
+    // BLE scan running while QR code is being scanned, it fills BleAdvertisementCache.
+    private BleScanner qrPreScanner;
+    private boolean isQrPreScanEnabled = true;
+    private long qrDecodeTime;
+    private long qrToDeviceDetectedTime = -1;
+
     /**
      * This method is used to get singleton instance of
      *
@@ -110,6 +122,35 @@ public class ESPProvisionManager {
         return espDevice;
     }
 
+    /**
+     * This method is used to get FleetProvisioner object to provision multiple BLE devices concurrently.
+     *
+     * @return Returns FleetProvisioner.
+     */
+    public FleetProvisioner createFleetProvisioner() {
+        return new FleetProvisioner(context);
+    }
+
+    /**
+     * This method is used to enable / disable BLE scan which runs while QR code is being scanned.
+     * Devices seen by this scan (and by any other BLE scan) are remembered for a short time,
+     * so that BLE device from QR code is detected without waiting for a new scan. Enabled by default.
+     *
+     * @param enabled True to scan BLE devices while QR code is being scanned.
+     */
+    public void setQrPreScanEnabled(boolean enabled) {
+        this.isQrPreScanEnabled = enabled;
+    }
+
+    /**
+     * This method is used to get time taken to detect device after QR code has been decoded.
+     *
+     * @return Returns time in milliseconds or -1 if device has not been detected.
+     */
+    public long getQrToDeviceDetectedTime() {
+        return qrToDeviceDetectedTime;
+    }
+
     /**
      * This method scans QR code from, get the device information and checks whether this device is available or not.
      * If device is available in scanning (BLE / Wi-Fi), then it will return ESPDevice.
@@ -122,24 +163,25 @@ public class ESPProvisionManager {
     public void scanQRCode(final Activity activityContext, final CameraSourcePreview cameraSourcePreview, final QRCodeScanListener qrCodeScanListener) {
 
         isScanned = false;
+        startQrPreScan();
         BarcodeDetector barcodeDetector = new BarcodeDetector.Builder(activityContext)
                 .setBarcodeFormats(Barcode.QR_CODE)
                 .build();
 
-        CameraSource cameraSource = new CameraSource.Builder(activityContext, barcodeDetector)
+        // QR code is held in the middle of the preview, so only centre of the frame is decoded,
+        // at half resolution.
+        final CameraSource cameraSource = new CameraSource.Builder(activityContext, barcodeDetector)
                 .setFacing(CameraSource.CAMERA_FACING_BACK)
                 .setRequestedPreviewSize(1600, 1024)
-                .setAutoFocusEnabled(true)
+                .setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)
+                .setRegionOfInterest(QR_ROI_SCALE, QR_DOWNSAMPLE_FACTOR)
                 .build();
 
-        if (cameraSource != null) {
-            try {
-                cameraSourcePreview.start(cameraSource);
-            } catch (IOException e) {
-                Log.e(TAG, "Unable to start camera source.", e);
-                cameraSource.release();
-                cameraSource = null;
-            }
+        try {
+            cameraSourcePreview.start(cameraSource);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to start camera source.", e);
+            cameraSource.release();
         }
 
         barcodeDetector.setProcessor(new Detector.Processor<Barcode>() {
@@ -172,6 +214,12 @@ public class ESPProvisionManager {
                         String password = jsonObject.optString("password");
                         isScanned = true;
 
+                        // No further frame needs to be decoded, camera is released on main thread.
+                        cameraSource.stopDetection();
+                        Log.d(TAG, "QR code decoded in " + cameraSource.getTimeToDecode() + " ms, "
+                                + cameraSource.getProcessedFramesPerSecond() + " frames per second, "
+                                + cameraSource.getAverageDecodeTime() + " ms per frame");
+
                         if (qrCodeScanListener != null) {
                             qrCodeScanListener.qrCodeScanned();
                         }
@@ -245,6 +293,7 @@ public class ESPProvisionManager {
     public void scanQRCode(final CodeScanner codeScanner, final QRCodeScanListener qrCodeScanListener) {
 
         isScanned = false;
+        startQrPreScan();
         List<BarcodeFormat> formats = new ArrayList<>();
         formats.add(BarcodeFormat.QR_CODE);
 
@@ -455,6 +504,8 @@ public class ESPProvisionManager {
      */
     private void isDeviceAvailable(final ESPDevice device, String password, QRCodeScanListener qrCodeScanListener) {
 
+        qrDecodeTime = SystemClock.elapsedRealtime();
+        qrToDeviceDetectedTime = -1;
         searchCnt = 0;
         isDeviceFound = false;
         // Check device is available in scanning.
@@ -462,6 +513,75 @@ public class ESPProvisionManager {
         handler.post(searchDeviceTask);
     }
 
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN, Manifest.permission.BLUETOOTH})
+    private void startQrPreScan() {
+
+        if (!isQrPreScanEnabled || (qrPreScanner != null && qrPreScanner.isScanning())) {
+            return;
+        }
+
+        // Device name is not known until QR code is decoded, so all devices are scanned.
+        qrPreScanner = new BleScanner(context, new BleScanListener() {
+
+            @Override
+            public void scanStartFailed() {
+                Log.d(TAG, "BLE scan during QR code scan is not started");
+            }
+
+            @Override
+            public void onPeripheralFound(BluetoothDevice device, ScanResult scanResult) {
+                // Device is added in BleAdvertisementCache by the scanner.
+            }
+
+            @Override
+            public void scanCompleted() {
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.e(TAG, "BLE scan during QR code scan failed : " + e.getMessage());
+            }
+        });
+
+        try {
+            qrPreScanner.startScan(new ArrayList<ScanFilter>(), new ScanSettings.Builder()
+                    .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
+                    .build());
+        } catch (SecurityException e) {
+            Log.e(TAG, "BLE scan during QR code scan is not allowed : " + e.getMessage());
+            qrPreScanner = null;
+        }
+    }
+
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN, Manifest.permission.BLUETOOTH})
+    private void stopQrPreScan() {
+
+        if (qrPreScanner != null && qrPreScanner.isScanning()) {
+            qrPreScanner.stopScan();
+        }
+        qrPreScanner = null;
+    }
+
+    private void setBleDevice(ESPDevice device, BluetoothDevice btDevice, ScanResult scanResult) {
+
+        String serviceUuid = "";
+
+        if (scanResult.getScanRecord() != null && scanResult.getScanRecord().getServiceUuids() != null
+                && scanResult.getScanRecord().getServiceUuids().size() > 0) {
+            serviceUuid = scanResult.getScanRecord().getServiceUuids().get(0).toString();
+        }
+
+        device.setBluetoothDevice(btDevice);
+        device.setPrimaryServiceUuid(serviceUuid);
+    }
+
+    private void notifyDeviceDetected(ESPDevice device, QRCodeScanListener listener, boolean isCached) {
+
+        qrToDeviceDetectedTime = SystemClock.elapsedRealtime() - qrDecodeTime;
+        Log.d(TAG, "Device detected " + qrToDeviceDetectedTime + " ms after QR code decode, from recent scan : " + isCached);
+        listener.deviceDetected(device);
+    }
+
     private ESPConstants.SecurityType setSecurityType(int security) {
         switch (security) {
             case 0:
@@ -494,9 +614,27 @@ public class ESPProvisionManager {
                 Manifest.permission.ACCESS_WIFI_STATE})
         public void run() {
 
+            if (searchCnt == 1) {
+                stopQrPreScan();
+            }
+
             if (device.getTransportType().equals(ESPConstants.TransportType.TRANSPORT_BLE)) {
 
-                searchBleEspDevices(new BleScanListener() {
+                if (searchCnt == 1) {
+
+                    BlePeripheral peripheral = BleAdvertisementCache.get(device.getDeviceName());
+
+                    if (peripheral != null && peripheral.getScanResult() != null) {
+                        Log.d(TAG, "Device found in recent scan results");
+                        isDeviceFound = true;
+                        setBleDevice(device, peripheral.getBluetoothDevice(), peripheral.getScanResult());
+                        notifyDeviceDetected(device, listener, true);
+                        return;
+                    }
+                }
+
+                // Only the device from QR code is reported by the controller, and scan is stopped as soon as it is found.
+                bleScanner = new BleScanner(context, new BleScanListener() {
 
                     @Override
                     public void scanStartFailed() {
@@ -504,7 +642,7 @@ public class ESPProvisionManager {
                     }
 
                     @Override
-                    @RequiresPermission(Manifest.permission.BLUETOOTH)
+                    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN, Manifest.permission.BLUETOOTH})
                     public void onPeripheralFound(BluetoothDevice btDevice, ScanResult scanResult) {
 
                         if (!isDeviceFound && btDevice != null && !TextUtils.isEmpty(scanResult.getScanRecord().getDeviceName())) {
@@ -512,14 +650,8 @@ public class ESPProvisionManager {
                             if (scanResult.getScanRecord().getDeviceName().equals(device.getDeviceName())) {
                                 // Device found
                                 isDeviceFound = true;
-                                String serviceUuid = "";
-
-                                if (scanResult.getScanRecord().getServiceUuids() != null && scanResult.getScanRecord().getServiceUuids().size() > 0) {
-                                    serviceUuid = scanResult.getScanRecord().getServiceUuids().get(0).toString();
-                                }
-
-                                device.setBluetoothDevice(btDevice);
-                                device.setPrimaryServiceUuid(serviceUuid);
+                                setBleDevice(device, btDevice, scanResult);
+                                stopBleScan();
                             }
                         }
                     }
@@ -542,7 +674,7 @@ public class ESPProvisionManager {
                                 listener.onFailure(new RuntimeException(errMsg));
                             }
                         } else {
-                            listener.deviceDetected(device);
+                            notifyDeviceDetected(device, listener, false);
                         }
                     }
 
@@ -567,6 +699,7 @@ public class ESPProvisionManager {
                         }
                     }
                 });
+                bleScanner.startScanForDeviceNames(Collections.singletonList(device.getDeviceName()));
             } else {
 
                 searchWiFiEspDevices(new WiFiScanListener() {
@@ -582,7 +715,7 @@ public class ESPProvisionManager {
                                 WiFiAccessPoint wiFiDevice = scanResults.get(i);
                                 wiFiDevice.setPassword(password);
                                 device.setWifiDevice(wiFiDevice);
-                                listener.deviceDetected(device);
+                                notifyDeviceDetected(device, listener, false);
                                 break;
                             }
                         }
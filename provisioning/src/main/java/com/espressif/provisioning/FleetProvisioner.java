@@ -0,0 +1,631 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.espressif.provisioning;
+
+import android.Manifest;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanResult;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.RequiresPermission;
+
+import com.espressif.provisioning.device_scanner.BleScanner;
+import com.espressif.provisioning.listeners.BleScanListener;
+import com.espressif.provisioning.listeners.FleetProvisionListener;
+import com.espressif.provisioning.listeners.ProvisionListener;
+
+import org.greenrobot.eventbus.EventBus;
+import org.greenrobot.eventbus.Subscribe;
+import org.greenrobot.eventbus.ThreadMode;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * FleetProvisioner provisions many BLE devices with the same network credentials.
+ * Devices are connected, provisioned and polled for status in parallel, with a limit on number of devices
+ * which are in progress at the same time. Each device has its own state machine and app gets aggregate progress.
+ * <p>
+ * Use {@link ESPProvisionManager#createFleetProvisioner()} to get an instance.
+ */
+public class FleetProvisioner {
+
+    private static final String TAG = "ESP:" + FleetProvisioner.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_CONCURRENT_DEVICES = 3;
+    private static final long DEVICE_CONNECT_TIMEOUT = 20000;
+
+    /**
+     * States of a single device in the fleet.
+     */
+    public enum DeviceState {
+        QUEUED,
+        CONNECTING,
+        CONNECTED,
+        CONFIG_SENT,
+        CONFIG_APPLIED,
+        PROVISIONED,
+        FAILED
+    }
+
+    private Context context;
+    private Handler handler;
+    private FleetProvisionListener fleetProvisionListener;
+    private BleScanner bleScanner;
+
+    private final ArrayList<Target> targets = new ArrayList<>();
+    private final ArrayDeque<Target> pendingTargets = new ArrayDeque<>();
+    private final HashMap<String, Target> activeTargets = new HashMap<>();
+
+    private int maxConcurrentDevices = DEFAULT_MAX_CONCURRENT_DEVICES;
+    private String ssid;
+    private String passphrase;
+    private int provisionedCount;
+    private int failedCount;
+    private boolean isRunning;
+    private boolean isResolvingTargets;
+
+    FleetProvisioner(Context context) {
+        this.context = context;
+        handler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * This method is used to set maximum number of devices which are provisioned at the same time.
+     *
+     * @param maxConcurrentDevices Max number of devices in progress.
+     */
+    public void setMaxConcurrentDevices(int maxConcurrentDevices) {
+        this.maxConcurrentDevices = Math.max(1, maxConcurrentDevices);
+    }
+
+    /**
+     * This method is used to add device to be provisioned. Devices can only be added before fleet provisioning is started.
+     *
+     * @param target Device to be provisioned.
+     */
+    public void addTarget(Target target) {
+
+        if (isRunning) {
+            Log.e(TAG, "Fleet provisioning is already running, can not add device.");
+            return;
+        }
+        targets.add(target);
+    }
+
+    /**
+     * This method is used to add devices to be provisioned.
+     *
+     * @param targetList Devices to be provisioned.
+     */
+    public void addTargets(List<Target> targetList) {
+        for (Target target : targetList) {
+            addTarget(target);
+        }
+    }
+
+    /**
+     * This method is used to get all devices of the fleet.
+     *
+     * @return Returns devices of the fleet.
+     */
+    public ArrayList<Target> getTargets() {
+        return targets;
+    }
+
+    /**
+     * Start provisioning of all added devices with given Wi-Fi credentials.
+     * Devices which are added from QR code data are searched in BLE scan first.
+     *
+     * @param ssid                   SSID of the Wi-Fi which is to be configure in devices.
+     * @param passphrase             Password of the Wi-Fi which is to be configure in devices.
+     * @param fleetProvisionListener Listener for fleet provisioning callbacks.
+     */
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN, Manifest.permission.BLUETOOTH, Manifest.permission.ACCESS_FINE_LOCATION})
+    public void start(String ssid, String passphrase, FleetProvisionListener fleetProvisionListener) {
+
+        if (isRunning) {
+            Log.e(TAG, "Fleet provisioning is already running.");
+            return;
+        }
+
+        if (targets.isEmpty()) {
+            if (fleetProvisionListener != null) {
+                fleetProvisionListener.onFleetProvisioningCompleted(0, 0);
+            }
+            return;
+        }
+
+        this.ssid = ssid;
+        this.passphrase = passphrase;
+        this.fleetProvisionListener = fleetProvisionListener;
+        isRunning = true;
+        provisionedCount = 0;
+        failedCount = 0;
+        pendingTargets.clear();
+        activeTargets.clear();
+
+        if (!EventBus.getDefault().isRegistered(this)) {
+            EventBus.getDefault().register(this);
+        }
+
+        boolean hasUnresolvedTargets = false;
+        for (Target target : targets) {
+            target.state = DeviceState.QUEUED;
+            pendingTargets.add(target);
+            if (target.bluetoothDevice == null) {
+                hasUnresolvedTargets = true;
+            }
+        }
+
+        if (hasUnresolvedTargets) {
+            resolveTargets();
+        } else {
+            startNextTargets();
+        }
+    }
+
+    /**
+     * Stop fleet provisioning. Devices which are in progress will be disconnected and marked as failed.
+     */
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN, Manifest.permission.BLUETOOTH})
+    public void cancel() {
+
+        if (!isRunning) {
+            return;
+        }
+
+        stopScanner();
+        ArrayList<Target> inProgress = new ArrayList<>(activeTargets.values());
+        inProgress.addAll(pendingTargets);
+        pendingTargets.clear();
+
+        for (Target target : inProgress) {
+            finishTarget(target, DeviceState.FAILED, new RuntimeException("Fleet provisioning cancelled"));
+        }
+    }
+
+    /**
+     * Search devices added from QR code data, using a single BLE scan for all of them.
+     */
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN, Manifest.permission.BLUETOOTH, Manifest.permission.ACCESS_FINE_LOCATION})
+    private void resolveTargets() {
+
+        // Several devices may advertise the same name, so targets are kept in a list per name.
+        final HashMap<String, ArrayDeque<Target>> unresolvedTargets = new HashMap<>();
+        final HashSet<String> resolvedAddresses = new HashSet<>();
+        for (Target target : targets) {
+            if (target.bluetoothDevice == null && !TextUtils.isEmpty(target.deviceName)) {
+                ArrayDeque<Target> sameNameTargets = unresolvedTargets.get(target.deviceName);
+                if (sameNameTargets == null) {
+                    sameNameTargets = new ArrayDeque<>();
+                    unresolvedTargets.put(target.deviceName, sameNameTargets);
+                }
+                sameNameTargets.add(target);
+            } else if (target.bluetoothDevice != null) {
+                resolvedAddresses.add(target.getAddress());
+            }
+        }
+
+        isResolvingTargets = true;
+        bleScanner = new BleScanner(context, new BleScanListener() {
+
+            @Override
+            public void scanStartFailed() {
+                if (isResolvingTargets) {
+                    isResolvingTargets = false;
+                    failUnresolvedTargets(new RuntimeException("Please turn on bluetooth and try again."));
+                }
+            }
+
+            @Override
+            public void onPeripheralFound(BluetoothDevice device, ScanResult scanResult) {
+
+                if (!isResolvingTargets || scanResult.getScanRecord() == null) {
+                    return;
+                }
+
+                String deviceName = scanResult.getScanRecord().getDeviceName();
+                ArrayDeque<Target> sameNameTargets = unresolvedTargets.get(deviceName);
+
+                // Same device is reported many times during the scan, it is assigned to one target only.
+                if (sameNameTargets == null || !resolvedAddresses.add(device.getAddress())) {
+                    return;
+                }
+
+                Target target = sameNameTargets.poll();
+                if (sameNameTargets.isEmpty()) {
+                    unresolvedTargets.remove(deviceName);
+                }
+
+                target.bluetoothDevice = device;
+                if (scanResult.getScanRecord().getServiceUuids() != null && scanResult.getScanRecord().getServiceUuids().size() > 0) {
+                    target.primaryServiceUuid = scanResult.getScanRecord().getServiceUuids().get(0).toString();
+                }
+
+                // Don't wait for scan timeout once all devices are found.
+                if (unresolvedTargets.isEmpty()) {
+                    stopResolvingTargets();
+                }
+            }
+
+            @Override
+            public void scanCompleted() {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isResolvingTargets) {
+                            isResolvingTargets = false;
+                            failUnresolvedTargets(new RuntimeException("Device not found"));
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (isResolvingTargets) {
+                    isResolvingTargets = false;
+                    failUnresolvedTargets(e);
+                }
+            }
+        });
+        // Names of all devices are known, so only their advertisements are reported by the controller.
+        bleScanner.startScanForDeviceNames(new ArrayList<>(unresolvedTargets.keySet()));
+    }
+
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN, Manifest.permission.BLUETOOTH})
+    private void stopResolvingTargets() {
+
+        handler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                stopScanner();
+                startNextTargets();
+            }
+        });
+    }
+
+    /**
+     * Stop the scan, if it is running. Results and completion of the scan which arrive later are ignored.
+     */
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN, Manifest.permission.BLUETOOTH})
+    private void stopScanner() {
+
+        isResolvingTargets = false;
+        if (bleScanner != null) {
+            if (bleScanner.isScanning()) {
+                bleScanner.stopScan();
+            }
+            bleScanner = null;
+        }
+    }
+
+    private void failUnresolvedTargets(Exception e) {
+
+        ArrayList<Target> unresolvedTargets = new ArrayList<>();
+        for (Target target : pendingTargets) {
+            if (target.bluetoothDevice == null || TextUtils.isEmpty(target.primaryServiceUuid)) {
+                unresolvedTargets.add(target);
+            }
+        }
+
+        pendingTargets.removeAll(unresolvedTargets);
+        for (Target target : unresolvedTargets) {
+            finishTarget(target, DeviceState.FAILED, e);
+        }
+        startNextTargets();
+    }
+
+    private void startNextTargets() {
+
+        while (isRunning && activeTargets.size() < maxConcurrentDevices && !pendingTargets.isEmpty()) {
+            connectTarget(pendingTargets.poll());
+        }
+    }
+
+    private void connectTarget(final Target target) {
+
+        if (target.bluetoothDevice == null || TextUtils.isEmpty(target.primaryServiceUuid)) {
+            finishTarget(target, DeviceState.FAILED, new RuntimeException("Device information is not available"));
+            return;
+        }
+
+        ESPDevice espDevice = new ESPDevice(context, ESPConstants.TransportType.TRANSPORT_BLE, target.securityType);
+        espDevice.setDeviceName(target.deviceName);
+        espDevice.setProofOfPossession(target.proofOfPossession);
+        espDevice.setUserName(target.userName);
+        espDevice.setBluetoothDevice(target.bluetoothDevice);
+        espDevice.setPrimaryServiceUuid(target.primaryServiceUuid);
+        target.espDevice = espDevice;
+
+        activeTargets.put(target.getAddress(), target);
+        updateState(target, DeviceState.CONNECTING);
+
+        target.connectTimeoutTask = new Runnable() {
+            @Override
+            public void run() {
+                finishTarget(target, DeviceState.FAILED, new RuntimeException("Device connection timed out"));
+            }
+        };
+        handler.postDelayed(target.connectTimeoutTask, DEVICE_CONNECT_TIMEOUT);
+        espDevice.connectBLEDevice(target.bluetoothDevice, target.primaryServiceUuid);
+    }
+
+    @Subscribe(threadMode = ThreadMode.MAIN)
+    public void onEvent(DeviceConnectionEvent event) {
+
+        if (event.getData() == null) {
+            return;
+        }
+
+        Target target = activeTargets.get(event.getData().getString(ESPConstants.KEY_DEVICE_ADDRESS));
+        if (target == null) {
+            return;
+        }
+
+        switch (event.getEventType()) {
+
+            case ESPConstants.EVENT_DEVICE_CONNECTED:
+                if (target.state == DeviceState.CONNECTING) {
+                    handler.removeCallbacks(target.connectTimeoutTask);
+                    updateState(target, DeviceState.CONNECTED);
+                    provisionTarget(target);
+                }
+                break;
+
+            case ESPConstants.EVENT_DEVICE_CONNECTION_FAILED:
+                finishTarget(target, DeviceState.FAILED, new RuntimeException("Failed to connect with device"));
+                break;
+
+            case ESPConstants.EVENT_DEVICE_DISCONNECTED:
+                finishTarget(target, DeviceState.FAILED, new RuntimeException("Device disconnected"));
+                break;
+        }
+    }
+
+    private void provisionTarget(final Target target) {
+
+        target.espDevice.provision(ssid, passphrase, new ProvisionListener() {
+
+            @Override
+            public void createSessionFailed(Exception e) {
+                postFinish(target, DeviceState.FAILED, e);
+            }
+
+            @Override
+            public void wifiConfigSent() {
+                postState(target, DeviceState.CONFIG_SENT);
+            }
+
+            @Override
+            public void wifiConfigFailed(Exception e) {
+                postFinish(target, DeviceState.FAILED, e);
+            }
+
+            @Override
+            public void wifiConfigApplied() {
+                postState(target, DeviceState.CONFIG_APPLIED);
+            }
+
+            @Override
+            public void wifiConfigApplyFailed(Exception e) {
+                postFinish(target, DeviceState.FAILED, e);
+            }
+
+            @Override
+            public void provisioningFailedFromDevice(ESPConstants.ProvisionFailureReason failureReason) {
+                postFinish(target, DeviceState.FAILED, new RuntimeException("Provisioning failed : " + failureReason));
+            }
+
+            @Override
+            public void deviceProvisioningSuccess() {
+                postFinish(target, DeviceState.PROVISIONED, null);
+            }
+
+            @Override
+            public void onProvisioningFailed(Exception e) {
+                postFinish(target, DeviceState.FAILED, e);
+            }
+        });
+    }
+
+    // Provisioning callbacks arrive on transport threads, state machine is only updated on main thread.
+    private void postState(final Target target, final DeviceState state) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!target.isFinished()) {
+                    updateState(target, state);
+                }
+            }
+        });
+    }
+
+    private void postFinish(final Target target, final DeviceState state, final Exception e) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                finishTarget(target, state, e);
+            }
+        });
+    }
+
+    private void updateState(Target target, DeviceState state) {
+
+        target.state = state;
+        Log.d(TAG, "Device " + target.deviceName + " state : " + state);
+        if (fleetProvisionListener != null) {
+            fleetProvisionListener.onDeviceStateChanged(target, state, null);
+        }
+    }
+
+    private void finishTarget(Target target, DeviceState state, Exception e) {
+
+        if (target.isFinished()) {
+            return;
+        }
+
+        target.state = state;
+        if (target.connectTimeoutTask != null) {
+            handler.removeCallbacks(target.connectTimeoutTask);
+        }
+        if (target.bluetoothDevice != null) {
+            activeTargets.remove(target.getAddress());
+        }
+        if (target.espDevice != null) {
+            target.espDevice.disconnectDevice();
+        }
+
+        if (state == DeviceState.PROVISIONED) {
+            provisionedCount++;
+        } else {
+            failedCount++;
+        }
+
+        Log.d(TAG, "Device " + target.deviceName + " finished with state : " + state);
+        if (fleetProvisionListener != null) {
+            fleetProvisionListener.onDeviceStateChanged(target, state, e);
+            fleetProvisionListener.onProgress(provisionedCount, failedCount, targets.size());
+        }
+
+        if (provisionedCount + failedCount == targets.size()) {
+
+            isRunning = false;
+            EventBus.getDefault().unregister(this);
+            Log.d(TAG, "Fleet provisioning completed, provisioned : " + provisionedCount + ", failed : " + failedCount);
+            if (fleetProvisionListener != null) {
+                fleetProvisionListener.onFleetProvisioningCompleted(provisionedCount, failedCount);
+            }
+        } else {
+            startNextTargets();
+        }
+    }
+
+    /**
+     * Device to be provisioned as part of a fleet.
+     */
+    public static class Target {
+
+        private String deviceName;
+        private String proofOfPossession = "";
+        private String userName = "";
+        private ESPConstants.SecurityType securityType = ESPConstants.SecurityType.SECURITY_2;
+        private BluetoothDevice bluetoothDevice;
+        private String primaryServiceUuid;
+
+        private DeviceState state = DeviceState.QUEUED;
+        private ESPDevice espDevice;
+        private Runnable connectTimeoutTask;
+
+        public Target(String deviceName, String proofOfPossession, String userName, ESPConstants.SecurityType securityType) {
+            this.deviceName = deviceName;
+            this.proofOfPossession = proofOfPossession;
+            this.userName = userName;
+            this.securityType = securityType;
+        }
+
+        /**
+         * Create target from BLE scan result.
+         *
+         * @param device            BluetoothDevice
+         * @param scanResult        Scan result of the device.
+         * @param proofOfPossession Proof of possession of the device.
+         * @param userName          Username, used for Sec2 security type.
+         * @return Returns target.
+         */
+        public static Target fromScanResult(BluetoothDevice device, ScanResult scanResult, String proofOfPossession, String userName) {
+
+            String deviceName = null;
+            String serviceUuid = null;
+
+            if (scanResult.getScanRecord() != null) {
+                deviceName = scanResult.getScanRecord().getDeviceName();
+                if (scanResult.getScanRecord().getServiceUuids() != null && scanResult.getScanRecord().getServiceUuids().size() > 0) {
+                    serviceUuid = scanResult.getScanRecord().getServiceUuids().get(0).toString();
+                }
+            }
+
+            Target target = new Target(deviceName, proofOfPossession, userName, ESPConstants.SecurityType.SECURITY_2);
+            target.bluetoothDevice = device;
+            target.primaryServiceUuid = serviceUuid;
+            return target;
+        }
+
+        /**
+         * Create target from QR code data. Device will be searched in BLE scan when fleet provisioning starts.
+         *
+         * @param qrCodeData QR code data string.
+         * @return Returns target.
+         * @throws JSONException If QR code data is not valid.
+         */
+        public static Target fromQrCode(String qrCodeData) throws JSONException {
+
+            JSONObject jsonObject = new JSONObject(qrCodeData);
+            String transport = jsonObject.optString("transport");
+
+            if (!TextUtils.isEmpty(transport) && !transport.equalsIgnoreCase("ble")) {
+                throw new JSONException("Only BLE transport is supported for fleet provisioning");
+            }
+
+            ESPConstants.SecurityType securityType;
+            switch (jsonObject.optInt("security", ESPConstants.SecurityType.SECURITY_2.ordinal())) {
+                case 0:
+                    securityType = ESPConstants.SecurityType.SECURITY_0;
+                    break;
+                case 1:
+                    securityType = ESPConstants.SecurityType.SECURITY_1;
+                    break;
+                case 2:
+                default:
+                    securityType = ESPConstants.SecurityType.SECURITY_2;
+                    break;
+            }
+
+            return new Target(jsonObject.optString("name"), jsonObject.optString("pop"),
+                    jsonObject.optString("username"), securityType);
+        }
+
+        public String getDeviceName() {
+            return deviceName;
+        }
+
+        public String getAddress() {
+            return bluetoothDevice == null ? null : bluetoothDevice.getAddress();
+        }
+
+        public DeviceState getState() {
+            return state;
+        }
+
+        public ESPDevice getEspDevice() {
+            return espDevice;
+        }
+
+        private boolean isFinished() {
+            return state == DeviceState.PROVISIONED || state == DeviceState.FAILED;
+        }
+    }
+}
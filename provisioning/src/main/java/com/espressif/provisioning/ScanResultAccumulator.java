@@ -0,0 +1,141 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.espressif.provisioning;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+
+/**
+ * Merges pages of network scan results received from the device.
+ * Entries are keyed by network name and auth mode and keep the best RSSI seen, so every merge is constant time.
+ * Entries which are new or improved since last {@link #beginPage()} are tracked to give incremental updates.
+ */
+class ScanResultAccumulator {
+
+    private static final Comparator<WiFiAccessPoint> RSSI_COMPARATOR = new Comparator<WiFiAccessPoint>() {
+
+        @Override
+        public int compare(WiFiAccessPoint ap1, WiFiAccessPoint ap2) {
+            return Integer.compare(ap2.getRssi(), ap1.getRssi());
+        }
+    };
+
+    private final LinkedHashMap<String, WiFiAccessPoint> entries = new LinkedHashMap<>();
+    private final ArrayList<WiFiAccessPoint> changedEntries = new ArrayList<>();
+
+    /**
+     * Remove all entries, used when a new scan is started.
+     */
+    void clear() {
+        entries.clear();
+        changedEntries.clear();
+    }
+
+    /**
+     * Start a new page. Changes of previous page are discarded.
+     */
+    void beginPage() {
+        changedEntries.clear();
+    }
+
+    /**
+     * Merge a scan result entry.
+     *
+     * @param name     SSID / network name.
+     * @param security Auth mode of the network.
+     * @param rssi     RSSI of the network.
+     * @return Returns true if entry is new or its RSSI has been improved.
+     */
+    boolean merge(String name, int security, int rssi) {
+
+        String key = name + '\u0000' + security;
+        WiFiAccessPoint accessPoint = entries.get(key);
+
+        if (accessPoint == null) {
+
+            accessPoint = new WiFiAccessPoint();
+            accessPoint.setWifiName(name);
+            accessPoint.setSecurity(security);
+            accessPoint.setRssi(rssi);
+            entries.put(key, accessPoint);
+
+        } else if (accessPoint.getRssi() < rssi) {
+
+            accessPoint.setRssi(rssi);
+
+        } else {
+            return false;
+        }
+
+        changedEntries.add(accessPoint);
+        return true;
+    }
+
+    /**
+     * Get copies of entries which are new or updated in current page.
+     *
+     * @return Returns changed entries.
+     */
+    ArrayList<WiFiAccessPoint> getChangedEntries() {
+
+        ArrayList<WiFiAccessPoint> list = new ArrayList<>(changedEntries.size());
+        for (WiFiAccessPoint accessPoint : changedEntries) {
+            list.add(copyOf(accessPoint));
+        }
+        return list;
+    }
+
+    /**
+     * Get copies of all merged entries, in order in which they were received.
+     *
+     * @return Returns list of access points.
+     */
+    ArrayList<WiFiAccessPoint> getList() {
+
+        ArrayList<WiFiAccessPoint> list = new ArrayList<>(entries.size());
+        for (WiFiAccessPoint accessPoint : entries.values()) {
+            list.add(copyOf(accessPoint));
+        }
+        return list;
+    }
+
+    /**
+     * Get copies of all merged entries, strongest network first.
+     * Entries with same RSSI keep the order in which they were received.
+     *
+     * @return Returns list of access points sorted by RSSI.
+     */
+    ArrayList<WiFiAccessPoint> getSortedList() {
+
+        ArrayList<WiFiAccessPoint> list = getList();
+        Collections.sort(list, RSSI_COMPARATOR);
+        return list;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private static WiFiAccessPoint copyOf(WiFiAccessPoint accessPoint) {
+
+        WiFiAccessPoint copy = new WiFiAccessPoint();
+        copy.setWifiName(accessPoint.getWifiName());
+        copy.setSecurity(accessPoint.getSecurity());
+        copy.setRssi(accessPoint.getRssi());
+        return copy;
+    }
+}
@@ -16,6 +16,9 @@ package com.espressif.provisioning;
 
 import com.espressif.provisioning.listeners.ResponseListener;
 import com.espressif.provisioning.security.Security;
+import com.espressif.provisioning.security.Security0;
+import com.espressif.provisioning.security.Security2;
+import com.espressif.provisioning.transport.CancellableTransport;
 import com.espressif.provisioning.transport.Transport;
 
 /**
@@ -28,6 +31,7 @@ public class Session {
     private static final String TAG = "Espressif::" + Session.class.getSimpleName();
     private Transport transport;
     private Security security;
+    private final Object requestLock = new Object();
     private boolean isSessionEstablished;
 
     /**
@@ -68,6 +72,18 @@ public class Session {
         return isSessionEstablished;
     }
 
+    /**
+     * Check whether more than one encrypted request can be sent before response of the previous one is received.
+     * Security 1 uses a single AES-CTR stream for both directions, so with it requests must strictly alternate
+     * with responses. Security 2 reserves nonce sequence numbers per request, so its responses are
+     * matched to requests even when several requests are in flight.
+     *
+     * @return Returns true if requests can be pipelined.
+     */
+    public boolean isPipeliningSupported() {
+        return security instanceof Security0 || security instanceof Security2;
+    }
+
     /**
      * Establish the session by performing handshake with the device
      * based on the Security implementation.
@@ -117,72 +133,183 @@ public class Session {
         }
     }
 
-    public void sendDataToDevice(final String path, byte[] data, final ResponseListener listener) {
-
-        final byte[] encryptedData = security.encrypt(data);
+    public void sendDataToDevice(final String path, final byte[] data, final ResponseListener listener) {
 
         if (isSessionEstablished) {
 
-            transport.sendConfigData(path, encryptedData, new ResponseListener() {
+            sendEncryptedData(path, data, listener);
 
-                @Override
-                public void onSuccess(byte[] returnData) {
+        } else {
 
-                    byte[] decryptedData = security.decrypt(returnData);
-                    if (listener != null) {
-                        listener.onSuccess(decryptedData);
-                    }
+            init(null, new SessionListener() {
+
+                @Override
+                public void OnSessionEstablished() {
+                    sendEncryptedData(path, data, listener);
                 }
 
                 @Override
-                public void onFailure(Exception e) {
-                    isSessionEstablished = false;
+                public void OnSessionEstablishFailed(Exception e) {
                     if (listener != null) {
                         listener.onFailure(e);
                     }
                 }
             });
+        }
+    }
 
+    /**
+     * Establish the session if it is not established yet.
+     *
+     * @return Returns future which completes when session is established.
+     */
+    public SessionFuture<Void> establish() {
+
+        final SessionFuture<Void> future = new SessionFuture<>();
+
+        if (isSessionEstablished) {
+            future.complete(null);
+            return future;
+        }
+
+        init(null, new SessionListener() {
+
+            @Override
+            public void OnSessionEstablished() {
+                future.complete(null);
+            }
+
+            @Override
+            public void OnSessionEstablishFailed(Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Send data to the device, establishing the session first if required.
+     * Cancelling the returned future before the request is sent prevents it from being sent.
+     * Request which is already queued to the transport is removed from the queue only for unencrypted sessions;
+     * with encryption every request consumes nonce / stream state shared with the device, so it is still sent
+     * and its response is decrypted and dropped to keep the session in sync.
+     *
+     * @param path Endpoint.
+     * @param data Data to be sent.
+     * @return Returns future with decrypted response.
+     */
+    public SessionFuture<byte[]> send(final String path, final byte[] data) {
+
+        final SessionFuture<byte[]> future = new SessionFuture<>();
+
+        if (isSessionEstablished) {
+            sendRequest(path, data, future);
         } else {
+            establish().addCallback(new SessionFuture.Callback<Void>() {
 
-            init(null, new SessionListener() {
+                @Override
+                public void onSuccess(Void result) {
+                    if (!future.isDone()) {
+                        sendRequest(path, data, future);
+                    }
+                }
 
                 @Override
-                public void OnSessionEstablished() {
+                public void onFailure(Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        }
+        return future;
+    }
 
-                    transport.sendConfigData(path, encryptedData, new ResponseListener() {
+    /**
+     * Send data to the device with a deadline. Future fails with {@link java.util.concurrent.TimeoutException}
+     * if response is not received within given time.
+     *
+     * @param path     Endpoint.
+     * @param data     Data to be sent.
+     * @param deadline Time in milliseconds.
+     * @return Returns future with decrypted response.
+     */
+    public SessionFuture<byte[]> send(String path, byte[] data, long deadline) {
+        return send(path, data).withDeadline(deadline);
+    }
 
-                        @Override
-                        public void onSuccess(byte[] returnData) {
-                            if (listener != null) {
-                                listener.onSuccess(returnData);
-                            }
-                        }
+    private void sendRequest(String path, byte[] data, final SessionFuture<byte[]> future) {
 
-                        @Override
-                        public void onFailure(Exception e) {
-                            isSessionEstablished = false;
-                            if (listener != null) {
-                                listener.onFailure(e);
-                            }
-                        }
-                    });
+        final ResponseListener transportListener = sendEncryptedData(path, data, new ResponseListener() {
+
+            @Override
+            public void onSuccess(byte[] returnData) {
+                future.complete(returnData);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+
+        future.setCancellationHandler(new Runnable() {
+
+            @Override
+            public void run() {
+                if (security instanceof Security0 && transport instanceof CancellableTransport) {
+                    ((CancellableTransport) transport).cancelRequest(transportListener);
                 }
+            }
+        });
+    }
+
+    private ResponseListener sendEncryptedData(final String path, byte[] data, final ResponseListener listener) {
+
+        final int sequence;
+        final byte[] encryptedData;
+        final Security2 security2 = (security instanceof Security2) ? (Security2) security : null;
+
+        // Device expects requests in order of their nonce sequence numbers,
+        // so sequence is reserved and request is queued to transport atomically.
+        synchronized (requestLock) {
+
+            if (security2 != null) {
+                sequence = security2.reserveSequenceNumber();
+                encryptedData = security2.encryptRequest(sequence, data);
+            } else {
+                sequence = 0;
+                encryptedData = security.encrypt(data);
+            }
+
+            ResponseListener transportListener = new ResponseListener() {
 
                 @Override
-                public void OnSessionEstablishFailed(Exception e) {
+                public void onSuccess(byte[] returnData) {
+
+                    byte[] decryptedData;
+                    if (security2 != null) {
+                        decryptedData = security2.decryptResponse(sequence, returnData);
+                    } else {
+                        decryptedData = security.decrypt(returnData);
+                    }
+                    if (listener != null) {
+                        listener.onSuccess(decryptedData);
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    isSessionEstablished = false;
                     if (listener != null) {
                         listener.onFailure(e);
                     }
                 }
-            });
+            };
+
+            transport.sendConfigData(path, encryptedData, transportListener);
+            return transportListener;
         }
     }
 
-    /**
-     * Callback interface for listening to Session
-     * establish events.
-     */
     public interface SessionListener {
 
         /**
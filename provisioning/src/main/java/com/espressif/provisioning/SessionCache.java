@@ -0,0 +1,141 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.espressif.provisioning;
+
+import android.os.SystemClock;
+
+import com.espressif.provisioning.security.Security;
+import com.espressif.provisioning.utils.HexEncoder;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of established sessions, used to resume a session after transport reconnect
+ * without running the handshake again.
+ * Entry holds security implementation with its derived key and nonce state and is keyed by
+ * device identity, security scheme and hash of the credentials, so changed PoP never resumes old session.
+ * Entries expire after TTL and cache is bounded, least recently used entry is dropped first.
+ */
+class SessionCache {
+
+    static final long DEFAULT_SESSION_TTL = 5 * 60 * 1000;
+
+    private static final int MAX_ENTRIES = 8;
+
+    private static class Entry {
+
+        final Security security;
+        final long createdTime;
+
+        Entry(Security security, long createdTime) {
+            this.security = security;
+            this.createdTime = createdTime;
+        }
+    }
+
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private static long sessionTtl = DEFAULT_SESSION_TTL;
+
+    private SessionCache() {
+    }
+
+    /**
+     * Set time for which an established session is kept for resumption. TTL 0 disables resumption.
+     *
+     * @param ttl Time to live in milliseconds.
+     */
+    static synchronized void setSessionTtl(long ttl) {
+        sessionTtl = Math.max(0, ttl);
+        if (sessionTtl == 0) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Get security state of a session established earlier.
+     *
+     * @param key Key built with {@link #buildKey}.
+     * @return Returns cached security implementation or null if there is no valid entry.
+     */
+    static synchronized Security get(String key) {
+
+        if (key == null) {
+            return null;
+        }
+
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() - entry.createdTime > sessionTtl) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.security;
+    }
+
+    static synchronized void put(String key, Security security) {
+
+        if (key == null || security == null || sessionTtl == 0) {
+            return;
+        }
+        entries.put(key, new Entry(security, SystemClock.elapsedRealtime()));
+    }
+
+    static synchronized void remove(String key) {
+        if (key != null) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Build cache key.
+     *
+     * @param deviceId        BLE address or SoftAP SSID of the device.
+     * @param securityType    Security scheme of the session.
+     * @param secPatchVersion Security patch version.
+     * @param userName        User name used for Security 2.
+     * @param pop             Proof of possession.
+     * @return Returns cache key or null if device identity is not known.
+     */
+    static String buildKey(String deviceId, ESPConstants.SecurityType securityType, int secPatchVersion,
+                           String userName, String pop) {
+
+        if (deviceId == null || securityType == null) {
+            return null;
+        }
+
+        String credentials = (userName == null ? "" : userName) + '\u0000' + (pop == null ? "" : pop);
+        String credentialsHash;
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            credentialsHash = HexEncoder.byteArrayToHexString(md.digest(credentials.getBytes(Charset.forName("UTF-8"))));
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+        return deviceId + "|" + securityType + "|" + secPatchVersion + "|" + credentialsHash;
+    }
+}
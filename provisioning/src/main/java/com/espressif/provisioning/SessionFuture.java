@@ -0,0 +1,457 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.espressif.provisioning;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Result of an asynchronous operation with the device, used by the future based API of {@link Session}.
+ * Callbacks can be added at any time and are called exactly once, on the thread which completes the future
+ * (or on the caller thread if the future is already done).
+ * Futures can be chained with {@link #thenApply} / {@link #thenCompose}, combined with {@link #allOf}
+ * and given a deadline with {@link #withDeadline}.
+ * Cancelling a future (directly or when its deadline expires) cancels the stage of the flow that is
+ * currently running, so no further request of the flow is sent to the device.
+ *
+ * @param <T> Type of the result.
+ */
+public class SessionFuture<T> implements Future<T> {
+
+    /**
+     * Receives result of the future.
+     */
+    public interface Callback<T> {
+
+        void onSuccess(T result);
+
+        void onFailure(Exception e);
+    }
+
+    /**
+     * Converts result of one stage into result of the next stage.
+     */
+    public interface Transformation<T, R> {
+
+        R apply(T result) throws Exception;
+    }
+
+    /**
+     * Starts next stage of a flow from result of the previous stage.
+     */
+    public interface Continuation<T, R> {
+
+        SessionFuture<R> then(T result) throws Exception;
+    }
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_SUCCEEDED = 1;
+    private static final int STATE_FAILED = 2;
+    private static final int STATE_CANCELLED = 3;
+
+    private static ScheduledExecutorService deadlineScheduler;
+
+    private final CountDownLatch doneLatch = new CountDownLatch(1);
+    private final List<Callback<? super T>> callbacks = new ArrayList<>();
+
+    private int state = STATE_PENDING;
+    private T result;
+    private Exception exception;
+    private Runnable cancellationHandler;
+
+    /**
+     * Create a future which is already completed with given result.
+     */
+    public static <T> SessionFuture<T> completed(T result) {
+        SessionFuture<T> future = new SessionFuture<>();
+        future.complete(result);
+        return future;
+    }
+
+    /**
+     * Create a future which is already failed with given exception.
+     */
+    public static <T> SessionFuture<T> failed(Exception e) {
+        SessionFuture<T> future = new SessionFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    /**
+     * Create a future which succeeds when all given futures succeed. It fails as soon as any of them fails,
+     * and the remaining ones are cancelled. Cancelling the returned future cancels all given futures.
+     *
+     * @param futures Futures to be combined.
+     * @return Returns combined future.
+     */
+    public static SessionFuture<Void> allOf(final SessionFuture<?>... futures) {
+
+        final SessionFuture<Void> combined = new SessionFuture<>();
+        final AtomicInteger remaining = new AtomicInteger(futures.length);
+
+        combined.setCancellationHandler(new Runnable() {
+
+            @Override
+            public void run() {
+                for (SessionFuture<?> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        });
+
+        if (futures.length == 0) {
+            combined.complete(null);
+            return combined;
+        }
+
+        for (SessionFuture<?> future : futures) {
+
+            future.addCallback(new Callback<Object>() {
+
+                @Override
+                public void onSuccess(Object result) {
+                    if (remaining.decrementAndGet() == 0) {
+                        combined.complete(null);
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    if (combined.completeExceptionally(e)) {
+                        for (SessionFuture<?> other : futures) {
+                            other.cancel(true);
+                        }
+                    }
+                }
+            });
+        }
+        return combined;
+    }
+
+    /**
+     * Complete this future with given result.
+     *
+     * @return Returns false if future was already done.
+     */
+    public boolean complete(T result) {
+        return finish(STATE_SUCCEEDED, result, null);
+    }
+
+    /**
+     * Complete this future with given exception.
+     *
+     * @return Returns false if future was already done.
+     */
+    public boolean completeExceptionally(Exception e) {
+        return finish(STATE_FAILED, null, e);
+    }
+
+    /**
+     * Cancel the operation. Callbacks receive {@link CancellationException}.
+     *
+     * @param mayInterruptIfRunning Ignored, requests which already reached the device can not be recalled.
+     * @return Returns false if future was already done.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(STATE_CANCELLED, null, new CancellationException("Operation cancelled"));
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == STATE_CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return state != STATE_PENDING;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        doneLatch.await();
+        return getResult();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!doneLatch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    /**
+     * Add callback to receive result of this future.
+     *
+     * @param callback Callback.
+     * @return Returns this future.
+     */
+    public SessionFuture<T> addCallback(Callback<? super T> callback) {
+
+        synchronized (this) {
+            if (state == STATE_PENDING) {
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        notifyCallback(callback);
+        return this;
+    }
+
+    /**
+     * Fail this future with {@link TimeoutException} if it is not done within given time.
+     * Expiry of the deadline cancels the running operation same way as {@link #cancel(boolean)}.
+     *
+     * @param timeout Time in milliseconds, counted from now.
+     * @return Returns this future.
+     */
+    public SessionFuture<T> withDeadline(final long timeout) {
+
+        if (timeout <= 0 || isDone()) {
+            return this;
+        }
+
+        final ScheduledFuture<?> deadlineTask = getDeadlineScheduler().schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                finish(STATE_CANCELLED, null, new TimeoutException("Deadline of " + timeout + " ms exceeded"));
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+
+        addCallback(new Callback<T>() {
+
+            @Override
+            public void onSuccess(T result) {
+                deadlineTask.cancel(false);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                deadlineTask.cancel(false);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Create a future with result of this future converted by given transformation.
+     * Cancelling the returned future cancels this future.
+     */
+    public <R> SessionFuture<R> thenApply(final Transformation<? super T, ? extends R> transformation) {
+
+        final SessionFuture<R> next = new SessionFuture<>();
+        next.setCancellationHandler(new Runnable() {
+
+            @Override
+            public void run() {
+                cancel(true);
+            }
+        });
+
+        addCallback(new Callback<T>() {
+
+            @Override
+            public void onSuccess(T result) {
+                try {
+                    next.complete(transformation.apply(result));
+                } catch (Exception e) {
+                    next.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                next.completeExceptionally(e);
+            }
+        });
+        return next;
+    }
+
+    /**
+     * Create a future which runs the next stage of a flow after this future succeeds.
+     * Next stage is not started if this future fails or is cancelled.
+     * Cancelling the returned future cancels the stage which is running at that moment.
+     */
+    public <R> SessionFuture<R> thenCompose(final Continuation<? super T, R> continuation) {
+
+        final SessionFuture<R> next = new SessionFuture<>();
+        next.setCancellationHandler(new Runnable() {
+
+            @Override
+            public void run() {
+                cancel(true);
+            }
+        });
+
+        addCallback(new Callback<T>() {
+
+            @Override
+            public void onSuccess(T result) {
+
+                final SessionFuture<R> stage;
+                try {
+                    stage = continuation.then(result);
+                } catch (Exception e) {
+                    next.completeExceptionally(e);
+                    return;
+                }
+
+                if (stage == null) {
+                    next.complete(null);
+                    return;
+                }
+
+                next.setCancellationHandler(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        stage.cancel(true);
+                    }
+                });
+
+                stage.addCallback(new Callback<R>() {
+
+                    @Override
+                    public void onSuccess(R result) {
+                        next.complete(result);
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        next.completeExceptionally(e);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                next.completeExceptionally(e);
+            }
+        });
+        return next;
+    }
+
+    /**
+     * Set action which is run when this future is cancelled or its deadline expires.
+     * If the future is already cancelled, action is run immediately.
+     */
+    void setCancellationHandler(Runnable handler) {
+
+        synchronized (this) {
+            if (state == STATE_PENDING) {
+                cancellationHandler = handler;
+                return;
+            }
+            if (state != STATE_CANCELLED) {
+                return;
+            }
+        }
+        handler.run();
+    }
+
+    private boolean finish(int newState, T newResult, Exception newException) {
+
+        List<Callback<? super T>> callbacksToNotify;
+        Runnable handler = null;
+
+        synchronized (this) {
+            if (state != STATE_PENDING) {
+                return false;
+            }
+            state = newState;
+            result = newResult;
+            exception = newException;
+            callbacksToNotify = new ArrayList<>(callbacks);
+            callbacks.clear();
+            if (newState == STATE_CANCELLED) {
+                handler = cancellationHandler;
+            }
+            cancellationHandler = null;
+        }
+
+        doneLatch.countDown();
+
+        if (handler != null) {
+            handler.run();
+        }
+        for (Callback<? super T> callback : callbacksToNotify) {
+            notifyCallback(callback);
+        }
+        return true;
+    }
+
+    private void notifyCallback(Callback<? super T> callback) {
+
+        int currentState;
+        T currentResult;
+        Exception currentException;
+
+        synchronized (this) {
+            currentState = state;
+            currentResult = result;
+            currentException = exception;
+        }
+
+        if (currentState == STATE_SUCCEEDED) {
+            callback.onSuccess(currentResult);
+        } else {
+            callback.onFailure(currentException);
+        }
+    }
+
+    private synchronized T getResult() throws ExecutionException {
+
+        switch (state) {
+            case STATE_SUCCEEDED:
+                return result;
+            case STATE_CANCELLED:
+                if (exception instanceof CancellationException) {
+                    throw (CancellationException) exception;
+                }
+                throw new ExecutionException(exception);
+            default:
+                throw new ExecutionException(exception);
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getDeadlineScheduler() {
+
+        if (deadlineScheduler == null) {
+            deadlineScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "SessionDeadline");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return deadlineScheduler;
+    }
+}
@@ -0,0 +1,116 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.espressif.provisioning;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules polls of device connection status with exponential backoff and an overall deadline.
+ * Polls run on a shared scheduler thread, so no transport thread is blocked between two polls.
+ */
+class StatusPoller {
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private final long initialDelay;
+    private final long pollInterval;
+    private final float backoffMultiplier;
+    private final long maxPollInterval;
+    private final long deadline;
+
+    private Runnable pollTask;
+    private ScheduledFuture<?> scheduledPoll;
+    private long startTime;
+    private long nextInterval;
+
+    /**
+     * @param initialDelay      Delay before the first poll, in milliseconds.
+     * @param pollInterval      Delay before the second poll, in milliseconds.
+     * @param backoffMultiplier Factor by which delay grows after every poll.
+     * @param maxPollInterval   Upper bound of delay between two polls, in milliseconds.
+     * @param deadline          Time after start when polling gives up, in milliseconds.
+     */
+    StatusPoller(long initialDelay, long pollInterval, float backoffMultiplier, long maxPollInterval, long deadline) {
+        this.initialDelay = initialDelay;
+        this.pollInterval = pollInterval;
+        this.backoffMultiplier = Math.max(1f, backoffMultiplier);
+        this.maxPollInterval = Math.max(pollInterval, maxPollInterval);
+        this.deadline = deadline;
+    }
+
+    /**
+     * Start polling. Given task is run once after initial delay.
+     *
+     * @param task Task which sends status request to the device.
+     */
+    synchronized void start(Runnable task) {
+        pollTask = task;
+        startTime = SystemClock.elapsedRealtime();
+        nextInterval = pollInterval;
+        scheduledPoll = scheduler.schedule(pollTask, initialDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedule next poll after backoff delay.
+     *
+     * @return Returns false if next poll would run after the deadline or polling has been cancelled,
+     * so polling should be stopped. Use {@link #isCancelled()} to tell these cases apart.
+     */
+    synchronized boolean scheduleNext() {
+
+        if (pollTask == null || getElapsedTime() + nextInterval > deadline) {
+            return false;
+        }
+
+        scheduledPoll = scheduler.schedule(pollTask, nextInterval, TimeUnit.MILLISECONDS);
+        nextInterval = Math.min((long) (nextInterval * backoffMultiplier), maxPollInterval);
+        return true;
+    }
+
+    /**
+     * Stop polling and cancel scheduled poll, if any.
+     */
+    synchronized void cancel() {
+        if (scheduledPoll != null) {
+            scheduledPoll.cancel(false);
+            scheduledPoll = null;
+        }
+        pollTask = null;
+    }
+
+    /**
+     * Check whether polling has been stopped by {@link #cancel()}.
+     * Response of a poll which was already sent may still arrive after that and should be ignored.
+     *
+     * @return Returns true if polling has been cancelled.
+     */
+    synchronized boolean isCancelled() {
+        return pollTask == null;
+    }
+
+    /**
+     * Get time since polling has been started.
+     *
+     * @return Returns elapsed time in milliseconds.
+     */
+    synchronized long getElapsedTime() {
+        return SystemClock.elapsedRealtime() - startTime;
+    }
+}
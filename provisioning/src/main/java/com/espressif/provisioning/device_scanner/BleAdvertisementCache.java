@@ -0,0 +1,90 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.espressif.provisioning.device_scanner;
+
+import android.os.SystemClock;
+
+import com.espressif.provisioning.BlePeripheral;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Devices recently seen by any BLE scan of the library, keyed by device name.
+ * Used to resolve a device name (for example from QR code) to a BluetoothDevice without starting a new scan.
+ */
+public final class BleAdvertisementCache {
+
+    public static final long DEFAULT_ADVERTISEMENT_TTL = 30 * 1000;
+
+    private static final int MAX_ENTRIES = 64;
+
+    private static final LinkedHashMap<String, BlePeripheral> peripherals = new LinkedHashMap<String, BlePeripheral>(MAX_ENTRIES, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BlePeripheral> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private static long advertisementTtl = DEFAULT_ADVERTISEMENT_TTL;
+
+    private BleAdvertisementCache() {
+    }
+
+    /**
+     * This method is used to set time for which a seen device is considered available.
+     *
+     * @param ttl Time in milliseconds.
+     */
+    public static synchronized void setAdvertisementTtl(long ttl) {
+        advertisementTtl = ttl;
+    }
+
+    /**
+     * This method is used to get device with given name, if it has been seen recently.
+     *
+     * @param deviceName Name of the device.
+     * @return Returns device or null if it has not been seen within TTL.
+     */
+    public static synchronized BlePeripheral get(String deviceName) {
+
+        if (deviceName == null) {
+            return null;
+        }
+
+        BlePeripheral peripheral = peripherals.get(deviceName);
+        if (peripheral == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() - peripheral.getLastSeenTime() > advertisementTtl) {
+            peripherals.remove(deviceName);
+            return null;
+        }
+        return peripheral;
+    }
+
+    /**
+     * This method is used to remove all devices from the cache.
+     */
+    public static synchronized void clear() {
+        peripherals.clear();
+    }
+
+    static synchronized void put(BlePeripheral peripheral) {
+        peripherals.put(peripheral.getDeviceName(), peripheral);
+    }
+}
@@ -24,24 +24,62 @@ import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.RequiresPermission;
 
+import com.espressif.provisioning.BlePeripheral;
 import com.espressif.provisioning.listeners.BleScanListener;
+import com.espressif.provisioning.listeners.BleScanUpdateListener;
+import com.espressif.provisioning.security.EphemeralKeyPool;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 
 /**
  * This class is used for BLE scan functionality.
+ * Repeated advertisements of a device are coalesced by device address, so {@link BleScanListener#onPeripheralFound}
+ * is called only once per device. RSSI is smoothed over received advertisements and, for {@link BleScanUpdateListener},
+ * all devices are delivered in batches at a bounded rate.
+ * Unless scan settings are given by the caller, scan starts in low latency mode for initial discovery
+ * and switches to low power mode for rest of the scan. Switching restarts the scan, so it is skipped
+ * when the app has started too many scans recently.
  */
 public class BleScanner {
 
     private static final String TAG = "ESP:" + BleScanner.class.getSimpleName();
 
     private static final long SCAN_TIME_OUT = 6000;
+    private static final long DISCOVERY_PHASE_TIME = 2000;
+    private static final long UPDATE_INTERVAL = 500;
+
+    // Android stops delivering results to an app which starts more than 5 scans within 30 seconds.
+    private static final int MAX_SCAN_STARTS = 5;
+    private static final long SCAN_START_WINDOW = 30000;
+
+    // Starts kept free for scans requested by the user, when deciding whether to restart a scan in low power mode.
+    private static final int RESERVED_SCAN_STARTS = 1;
+
+    // Weight of new RSSI sample in exponential moving average.
+    private static final float RSSI_SMOOTHING_FACTOR = 0.3f;
+
+    private static final Comparator<BlePeripheral> RSSI_COMPARATOR = new Comparator<BlePeripheral>() {
+
+        @Override
+        public int compare(BlePeripheral p1, BlePeripheral p2) {
+            return p2.getRssi() - p1.getRssi();
+        }
+    };
+
+    // Start times of recent scans of all scanners, oldest first.
+    private static final ArrayDeque<Long> scanStartTimes = new ArrayDeque<>();
 
     private Handler handler;
     private BleScanListener bleScanListener;
@@ -51,6 +89,11 @@ public class BleScanner {
     private boolean isScanning = false;
     private String prefix = "";
 
+    private List<ScanFilter> scanFilters;
+    private final HashMap<String, BlePeripheral> peripherals = new HashMap<>();
+    private boolean hasUpdates = false;
+    private boolean isUpdateScheduled = false;
+
     public BleScanner(Context context, BleScanListener bleScannerListener) {
 
         this.bleScanListener = bleScannerListener;
@@ -71,11 +114,7 @@ public class BleScanner {
      */
     @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH, Manifest.permission.BLUETOOTH_ADMIN})
     public void startScan() {
-        List<ScanFilter> filters = new ArrayList<>();
-        ScanSettings settings = new ScanSettings.Builder()
-                .setScanMode(ScanSettings.SCAN_MODE_BALANCED)
-                .build();
-        startScan(filters, settings);
+        startScan(new ArrayList<ScanFilter>(), null, true);
     }
 
     /**
@@ -85,10 +124,24 @@ public class BleScanner {
      */
     @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH, Manifest.permission.BLUETOOTH_ADMIN})
     public void startScan(List<ScanFilter> filters) {
-        ScanSettings settings = new ScanSettings.Builder()
-                .setScanMode(ScanSettings.SCAN_MODE_BALANCED)
-                .build();
-        startScan(filters, settings);
+        startScan(filters, null, true);
+    }
+
+    /**
+     * This method is used to start BLE scan for devices with given names.
+     * Names are matched by controller (hardware scan filter), so advertisements of other devices
+     * do not wake up the app. Name prefix can not be matched by scan filter, so prefix scan is filtered in software.
+     *
+     * @param deviceNames Exact names of the devices.
+     */
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH, Manifest.permission.BLUETOOTH_ADMIN})
+    public void startScanForDeviceNames(Collection<String> deviceNames) {
+
+        List<ScanFilter> filters = new ArrayList<>();
+        for (String deviceName : deviceNames) {
+            filters.add(new ScanFilter.Builder().setDeviceName(deviceName).build());
+        }
+        startScan(filters, null, true);
     }
 
     /**
@@ -104,12 +157,18 @@ public class BleScanner {
 
     /**
      * This method is used to start BLE scan.
+     * Given scan settings are used for whole scan.
      *
      * @param filters      The scan filters that will be used
      * @param scanSettings The scan settings that will be used
      */
     @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH, Manifest.permission.BLUETOOTH_ADMIN})
     public void startScan(List<ScanFilter> filters, ScanSettings scanSettings) {
+        startScan(filters, scanSettings, false);
+    }
+
+    @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH, Manifest.permission.BLUETOOTH_ADMIN})
+    private void startScan(List<ScanFilter> filters, ScanSettings scanSettings, boolean isAdaptive) {
 
         if (!bluetoothAdapter.isEnabled()) {
             bleScanListener.scanStartFailed();
@@ -117,10 +176,25 @@ public class BleScanner {
         }
         Log.d(TAG, "Starting BLE device scanning...");
 
+        if (isAdaptive) {
+            scanSettings = getScanSettings(ScanSettings.SCAN_MODE_LOW_LATENCY);
+        }
+
+        peripherals.clear();
+        hasUpdates = false;
+        scanFilters = filters;
         bluetoothLeScanner = bluetoothAdapter.getBluetoothLeScanner();
         isScanning = true;
+        reserveScanStart(0);
         bluetoothLeScanner.startScan(filters, scanSettings, scanCallback);
         handler.postDelayed(stopScanTask, SCAN_TIME_OUT);
+
+        if (isAdaptive) {
+            handler.postDelayed(keepAlivePhaseTask, DISCOVERY_PHASE_TIME);
+        }
+
+        // User is going to select a device, so keys required for session establishment are generated meanwhile.
+        EphemeralKeyPool.prefill();
     }
 
     /**
@@ -131,6 +205,9 @@ public class BleScanner {
 
         Log.d(TAG, "Stop BLE device scan");
         handler.removeCallbacks(stopScanTask);
+        handler.removeCallbacks(keepAlivePhaseTask);
+        handler.removeCallbacks(deliverUpdatesTask);
+        isUpdateScheduled = false;
 
         if (bluetoothLeScanner != null && bluetoothAdapter != null && bluetoothAdapter.isEnabled()) {
             try {
@@ -141,6 +218,7 @@ public class BleScanner {
             }
         }
         isScanning = false;
+        deliverUpdates();
         bleScanListener.scanCompleted();
     }
 
@@ -153,6 +231,32 @@ public class BleScanner {
         return isScanning;
     }
 
+    /**
+     * Count a scan start against the limit of scan starts allowed by Android.
+     *
+     * @param reservedStarts Number of starts which should still be available after this one.
+     * @return Returns false if start would leave fewer than reserved starts. Start is not counted in that case.
+     */
+    private static synchronized boolean reserveScanStart(int reservedStarts) {
+
+        long now = SystemClock.elapsedRealtime();
+        while (!scanStartTimes.isEmpty() && now - scanStartTimes.peekFirst() >= SCAN_START_WINDOW) {
+            scanStartTimes.pollFirst();
+        }
+
+        if (reservedStarts > 0 && scanStartTimes.size() + 1 + reservedStarts > MAX_SCAN_STARTS) {
+            return false;
+        }
+        scanStartTimes.addLast(now);
+        return true;
+    }
+
+    private ScanSettings getScanSettings(int scanMode) {
+        return new ScanSettings.Builder()
+                .setScanMode(scanMode)
+                .build();
+    }
+
     private Runnable stopScanTask = new Runnable() {
 
         @Override
@@ -163,32 +267,120 @@ public class BleScanner {
     };
 
     /**
-     * ScanCallback to get scanned Peripheral.
+     * Devices around have been discovered, so scan continues in low power mode only to keep their
+     * information up to date. Scan has to be restarted to change its mode.
      */
-    private final ScanCallback scanCallback = new ScanCallback() {
+    private Runnable keepAlivePhaseTask = new Runnable() {
 
         @Override
-        @RequiresPermission(Manifest.permission.BLUETOOTH)
-        public void onScanResult(int callbackType, ScanResult result) {
+        @RequiresPermission(allOf = {Manifest.permission.BLUETOOTH_ADMIN, Manifest.permission.BLUETOOTH})
+        public void run() {
 
-            String deviceName = result.getScanRecord().getDeviceName();
+            if (!isScanning || bluetoothLeScanner == null || !bluetoothAdapter.isEnabled()) {
+                return;
+            }
+            if (!reserveScanStart(RESERVED_SCAN_STARTS)) {
+                Log.d(TAG, "Too many BLE scans started recently, scan continues in low latency mode");
+                return;
+            }
+            Log.d(TAG, "Switching BLE scan to low power mode, devices found : " + peripherals.size());
+            try {
+                bluetoothLeScanner.stopScan(scanCallback);
+                bluetoothLeScanner.startScan(scanFilters, getScanSettings(ScanSettings.SCAN_MODE_LOW_POWER), scanCallback);
+            } catch (Exception e) {
+                Log.e(TAG, e.toString());
+                e.printStackTrace();
+            }
+        }
+    };
+
+    private Runnable deliverUpdatesTask = new Runnable() {
+
+        @Override
+        public void run() {
+            isUpdateScheduled = false;
+            deliverUpdates();
+        }
+    };
+
+    @RequiresPermission(Manifest.permission.BLUETOOTH)
+    private void processScanResult(ScanResult result) {
+
+        if (result.getDevice() == null || result.getScanRecord() == null) {
+            return;
+        }
+
+        String deviceName = result.getScanRecord().getDeviceName();
+
+        if (TextUtils.isEmpty(deviceName) || (!TextUtils.isEmpty(prefix) && !deviceName.startsWith(prefix))) {
+            return;
+        }
+
+        String address = result.getDevice().getAddress();
+        BlePeripheral peripheral = peripherals.get(address);
 
-            if (result.getDevice() != null && !TextUtils.isEmpty(deviceName)) {
-                // Found BLE device
-                Log.d(TAG, "========== Device Found : " + deviceName);
+        if (peripheral == null) {
 
-                if (TextUtils.isEmpty(prefix)) {
-                    bleScanListener.onPeripheralFound(result.getDevice(), result);
-                } else if (deviceName.startsWith(prefix)) {
-                    bleScanListener.onPeripheralFound(result.getDevice(), result);
-                }
+            // Found BLE device
+            Log.d(TAG, "========== Device Found : " + deviceName);
+            peripheral = new BlePeripheral(result.getDevice(), deviceName);
+            peripheral.setRssi(result.getRssi());
+            peripherals.put(address, peripheral);
+            hasUpdates = true;
+            bleScanListener.onPeripheralFound(result.getDevice(), result);
+
+        } else {
+
+            int rssi = Math.round(peripheral.getRssi() + RSSI_SMOOTHING_FACTOR * (result.getRssi() - peripheral.getRssi()));
+            if (rssi != peripheral.getRssi() || !deviceName.equals(peripheral.getDeviceName())) {
+                peripheral.setRssi(rssi);
+                peripheral.setDeviceName(deviceName);
+                hasUpdates = true;
             }
         }
 
+        peripheral.setScanResult(result);
+        peripheral.setLastSeenTime(SystemClock.elapsedRealtime());
+        peripheral.setAdvertisementCount(peripheral.getAdvertisementCount() + 1);
+        BleAdvertisementCache.put(peripheral);
+
+        if (hasUpdates && !isUpdateScheduled && bleScanListener instanceof BleScanUpdateListener) {
+            isUpdateScheduled = true;
+            handler.postDelayed(deliverUpdatesTask, UPDATE_INTERVAL);
+        }
+    }
+
+    private void deliverUpdates() {
+
+        if (!hasUpdates || !(bleScanListener instanceof BleScanUpdateListener)) {
+            return;
+        }
+        hasUpdates = false;
+
+        ArrayList<BlePeripheral> peripheralList = new ArrayList<>(peripherals.values());
+        Collections.sort(peripheralList, RSSI_COMPARATOR);
+        ((BleScanUpdateListener) bleScanListener).onPeripheralsUpdated(peripheralList);
+    }
+
+    /**
+     * ScanCallback to get scanned Peripheral.
+     */
+    private final ScanCallback scanCallback = new ScanCallback() {
+
+        @Override
+        @RequiresPermission(Manifest.permission.BLUETOOTH)
+        public void onScanResult(int callbackType, ScanResult result) {
+            processScanResult(result);
+        }
+
         @Override
+        @RequiresPermission(Manifest.permission.BLUETOOTH)
         public void onBatchScanResults(List<ScanResult> results) {
             super.onBatchScanResults(results);
-            Log.d(TAG, "onBatchScanResults()");
+            Log.d(TAG, "onBatchScanResults(), count : " + results.size());
+            for (ScanResult result : results) {
+                processScanResult(result);
+            }
         }
 
         @Override
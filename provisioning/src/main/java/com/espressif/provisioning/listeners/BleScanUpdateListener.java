@@ -0,0 +1,36 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.espressif.provisioning.listeners;
+
+import com.espressif.provisioning.BlePeripheral;
+
+import java.util.ArrayList;
+
+/**
+ * Interface for BLE device scanning, which also gives batched updates of devices found so far.
+ * {@link #onPeripheralFound} is called once per device, when it is found for the first time.
+ * Repeated advertisements are coalesced and delivered through {@link #onPeripheralsUpdated(ArrayList)}
+ * at a bounded rate.
+ */
+public interface BleScanUpdateListener extends BleScanListener {
+
+    /**
+     * Called when devices have been found or their RSSI has changed since previous update.
+     *
+     * @param peripherals All devices found so far, strongest (smoothed RSSI) first.
+     */
+    void onPeripheralsUpdated(ArrayList<BlePeripheral> peripherals);
+}
@@ -0,0 +1,49 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.espressif.provisioning.listeners;
+
+import com.espressif.provisioning.FleetProvisioner;
+
+/**
+ * Interface for fleet provisioning callbacks. All callbacks are delivered on main thread.
+ */
+public interface FleetProvisionListener {
+
+    /**
+     * Called when state of any device in the fleet changes.
+     *
+     * @param target Device for which state has been changed.
+     * @param state  New state of the device.
+     * @param e      Exception if device state is {@link FleetProvisioner.DeviceState#FAILED}, null otherwise.
+     */
+    void onDeviceStateChanged(FleetProvisioner.Target target, FleetProvisioner.DeviceState state, Exception e);
+
+    /**
+     * Called whenever a device reaches terminal state, to give aggregate progress of the fleet.
+     *
+     * @param provisioned Number of devices provisioned successfully.
+     * @param failed      Number of devices failed.
+     * @param total       Total number of devices in the fleet.
+     */
+    void onProgress(int provisioned, int failed, int total);
+
+    /**
+     * Called when all devices of the fleet reached terminal state.
+     *
+     * @param provisioned Number of devices provisioned successfully.
+     * @param failed      Number of devices failed.
+     */
+    void onFleetProvisioningCompleted(int provisioned, int failed);
+}
@@ -0,0 +1,40 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.espressif.provisioning.listeners;
+
+import com.espressif.provisioning.WiFiAccessPoint;
+
+import java.util.ArrayList;
+
+/**
+ * Interface for network scan done by device, which also gives incremental updates while scan result pages are received.
+ * {@link #onWifiListReceived(ArrayList)} is still called once with complete list, sorted by RSSI.
+ */
+public interface WiFiScanUpdateListener extends WiFiScanListener {
+
+    /**
+     * Called after each page of scan results received from device.
+     *
+     * @param updatedList Access points which are new or whose RSSI has been improved in this page.
+     */
+    void onWifiListUpdated(ArrayList<WiFiAccessPoint> updatedList);
+
+    /**
+     * Called after each page of scan results which changed the list, with all networks received so far.
+     *
+     * @param partialList Access points received so far, strongest network first.
+     */
+    void onPartialWifiListReceived(ArrayList<WiFiAccessPoint> partialList);
+}
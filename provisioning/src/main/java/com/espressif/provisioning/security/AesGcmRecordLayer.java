@@ -0,0 +1,279 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.espressif.provisioning.security;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES-GCM record layer of Security 2 session.
+ * Key material is prepared once per session and encryption / decryption use their own cipher instances,
+ * so traffic in one direction never re-initialises cipher of the other direction.
+ * Callers can encrypt / decrypt into their own buffers to avoid output allocation per message.
+ *
+ * <p>With patch version 1, device uses one nonce counter for both directions: request is encrypted with
+ * counter value c and its response with c + 1, after which device expects next request at c + 2.
+ * So every request reserves a pair of sequence numbers, requests use even offsets from the initial counter
+ * and responses use odd offsets. Reservation is atomic, so several requests can be in flight as long as
+ * they reach the device in order of their sequence numbers. Responses are matched to their requests by
+ * sequence number within a bounded window, and each response sequence number is accepted only once.
+ */
+class AesGcmRecordLayer {
+
+    static final int NONCE_LENGTH = 12;
+    static final int TAG_LENGTH = 16;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int TAG_LENGTH_BITS = TAG_LENGTH * 8;
+    private static final int COUNTER_OFFSET = 8;
+
+    /**
+     * Max number of requests whose response is awaited.
+     * Oldest request falls out of the window when more requests are reserved, and its response is rejected.
+     */
+    static final int MAX_IN_FLIGHT_REQUESTS = 8;
+
+    /**
+     * Sequence number used when counter based nonce is not used.
+     */
+    static final int NO_SEQUENCE = -1;
+
+    private final SecretKeySpec keySpec;
+    private final byte[] deviceNonce;
+    private final boolean isCounterNonceUsed;
+
+    // Constant nonce (patch version 0) never changes, so its spec is built only once.
+    private final GCMParameterSpec fixedNonceSpec;
+
+    private final byte[] encryptNonce = new byte[NONCE_LENGTH];
+    private final byte[] decryptNonce = new byte[NONCE_LENGTH];
+    private Cipher encryptCipher;
+    private Cipher decryptCipher;
+    private int nextRequestCounter;
+
+    // Request sequence numbers whose response has not been received yet, oldest first.
+    private final ArrayDeque<Integer> inFlightRequests = new ArrayDeque<>();
+
+    // Requests sent through sequence-less API, responses of which are expected in same order.
+    private final ArrayDeque<Integer> unmatchedRequests = new ArrayDeque<>();
+
+    /**
+     * @param key                AES key derived from the session key.
+     * @param deviceNonce        Nonce received from device, must be 12 bytes if counter is used.
+     * @param isCounterNonceUsed True if last 4 bytes of nonce are a counter incremented for every message.
+     */
+    AesGcmRecordLayer(byte[] key, byte[] deviceNonce, boolean isCounterNonceUsed)
+            throws NoSuchAlgorithmException, NoSuchPaddingException {
+
+        if (deviceNonce == null || (isCounterNonceUsed && deviceNonce.length != NONCE_LENGTH)) {
+            throw new IllegalArgumentException("Invalid device nonce");
+        }
+
+        this.keySpec = new SecretKeySpec(key, "AES");
+        this.deviceNonce = deviceNonce.clone();
+        this.isCounterNonceUsed = isCounterNonceUsed;
+        this.fixedNonceSpec = isCounterNonceUsed ? null : new GCMParameterSpec(TAG_LENGTH_BITS, this.deviceNonce);
+
+        if (isCounterNonceUsed) {
+            System.arraycopy(this.deviceNonce, 0, encryptNonce, 0, NONCE_LENGTH);
+            System.arraycopy(this.deviceNonce, 0, decryptNonce, 0, NONCE_LENGTH);
+            nextRequestCounter = readCounter(this.deviceNonce);
+        }
+
+        encryptCipher = Cipher.getInstance(TRANSFORMATION);
+        decryptCipher = Cipher.getInstance(TRANSFORMATION);
+    }
+
+    /**
+     * Get size of encrypted message for given plain text size.
+     *
+     * @param plainTextLength Length of data to be encrypted.
+     * @return Returns length of encrypted message including authentication tag.
+     */
+    static int getEncryptedSize(int plainTextLength) {
+        return plainTextLength + TAG_LENGTH;
+    }
+
+    /**
+     * Get max size of decrypted message for given encrypted message size.
+     *
+     * @param encryptedLength Length of encrypted message including authentication tag.
+     * @return Returns length of plain text.
+     */
+    static int getDecryptedSize(int encryptedLength) {
+        return Math.max(0, encryptedLength - TAG_LENGTH);
+    }
+
+    /**
+     * Reserve sequence numbers for one request and its response.
+     *
+     * @return Returns sequence number of the request, or {@link #NO_SEQUENCE} if counter based nonce is not used.
+     */
+    synchronized int reserveSequence() {
+
+        if (!isCounterNonceUsed) {
+            return NO_SEQUENCE;
+        }
+
+        int sequence = nextRequestCounter;
+        nextRequestCounter += 2;
+        inFlightRequests.add(sequence);
+
+        if (inFlightRequests.size() > MAX_IN_FLIGHT_REQUESTS) {
+            inFlightRequests.poll();
+        }
+        return sequence;
+    }
+
+    /**
+     * Encrypt data as next request. Response must be decrypted with {@link #decrypt(byte[])},
+     * responses are expected in the same order as requests.
+     */
+    byte[] encrypt(byte[] data) throws GeneralSecurityException {
+        return encryptRequest(reserveUnmatchedSequence(), data);
+    }
+
+    /**
+     * Decrypt response of the oldest request encrypted with {@link #encrypt(byte[])}.
+     */
+    byte[] decrypt(byte[] data) throws GeneralSecurityException {
+        return decryptResponse(takeUnmatchedSequence(), data);
+    }
+
+    int encrypt(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        return encryptRequest(reserveUnmatchedSequence(), input, output);
+    }
+
+    int decrypt(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        return decryptResponse(takeUnmatchedSequence(), input, output);
+    }
+
+    byte[] encryptRequest(int sequence, byte[] data) throws GeneralSecurityException {
+
+        byte[] output = new byte[getEncryptedSize(data.length)];
+        int length = encryptRequest(sequence, ByteBuffer.wrap(data), ByteBuffer.wrap(output));
+        return length == output.length ? output : Arrays.copyOf(output, length);
+    }
+
+    byte[] decryptResponse(int sequence, byte[] data) throws GeneralSecurityException {
+
+        byte[] output = new byte[getDecryptedSize(data.length)];
+        int length = decryptResponse(sequence, ByteBuffer.wrap(data), ByteBuffer.wrap(output));
+        return length == output.length ? output : Arrays.copyOf(output, length);
+    }
+
+    /**
+     * Encrypt remaining bytes of input into output.
+     *
+     * @param sequence Sequence number from {@link #reserveSequence()}.
+     * @param input    Plain text.
+     * @param output   Buffer with at least {@link #getEncryptedSize(int)} bytes remaining.
+     * @return Returns number of bytes written in output.
+     */
+    int encryptRequest(int sequence, ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+
+        synchronized (encryptNonce) {
+            GCMParameterSpec parameterSpec = getParameterSpec(encryptNonce, sequence);
+            try {
+                encryptCipher.init(Cipher.ENCRYPT_MODE, keySpec, parameterSpec);
+            } catch (InvalidAlgorithmParameterException e) {
+                // Some providers refuse to re-initialise an encrypting GCM cipher with the same nonce,
+                // which is expected with constant nonce of patch version 0.
+                encryptCipher = Cipher.getInstance(TRANSFORMATION);
+                encryptCipher.init(Cipher.ENCRYPT_MODE, keySpec, parameterSpec);
+            }
+            return encryptCipher.doFinal(input, output);
+        }
+    }
+
+    /**
+     * Decrypt and verify remaining bytes of input into output.
+     *
+     * @param sequence Sequence number of the request to which this is a response.
+     * @param input    Encrypted message including authentication tag.
+     * @param output   Buffer with at least {@link #getDecryptedSize(int)} bytes remaining.
+     * @return Returns number of bytes written in output.
+     */
+    int decryptResponse(int sequence, ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+
+        if (isCounterNonceUsed) {
+            synchronized (this) {
+                if (!inFlightRequests.remove(sequence)) {
+                    throw new GeneralSecurityException("Response does not match any request in flight");
+                }
+            }
+        }
+
+        synchronized (decryptNonce) {
+            decryptCipher.init(Cipher.DECRYPT_MODE, keySpec, getParameterSpec(decryptNonce, sequence + 1));
+            return decryptCipher.doFinal(input, output);
+        }
+    }
+
+    private synchronized int reserveUnmatchedSequence() {
+
+        int sequence = reserveSequence();
+        if (isCounterNonceUsed) {
+            unmatchedRequests.add(sequence);
+            if (unmatchedRequests.size() > MAX_IN_FLIGHT_REQUESTS) {
+                unmatchedRequests.poll();
+            }
+        }
+        return sequence;
+    }
+
+    private synchronized int takeUnmatchedSequence() throws GeneralSecurityException {
+
+        if (!isCounterNonceUsed) {
+            return NO_SEQUENCE;
+        }
+        Integer sequence = unmatchedRequests.poll();
+        if (sequence == null) {
+            throw new GeneralSecurityException("No request is waiting for response");
+        }
+        return sequence;
+    }
+
+    private GCMParameterSpec getParameterSpec(byte[] nonce, int counter) {
+
+        if (!isCounterNonceUsed) {
+            return fixedNonceSpec;
+        }
+        writeCounter(nonce, counter);
+        // GCMParameterSpec keeps its own copy of the nonce.
+        return new GCMParameterSpec(TAG_LENGTH_BITS, nonce);
+    }
+
+    private static int readCounter(byte[] nonce) {
+        return (nonce[COUNTER_OFFSET] & 0xFF) << 24 | (nonce[COUNTER_OFFSET + 1] & 0xFF) << 16
+                | (nonce[COUNTER_OFFSET + 2] & 0xFF) << 8 | (nonce[COUNTER_OFFSET + 3] & 0xFF);
+    }
+
+    private static void writeCounter(byte[] nonce, int value) {
+        nonce[COUNTER_OFFSET] = (byte) (value >> 24);
+        nonce[COUNTER_OFFSET + 1] = (byte) (value >> 16);
+        nonce[COUNTER_OFFSET + 2] = (byte) (value >> 8);
+        nonce[COUNTER_OFFSET + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,249 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.espressif.provisioning.security;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.espressif.provisioning.srp6a.SRP6CryptoParams;
+import com.espressif.provisioning.srp6a.SRP6Routines;
+import com.google.crypto.tink.subtle.X25519;
+
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Bounded pool of ephemeral key pairs generated in advance for session establishment.
+ * Pool is filled on a background thread (for example while BLE scan is going on),
+ * so that first request of Security 1 / Security 2 handshake does not wait for key generation.
+ * Every key pair is given out only once and is dropped when it gets older than configured TTL.
+ */
+public final class EphemeralKeyPool {
+
+    private static final String TAG = "Espressif::" + EphemeralKeyPool.class.getSimpleName();
+
+    public static final int DEFAULT_POOL_SIZE = 2;
+    public static final long DEFAULT_KEY_TTL = 5 * 60 * 1000;
+
+    /**
+     * Crypto parameters used by Security 2 handshake.
+     */
+    static final int SRP6_BIT_SIZE = 3072;
+    static final String SRP6_HASH_ALGORITHM = "SHA-512";
+
+    /**
+     * X25519 key pair used by Security 1.
+     */
+    static class X25519KeyPair {
+
+        final byte[] privateKey;
+        final byte[] publicKey;
+        final long createdTime;
+
+        X25519KeyPair(byte[] privateKey, byte[] publicKey, long createdTime) {
+            this.privateKey = privateKey;
+            this.publicKey = publicKey;
+            this.createdTime = createdTime;
+        }
+    }
+
+    /**
+     * SRP6 client private value 'a' and public key 'A' used by Security 2.
+     */
+    static class Srp6KeyPair {
+
+        final BigInteger privateValue;
+        final BigInteger publicValue;
+        final long createdTime;
+
+        Srp6KeyPair(BigInteger privateValue, BigInteger publicValue, long createdTime) {
+            this.privateValue = privateValue;
+            this.publicValue = publicValue;
+            this.createdTime = createdTime;
+        }
+    }
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final ArrayDeque<X25519KeyPair> x25519KeyPairs = new ArrayDeque<>();
+    private static final ArrayDeque<Srp6KeyPair> srp6KeyPairs = new ArrayDeque<>();
+    private static final SecureRandom random = new SecureRandom();
+
+    private static int poolSize = DEFAULT_POOL_SIZE;
+    private static long keyTtl = DEFAULT_KEY_TTL;
+    private static boolean isFilling = false;
+
+    private EphemeralKeyPool() {
+    }
+
+    /**
+     * This method is used to set number of key pairs of each type kept in the pool.
+     * Pool size 0 disables the pool and keys are generated during session establishment.
+     *
+     * @param size Max number of key pairs of each type.
+     */
+    public static synchronized void setPoolSize(int size) {
+        poolSize = Math.max(0, size);
+        trim(x25519KeyPairs);
+        trim(srp6KeyPairs);
+    }
+
+    /**
+     * This method is used to set time for which a generated key pair can be used.
+     *
+     * @param ttl Time to live in milliseconds.
+     */
+    public static synchronized void setKeyTtl(long ttl) {
+        keyTtl = ttl;
+    }
+
+    /**
+     * This method is used to start filling the pool on a background thread.
+     * Does nothing if the pool is already full or being filled.
+     */
+    public static void prefill() {
+
+        synchronized (EphemeralKeyPool.class) {
+            removeExpired();
+            if (isFilling || poolSize == 0
+                    || (x25519KeyPairs.size() >= poolSize && srp6KeyPairs.size() >= poolSize)) {
+                return;
+            }
+            isFilling = true;
+        }
+
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    fill();
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to generate key pair : " + e.getMessage());
+                } finally {
+                    synchronized (EphemeralKeyPool.class) {
+                        isFilling = false;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * This method is used to remove all key pairs from the pool.
+     */
+    public static synchronized void clear() {
+        x25519KeyPairs.clear();
+        srp6KeyPairs.clear();
+    }
+
+    /**
+     * Take a X25519 key pair from the pool.
+     *
+     * @return Returns unused key pair or null if pool has no valid key pair.
+     */
+    static synchronized X25519KeyPair takeX25519KeyPair() {
+        removeExpired();
+        return x25519KeyPairs.poll();
+    }
+
+    /**
+     * Take a SRP6 key pair from the pool.
+     *
+     * @param params Crypto parameters for which key pair is required.
+     * @return Returns unused key pair or null if pool has no valid key pair for given parameters.
+     */
+    static synchronized Srp6KeyPair takeSrp6KeyPair(SRP6CryptoParams params) {
+
+        if (params != getSrp6CryptoParams()) {
+            return null;
+        }
+        removeExpired();
+        return srp6KeyPairs.poll();
+    }
+
+    static SRP6CryptoParams getSrp6CryptoParams() {
+        return SRP6CryptoParams.getInstance(SRP6_BIT_SIZE, SRP6_HASH_ALGORITHM);
+    }
+
+    private static void fill() throws InvalidKeyException {
+
+        SRP6CryptoParams params = getSrp6CryptoParams();
+        SRP6Routines routines = new SRP6Routines();
+        long startTime = SystemClock.elapsedRealtime();
+        int generatedCount = 0;
+
+        while (true) {
+
+            boolean isX25519Required;
+            boolean isSrp6Required;
+
+            synchronized (EphemeralKeyPool.class) {
+                isX25519Required = x25519KeyPairs.size() < poolSize;
+                isSrp6Required = srp6KeyPairs.size() < poolSize;
+            }
+
+            if (!isX25519Required && !isSrp6Required) {
+                break;
+            }
+
+            // Generate outside of the lock, so sessions can take keys meanwhile.
+            if (isX25519Required) {
+                byte[] privateKey = X25519.generatePrivateKey();
+                byte[] publicKey = X25519.publicFromPrivate(privateKey);
+                X25519KeyPair keyPair = new X25519KeyPair(privateKey, publicKey, SystemClock.elapsedRealtime());
+                synchronized (EphemeralKeyPool.class) {
+                    x25519KeyPairs.add(keyPair);
+                }
+                generatedCount++;
+            }
+
+            if (isSrp6Required) {
+                BigInteger a = routines.generatePrivateValue(params.N, random);
+                BigInteger A = routines.computePublicClientValue(params.N, params.g, a);
+                Srp6KeyPair keyPair = new Srp6KeyPair(a, A, SystemClock.elapsedRealtime());
+                synchronized (EphemeralKeyPool.class) {
+                    srp6KeyPairs.add(keyPair);
+                }
+                generatedCount++;
+            }
+        }
+
+        if (generatedCount > 0) {
+            Log.d(TAG, "Generated " + generatedCount + " key pairs in " + (SystemClock.elapsedRealtime() - startTime) + " ms");
+        }
+    }
+
+    private static void removeExpired() {
+
+        long now = SystemClock.elapsedRealtime();
+
+        while (!x25519KeyPairs.isEmpty() && now - x25519KeyPairs.peek().createdTime > keyTtl) {
+            x25519KeyPairs.poll();
+        }
+        while (!srp6KeyPairs.isEmpty() && now - srp6KeyPairs.peek().createdTime > keyTtl) {
+            srp6KeyPairs.poll();
+        }
+    }
+
+    private static void trim(ArrayDeque<?> keyPairs) {
+        while (keyPairs.size() > poolSize) {
+            keyPairs.poll();
+        }
+    }
+}
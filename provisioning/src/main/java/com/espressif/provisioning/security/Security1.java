@@ -196,6 +196,13 @@ public class Security1 implements Security {
     }
 
     private void generateKeyPair() throws InvalidKeyException {
+
+        EphemeralKeyPool.X25519KeyPair keyPair = EphemeralKeyPool.takeX25519KeyPair();
+        if (keyPair != null) {
+            this.privateKey = keyPair.privateKey;
+            this.publicKey = keyPair.publicKey;
+            return;
+        }
         this.privateKey = X25519.generatePrivateKey();
         this.publicKey = X25519.publicFromPrivate(this.privateKey);
     }
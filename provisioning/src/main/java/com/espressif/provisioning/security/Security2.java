@@ -25,17 +25,12 @@ import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 
 import java.math.BigInteger;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 
 import espressif.Sec2;
 import espressif.Session;
@@ -57,8 +52,8 @@ public class Security2 implements Security {
 
     private String userName;
 
-    private Cipher cipher;
     private SRP6ClientSession client;
+    private AesGcmRecordLayer recordLayer;
 
     private BigInteger clientPublicKey = null;
     private BigInteger devicePublicKey = null;
@@ -66,7 +61,6 @@ public class Security2 implements Security {
     private byte[] clientProof;
     private byte[] sharedKey;
     private byte[] key;
-    private int counter;
     private int secPatchVersion = 0;
 
     /***
@@ -75,11 +69,6 @@ public class Security2 implements Security {
     public Security2(String username, String password) {
 
         userName = username;
-        try {
-            this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-            e.printStackTrace();
-        }
         client = new SRP6ClientSession();
         client.step1(username, password);
     }
@@ -88,11 +77,6 @@ public class Security2 implements Security {
 
         userName = username;
         this.secPatchVersion = patchVersion;
-        try {
-            this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-            e.printStackTrace();
-        }
         client = new SRP6ClientSession();
         client.step1(username, password);
     }
@@ -123,7 +107,13 @@ public class Security2 implements Security {
     private byte[] getStep0Request() {
         try {
             try {
-                clientPublicKey = client.getClientPublicKey(SRP6CryptoParams.getInstance(3072, "SHA-512"));
+                SRP6CryptoParams params = EphemeralKeyPool.getSrp6CryptoParams();
+                EphemeralKeyPool.Srp6KeyPair keyPair = EphemeralKeyPool.takeSrp6KeyPair(params);
+                if (keyPair != null) {
+                    clientPublicKey = client.getClientPublicKey(params, keyPair.privateValue, keyPair.publicValue);
+                } else {
+                    clientPublicKey = client.getClientPublicKey(params);
+                }
             } catch (SRP6Exception e) {
                 e.printStackTrace();
             }
@@ -188,7 +178,7 @@ public class Security2 implements Security {
             devicePublicKey = BigIntegerUtils.bigIntegerFromBytes(devicePubKey);
 
             try {
-                SRP6CryptoParams params = SRP6CryptoParams.getInstance(3072, "SHA-512");
+                SRP6CryptoParams params = EphemeralKeyPool.getSrp6CryptoParams();
                 SRP6ClientCredentials clientCredentials = client.step2_for_client_evidence(params, salt, devicePublicKey, deviceSalt);
                 BigInteger M1 = clientCredentials.M1;
                 clientProof = BigIntegerUtils.bigIntegerToBytes(M1);
@@ -223,82 +213,121 @@ public class Security2 implements Security {
             sharedKey = BigIntegerUtils.bigIntegerToBytes(client.K);
             key = Arrays.copyOfRange(sharedKey, 0, 32);
 
-            counter = (deviceNonce[8] & 0xFF) << 24 | (deviceNonce[9] & 0xFF) << 16 | (deviceNonce[10] & 0xFF) << 8 | (deviceNonce[11] & 0xFF);
+            recordLayer = new AesGcmRecordLayer(key, deviceNonce, isNonceCounterUsed());
 
         } catch (InvalidProtocolBufferException e) {
             Log.e(TAG, e.getMessage());
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            e.printStackTrace();
         }
     }
 
-    public byte[] encrypt(byte[] data) {
-
-        // Device nonce = IV
-        SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
-        IvParameterSpec parameterSpec = new IvParameterSpec(deviceNonce);
+    /**
+     * Check whether nonce of every message is derived from the counter (security patch version 1).
+     *
+     * @return Returns true if counter based nonce is used.
+     */
+    public boolean isNonceCounterUsed() {
+        return secPatchVersion == 1;
+    }
 
-        if (secPatchVersion == 1) {
-            byte[] nonce = new byte[12];
-            System.arraycopy(deviceNonce, 0, nonce, 0, 8);
-            System.arraycopy(intToBigEndian(counter), 0, nonce, 8, 4);
-            counter++;
-            parameterSpec = new IvParameterSpec(nonce);
-        }
+    public byte[] encrypt(byte[] data) {
 
         try {
-            this.cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, parameterSpec);
-        } catch (InvalidAlgorithmParameterException e) {
-            e.printStackTrace();
-        } catch (InvalidKeyException e) {
+            return recordLayer.encrypt(data);
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
         }
+        return null;
+    }
+
+    public byte[] decrypt(byte[] data) {
 
         try {
-            return this.cipher.doFinal(data);
-        } catch (BadPaddingException e) {
-            e.printStackTrace();
-        } catch (IllegalBlockSizeException e) {
+            return recordLayer.decrypt(data);
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
         }
         return null;
     }
 
-    public byte[] decrypt(byte[] data) {
+    /**
+     * Encrypt data into caller supplied buffer, without allocating output per message.
+     * Response must be decrypted with {@link #decrypt(ByteBuffer, ByteBuffer)} or {@link #decrypt(byte[])},
+     * in the same order as requests.
+     *
+     * @param input  Data to be encrypted, all remaining bytes are used.
+     * @param output Buffer with at least {@link #getEncryptedSize(int)} bytes remaining.
+     * @return Returns number of bytes written in output.
+     * @throws GeneralSecurityException If encryption fails or output buffer is too small.
+     */
+    public int encrypt(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        return recordLayer.encrypt(input, output);
+    }
 
-        SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
-        IvParameterSpec parameterSpec = new IvParameterSpec(deviceNonce);
+    /**
+     * Decrypt data into caller supplied buffer, without allocating output per message.
+     *
+     * @param input  Encrypted data including authentication tag, all remaining bytes are used.
+     * @param output Buffer with at least {@link #getDecryptedSize(int)} bytes remaining.
+     * @return Returns number of bytes written in output.
+     * @throws GeneralSecurityException If data can not be authenticated or output buffer is too small.
+     */
+    public int decrypt(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        return recordLayer.decrypt(input, output);
+    }
 
-        if (secPatchVersion == 1) {
-            byte[] nonce = new byte[12];
-            System.arraycopy(deviceNonce, 0, nonce, 0, 8);
-            System.arraycopy(intToBigEndian(counter), 0, nonce, 8, 4);
-            counter++;
-            parameterSpec = new IvParameterSpec(nonce);
-        }
+    /**
+     * Reserve sequence numbers for one request and its response.
+     * Requests must reach the device in order of their sequence numbers, but responses can be
+     * decrypted in any order with {@link #decryptResponse(int, byte[])}.
+     *
+     * @return Returns sequence number to be used for encrypting request and decrypting its response.
+     */
+    public int reserveSequenceNumber() {
+        return recordLayer.reserveSequence();
+    }
+
+    /**
+     * Encrypt request with sequence number reserved by {@link #reserveSequenceNumber()}.
+     *
+     * @param sequence Sequence number of the request.
+     * @param data     Data to be encrypted.
+     * @return Returns encrypted data or null if encryption fails.
+     */
+    public byte[] encryptRequest(int sequence, byte[] data) {
 
         try {
-            this.cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, parameterSpec);
-        } catch (InvalidAlgorithmParameterException e) {
-            e.printStackTrace();
-        } catch (InvalidKeyException e) {
+            return recordLayer.encryptRequest(sequence, data);
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
         }
+        return null;
+    }
+
+    /**
+     * Decrypt response of the request with given sequence number.
+     * Response of every request is accepted only once.
+     *
+     * @param sequence Sequence number of the request.
+     * @param data     Encrypted response.
+     * @return Returns decrypted data or null if data can not be authenticated or does not match any request in flight.
+     */
+    public byte[] decryptResponse(int sequence, byte[] data) {
 
         try {
-            return this.cipher.doFinal(data);
-        } catch (BadPaddingException e) {
-            e.printStackTrace();
-        } catch (IllegalBlockSizeException e) {
+            return recordLayer.decryptResponse(sequence, data);
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
         }
         return null;
     }
 
-    private byte[] intToBigEndian(int value) {
-        return new byte[]{
-                (byte) (value >> 24),
-                (byte) (value >> 16),
-                (byte) (value >> 8),
-                (byte) value
-        };
+    public static int getEncryptedSize(int plainTextLength) {
+        return AesGcmRecordLayer.getEncryptedSize(plainTextLength);
+    }
+
+    public static int getDecryptedSize(int encryptedLength) {
+        return AesGcmRecordLayer.getDecryptedSize(encryptedLength);
     }
 }
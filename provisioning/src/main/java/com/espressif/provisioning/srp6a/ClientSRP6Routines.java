@@ -22,10 +22,8 @@ import java.security.MessageDigest;
  */
 public class ClientSRP6Routines implements ClientEvidenceRoutine {
 
-    private MessageDigest digest;
-
-    ClientSRP6Routines(MessageDigest digest)  {
-        this.digest = digest;
+    ClientSRP6Routines() {
+        // empty
     }
 
     @Override
@@ -43,29 +41,9 @@ public class ClientSRP6Routines implements ClientEvidenceRoutine {
      */
     public BigInteger computeClientEvidence(SRP6CryptoParams cryptoParams, SRP6ClientEvidenceContext ctx) {
 
-        byte[] big_N = BigIntegerUtils.bigIntegerToBytes(cryptoParams.N);
-        byte[] big_g = BigIntegerUtils.bigIntegerToBytes(cryptoParams.g);
-
-        int padding = big_N.length - big_g.length;
-
-        digest.update(big_N);
-        byte[] hn = digest.digest();
-
-        if (big_g.length < big_N.length) {
-
-            byte[] tmp = new byte[big_N.length];
-            System.arraycopy(big_g, 0, tmp, padding, big_g.length);
-            big_g = tmp;
-        }
-
-        digest.update(big_g);
-        byte[] hg = digest.digest();
-
-        byte[] c = new byte[hn.length];
-
-        for (int i = 0; i < hn.length; i++) {
-            c[i] = (byte) (hn[i] ^ hg[i]);
-        }
+        // H(N) XOR H(g) depends only on crypto parameters, so it is computed once per parameters instance.
+        byte[] c = cryptoParams.getHashNXorHashG();
+        MessageDigest digest = cryptoParams.acquireMessageDigest();
 
         digest.update(ctx.userID.getBytes());
         byte[] hi = digest.digest();
@@ -77,6 +55,8 @@ public class ClientSRP6Routines implements ClientEvidenceRoutine {
         digest.update(BigIntegerUtils.bigIntegerToBytes(ctx.B));
         digest.update(BigIntegerUtils.bigIntegerToBytes(ctx.K));
 
-        return BigIntegerUtils.bigIntegerFromBytes(digest.digest());
+        BigInteger M1 = BigIntegerUtils.bigIntegerFromBytes(digest.digest());
+        cryptoParams.releaseMessageDigest(digest);
+        return M1;
     }
 }
@@ -228,10 +228,48 @@ public class SRP6ClientSession extends SRP6Session implements Serializable {
 
         this.config = config;
 
-        MessageDigest digest = config.getMessageDigestInstance();
+        checkClientKeyState();
 
-        if (digest == null)
-            throw new IllegalArgumentException("Unsupported hash algorithm 'H': " + config.H);
+        // Generate client private and public values
+        a = srp6Routines.generatePrivateValue(config.N, random);
+
+        A = srp6Routines.computePublicClientValue(config.N, config.g, a);
+        return A;
+    }
+
+    /**
+     * This method is used to set client private value 'a' and public key 'A' generated in advance,
+     * so that they are not computed on the session path.
+     * The values must have been generated for the same crypto parameters and must be used only once.
+     *
+     * @param config The SRP-6a crypto parameters. Must not be {@code null}.
+     * @param a      The client private value 'a'. Must not be {@code null}.
+     * @param A      The client public key 'A' = g^a (mod N). Must not be {@code null}.
+     * @return The client public key
+     * @throws SRP6Exception If the session has timed out.
+     */
+    public BigInteger getClientPublicKey(final SRP6CryptoParams config, final BigInteger a, final BigInteger A)
+            throws SRP6Exception {
+
+        // Check arguments
+        if (config == null)
+            throw new IllegalArgumentException("The SRP-6a crypto parameters must not be null");
+
+        if (a == null || A == null)
+            throw new IllegalArgumentException("The client private value 'a' and public key 'A' must not be null");
+
+        this.config = config;
+
+        checkClientKeyState();
+
+        this.a = a;
+        this.A = A;
+        return A;
+    }
+
+    private void checkClientKeyState() throws SRP6Exception {
+
+        // Support of 'H' is checked when crypto parameters are created.
 
         // Check current state
         if (state != State.STEP_1)
@@ -240,13 +278,6 @@ public class SRP6ClientSession extends SRP6Session implements Serializable {
         // Check timeout
         if (hasTimedOut())
             throw new SRP6Exception("Session timeout", SRP6Exception.CauseType.TIMEOUT);
-
-        // Generate client private and public values
-        a = srp6Routines.generatePrivateValue(config.N, random);
-        digest.reset();
-
-        A = srp6Routines.computePublicClientValue(config.N, config.g, a);
-        return A;
     }
 
     /**
@@ -273,11 +304,20 @@ public class SRP6ClientSession extends SRP6Session implements Serializable {
 
         this.config = config;
 
-        MessageDigest digest = config.getMessageDigestInstance();
+        MessageDigest digest = config.acquireMessageDigest();
 
         if (digest == null)
             throw new IllegalArgumentException("Unsupported hash algorithm 'H': " + config.H);
 
+        try {
+            return computeClientCredentials(config, s, B, digest);
+        } finally {
+            config.releaseMessageDigest(digest);
+        }
+    }
+
+    private SRP6ClientCredentials computeClientCredentials(final SRP6CryptoParams config, final BigInteger s, final BigInteger B, final MessageDigest digest)
+            throws SRP6Exception {
 
         if (s == null)
             throw new IllegalArgumentException("The salt 's' must not be null");
@@ -313,7 +353,7 @@ public class SRP6ClientSession extends SRP6Session implements Serializable {
         if (xRoutine != null) {
 
             // With custom routine
-            x = xRoutine.computeX(config.getMessageDigestInstance(),
+            x = xRoutine.computeX(digest,
                     BigIntegerUtils.bigIntegerToBytes(s),
                     userID.getBytes(Charset.forName("UTF-8")),
                     password.getBytes(Charset.forName("UTF-8")));
@@ -324,9 +364,8 @@ public class SRP6ClientSession extends SRP6Session implements Serializable {
             digest.reset();
         }
 
-        // Compute the session key
-        k = srp6Routines.computeK(digest, config.N, config.g);
-        digest.reset();
+        // Compute the session key, multiplier 'k' is computed once per crypto parameters
+        k = config.getK();
 
         if (hashedKeysRoutine != null) {
             URoutineContext hashedKeysContext = new URoutineContext(A, B);
@@ -341,7 +380,7 @@ public class SRP6ClientSession extends SRP6Session implements Serializable {
         Log.d("SRP6aClient", "Shared session key generated");
 
         // Set custom routine (for Espressif devices) to compute client evidence.
-        ClientSRP6Routines clientSRP6Routines = new ClientSRP6Routines(digest);
+        ClientSRP6Routines clientSRP6Routines = new ClientSRP6Routines();
         setClientEvidenceRoutine(clientSRP6Routines);
 
         // Compute the client evidence message
@@ -539,8 +578,9 @@ public class SRP6ClientSession extends SRP6Session implements Serializable {
         } else {
             // Pass shared session key "K" instead of "S" to compute server evidence for Espressif devices
             // With default routine
-            MessageDigest digest = config.getMessageDigestInstance();
+            MessageDigest digest = config.acquireMessageDigest();
             computedM2 = srp6Routines.computeServerEvidence(digest, A, M1, K);
+            config.releaseMessageDigest(digest);
         }
 
         if (!computedM2.equals(M2))
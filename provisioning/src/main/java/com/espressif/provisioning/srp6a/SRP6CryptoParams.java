@@ -9,6 +9,8 @@ import java.io.Serializable;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 
 /**
@@ -142,6 +144,34 @@ public class SRP6CryptoParams implements Serializable {
 	public final String H;
 
 
+	/**
+	 * Process-wide cache of instances returned by
+	 * {@link #getInstance(int, String)}, keyed by bitsize and 'H'.
+	 */
+	private static final ConcurrentHashMap<String, SRP6CryptoParams> cachedInstances = new ConcurrentHashMap<>();
+
+
+	/**
+	 * Max number of idle message digests kept for reuse.
+	 */
+	private static final int MAX_POOLED_DIGESTS = 4;
+
+
+	// Values derived from 'N', 'g' and 'H', computed once per instance
+
+	private transient volatile MessageDigest digestPrototype;
+
+	private transient volatile ConcurrentLinkedQueue<MessageDigest> digestPool;
+
+	private transient volatile byte[] paddedN;
+
+	private transient volatile byte[] paddedG;
+
+	private transient volatile BigInteger k;
+
+	private transient volatile byte[] hashNXorHashG;
+
+
 	/**
 	 * Returns an SRP-6a crypto parameters instance with precomputed 'N'
 	 * and 'g' values and the specified hash algorithm 'H'.
@@ -161,6 +191,28 @@ public class SRP6CryptoParams implements Serializable {
 		if (H == null || H.isEmpty())
 			throw new IllegalArgumentException("Undefined hash algorithm 'H'");
 
+		// Instances are immutable, so the same one is shared by all sessions
+		// together with its precomputed values.
+		String key = bitsize + ":" + H;
+		SRP6CryptoParams params = cachedInstances.get(key);
+
+		if (params == null) {
+
+			params = createInstance(bitsize, H);
+
+			if (params != null) {
+				SRP6CryptoParams existing = cachedInstances.putIfAbsent(key, params);
+				if (existing != null)
+					params = existing;
+			}
+		}
+
+		return params;
+	}
+
+
+	private static SRP6CryptoParams createInstance(final int bitsize, final String H) {
+
 		switch (bitsize) {
 			case 256:
 				return new SRP6CryptoParams(N_256, g_common, H);
@@ -272,6 +324,8 @@ public class SRP6CryptoParams implements Serializable {
 
 	/**
 	 * Returns a new message digest instance for the hash algorithm 'H'.
+	 * The instance is cloned from a prototype where the provider supports
+	 * it, which avoids a provider lookup on every call.
 	 *
 	 * @return A new message digest instance or {@code null} if not
 	 *         supported by the default security provider of the underlying
@@ -280,11 +334,207 @@ public class SRP6CryptoParams implements Serializable {
 	public MessageDigest getMessageDigestInstance() {
 
 		try {
-			return MessageDigest.getInstance(H);
+			MessageDigest prototype = digestPrototype;
+
+			if (prototype == null) {
+				prototype = MessageDigest.getInstance(H);
+				digestPrototype = prototype;
+			}
+
+			return (MessageDigest) prototype.clone();
 
 		} catch (NoSuchAlgorithmException e) {
 
 			return null;
+
+		} catch (CloneNotSupportedException e) {
+
+			try {
+				return MessageDigest.getInstance(H);
+
+			} catch (NoSuchAlgorithmException e1) {
+
+				return null;
+			}
+		}
+	}
+
+
+	/**
+	 * Takes a message digest for the hash algorithm 'H' from the pool of
+	 * this instance, or creates a new one if the pool is empty. The digest
+	 * should be given back with {@link #releaseMessageDigest} once it is no
+	 * longer used.
+	 *
+	 * @return A reset message digest instance or {@code null} if not
+	 *         supported by the default security provider of the underlying
+	 *         Java runtime.
+	 */
+	MessageDigest acquireMessageDigest() {
+
+		MessageDigest digest = getDigestPool().poll();
+
+		if (digest != null)
+			return digest;
+
+		return getMessageDigestInstance();
+	}
+
+
+	/**
+	 * Gives a message digest taken with {@link #acquireMessageDigest} back
+	 * to the pool.
+	 *
+	 * @param digest The message digest. May be {@code null}.
+	 */
+	void releaseMessageDigest(final MessageDigest digest) {
+
+		if (digest == null)
+			return;
+
+		ConcurrentLinkedQueue<MessageDigest> pool = getDigestPool();
+
+		if (pool.size() < MAX_POOLED_DIGESTS) {
+			digest.reset();
+			pool.offer(digest);
 		}
 	}
+
+
+	/**
+	 * Returns 'N' as a byte array padded to the length of 'N'. The returned
+	 * array is shared and must not be modified.
+	 *
+	 * @return The padded 'N'.
+	 */
+	byte[] getPaddedN() {
+
+		byte[] padded = paddedN;
+
+		if (padded == null) {
+			padded = getPadded(N);
+			paddedN = padded;
+		}
+
+		return padded;
+	}
+
+
+	/**
+	 * Returns 'g' as a byte array padded to the length of 'N'. The returned
+	 * array is shared and must not be modified.
+	 *
+	 * @return The padded 'g'.
+	 */
+	byte[] getPaddedG() {
+
+		byte[] padded = paddedG;
+
+		if (padded == null) {
+			padded = getPadded(g);
+			paddedG = padded;
+		}
+
+		return padded;
+	}
+
+
+	/**
+	 * Returns the SRP-6a multiplier k = H(N | PAD(g)), computed once for
+	 * this instance.
+	 *
+	 * @return The multiplier 'k'.
+	 */
+	public BigInteger getK() {
+
+		BigInteger multiplier = k;
+
+		if (multiplier == null) {
+
+			MessageDigest digest = acquireMessageDigest();
+
+			if (digest == null)
+				throw new IllegalArgumentException("Unsupported hash algorithm 'H': " + H);
+
+			digest.update(getPaddedN());
+			digest.update(getPaddedG());
+			multiplier = BigIntegerUtils.bigIntegerFromBytes(digest.digest());
+			releaseMessageDigest(digest);
+			k = multiplier;
+		}
+
+		return multiplier;
+	}
+
+
+	/**
+	 * Returns H(N) XOR H(PAD(g)), used in the client evidence message of
+	 * Espressif devices. The returned array is shared and must not be
+	 * modified.
+	 *
+	 * @return H(N) XOR H(PAD(g)).
+	 */
+	byte[] getHashNXorHashG() {
+
+		byte[] value = hashNXorHashG;
+
+		if (value == null) {
+
+			MessageDigest digest = acquireMessageDigest();
+
+			if (digest == null)
+				throw new IllegalArgumentException("Unsupported hash algorithm 'H': " + H);
+
+			byte[] hn = digest.digest(getPaddedN());
+			byte[] hg = digest.digest(getPaddedG());
+			releaseMessageDigest(digest);
+
+			value = new byte[hn.length];
+
+			for (int i = 0; i < hn.length; i++)
+				value[i] = (byte) (hn[i] ^ hg[i]);
+
+			hashNXorHashG = value;
+		}
+
+		return value;
+	}
+
+
+	private ConcurrentLinkedQueue<MessageDigest> getDigestPool() {
+
+		ConcurrentLinkedQueue<MessageDigest> pool = digestPool;
+
+		if (pool == null) {
+
+			synchronized (this) {
+
+				pool = digestPool;
+
+				if (pool == null) {
+					pool = new ConcurrentLinkedQueue<>();
+					digestPool = pool;
+				}
+			}
+		}
+
+		return pool;
+	}
+
+
+	private byte[] getPadded(final BigInteger n) {
+
+		final int length = (N.bitLength() + 7) / 8;
+
+		byte[] bs = BigIntegerUtils.bigIntegerToBytes(n);
+
+		if (bs.length < length) {
+
+			byte[] tmp = new byte[length];
+			System.arraycopy(bs, 0, tmp, length - bs.length, bs.length);
+			bs = tmp;
+		}
+
+		return bs;
+	}
 }
@@ -24,6 +24,8 @@ import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.espressif.provisioning.DeviceConnectionEvent;
@@ -42,29 +44,45 @@ import java.util.HashMap;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Bluetooth implementation of the Transport protocol.
  */
-public class BLETransport implements Transport {
+public class BLETransport implements CancellableTransport {
 
     private static final String TAG = "Espressif::" + BLETransport.class.getSimpleName();
 
+    // ATT MTU values as per Bluetooth core specification.
+    private static final int DEFAULT_MTU = 23;
+    private static final int MAX_MTU = 517;
+    // ATT header sizes for write / prepare write / read blob PDUs.
+    private static final int WRITE_HEADER_SIZE = 3;
+    private static final int PREPARE_WRITE_HEADER_SIZE = 5;
+    private static final int READ_HEADER_SIZE = 1;
+
     private Context context;
     private BluetoothDevice currentDevice;
     private BluetoothGatt bluetoothGatt;
     private BluetoothGattService service;
-    private ResponseListener currentResponseListener;
-    private Semaphore transportToken;
     private ExecutorService dispatcherThreadPool;
+    private ScheduledExecutorService timeoutScheduler;
+    private BleRequestQueue requestQueue;
+    private long requestTimeout = BleRequestQueue.DEFAULT_REQUEST_TIMEOUT;
+    private volatile int mtu = DEFAULT_MTU;
     private HashMap<String, String> uuidMap = new HashMap<>();
     private ArrayList<String> charUuidList = new ArrayList<>();
 
     private String serviceUuid;
     private boolean isReadingDescriptors = false;
-    public ArrayList<String> deviceCapabilities = new ArrayList<>();
-    public String versionInfo;
+    private boolean isReadingVersion = false;
+    private boolean isAttributeCacheEnabled = true;
+    private ArrayList<String> serviceCharUuids = new ArrayList<>();
+    private long connectStartTime;
+    private long connectToReadyTime = -1;
+    // Replaced with a new list instead of being modified, because it is read from other threads.
+    public volatile ArrayList<String> deviceCapabilities = new ArrayList<>();
+    public volatile String versionInfo;
 
     /**
      * Create BLETransport implementation
@@ -73,8 +91,9 @@ public class BLETransport implements Transport {
      */
     public BLETransport(Context context) {
         this.context = context;
-        this.transportToken = new Semaphore(1);
         this.dispatcherThreadPool = Executors.newSingleThreadExecutor();
+        this.timeoutScheduler = Executors.newSingleThreadScheduledExecutor();
+        this.requestQueue = new BleRequestQueue(requestExecutor, dispatcherThreadPool, timeoutScheduler);
     }
 
     /**
@@ -87,45 +106,110 @@ public class BLETransport implements Transport {
     @Override
     public void sendConfigData(String path, byte[] data, ResponseListener listener) {
 
-        if (uuidMap.containsKey(path)) {
+        BluetoothGattCharacteristic characteristic = null;
+
+        if (service != null && uuidMap.containsKey(path)) {
 
-            BluetoothGattCharacteristic characteristic = service.getCharacteristic(UUID.fromString(uuidMap.get(path)));
+            characteristic = service.getCharacteristic(UUID.fromString(uuidMap.get(path)));
 
             if (characteristic == null) {
                 characteristic = service.getCharacteristic(UUID.fromString("0000ff52-0000-1000-8000-00805f9b34fb"));
             }
+        }
 
-            if (characteristic != null) {
-                try {
-                    this.transportToken.acquire();
-                    characteristic.setValue(data);
-                    bluetoothGatt.writeCharacteristic(characteristic);
-                    currentResponseListener = listener;
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    listener.onFailure(e);
-                    this.transportToken.release();
-                    currentResponseListener = listener;
-                    if (currentResponseListener != null) {
-                        currentResponseListener.onFailure(e);
-                    }
-                }
-            } else {
-                Log.e(TAG, "Characteristic is not available for given path.");
-                currentResponseListener = listener;
-                if (currentResponseListener != null) {
-                    currentResponseListener.onFailure(new RuntimeException("Characteristic is not available for given path."));
-                }
-            }
+        if (characteristic != null) {
+            requestQueue.enqueue(new BleRequestQueue.BleRequest(characteristic, data, listener, requestTimeout));
         } else {
-            currentResponseListener = listener;
             Log.e(TAG, "Characteristic is not available for given path.");
-            if (currentResponseListener != null) {
-                currentResponseListener.onFailure(new RuntimeException("Characteristic is not available for given path."));
+            if (listener != null) {
+                listener.onFailure(new RuntimeException("Characteristic is not available for given path."));
             }
         }
     }
 
+    @Override
+    public boolean cancelRequest(ResponseListener listener) {
+        return requestQueue.remove(listener);
+    }
+
+    /**
+     * Set timeout for a single request (write and read of characteristic).
+     *
+     * @param timeout Timeout in milliseconds. Zero or negative value disables the timeout.
+     */
+    public void setRequestTimeout(long timeout) {
+        this.requestTimeout = timeout;
+    }
+
+    /**
+     * Get number of requests which are waiting or in progress.
+     *
+     * @return Returns queue depth.
+     */
+    public int getQueueDepth() {
+        return requestQueue.getQueueDepth();
+    }
+
+    /**
+     * Get highest number of requests queued at the same time.
+     *
+     * @return Returns max queue depth.
+     */
+    public int getMaxQueueDepth() {
+        return requestQueue.getMaxQueueDepth();
+    }
+
+    /**
+     * Get ATT MTU negotiated with the connected device.
+     *
+     * @return Returns negotiated MTU.
+     */
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * Get largest payload which can be written to the device in a single ATT write request.
+     * Larger payloads are still sent, but the stack splits them in multiple prepared writes.
+     *
+     * @return Returns max payload size in bytes.
+     */
+    public int getMaxPayloadSize() {
+        return mtu - WRITE_HEADER_SIZE;
+    }
+
+    /**
+     * Get total number of ATT round trips used by completed requests.
+     *
+     * @return Returns number of round trips.
+     */
+    public long getTotalRoundTrips() {
+        return requestQueue.getTotalRoundTrips();
+    }
+
+    /**
+     * Get time taken by last connection from connect request till the device is ready for requests,
+     * which includes MTU negotiation, service discovery and reading endpoints / version info.
+     *
+     * @return Returns time in milliseconds or -1 if device is not connected yet.
+     */
+    public long getConnectToReadyTime() {
+        return connectToReadyTime;
+    }
+
+    /**
+     * Enable / disable use of attributes cached from earlier connection with the same device.
+     * If enabled (default), user description descriptors are not read again on reconnect.
+     * Version info is still read from the device before it is reported as connected; if it differs from
+     * the cached value, all descriptors are read again. Cache is kept in a file in cache directory of the app,
+     * so it is also used after app restart.
+     *
+     * @param enabled True to use cached attributes.
+     */
+    public void setAttributeCacheEnabled(boolean enabled) {
+        this.isAttributeCacheEnabled = enabled;
+    }
+
     /**
      * Connect to a BLE peripheral device.
      *
@@ -134,7 +218,20 @@ public class BLETransport implements Transport {
      */
     public void connect(BluetoothDevice bluetoothDevice, UUID primaryServiceUuid) {
         this.currentDevice = bluetoothDevice;
+        this.mtu = DEFAULT_MTU;
         this.serviceUuid = primaryServiceUuid.toString();
+        this.connectStartTime = SystemClock.elapsedRealtime();
+        if (isAttributeCacheEnabled) {
+            GattAttributeCache.load(context);
+        }
+        this.connectToReadyTime = -1;
+        uuidMap.clear();
+        charUuidList.clear();
+        serviceCharUuids.clear();
+        deviceCapabilities = new ArrayList<>();
+        versionInfo = null;
+        isReadingDescriptors = false;
+        isReadingVersion = false;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             bluetoothGatt = this.currentDevice.connectGatt(context, false, gattCallback, BluetoothDevice.TRANSPORT_LE);
         } else {
@@ -154,6 +251,7 @@ public class BLETransport implements Transport {
             this.bluetoothGatt.close();
             bluetoothGatt = null;
         }
+        requestQueue.clear(new RuntimeException("Device disconnected"));
     }
 
     public void refreshServices() {
@@ -179,10 +277,10 @@ public class BLETransport implements Transport {
             Log.d(TAG, "onConnectionStateChange, New state : " + newState + ", Status : " + status);
 
             if (status == BluetoothGatt.GATT_FAILURE) {
-                EventBus.getDefault().post(new DeviceConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTION_FAILED));
+                postConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTION_FAILED);
                 return;
             } else if (status == 133) {
-                EventBus.getDefault().post(new DeviceConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTION_FAILED));
+                postConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTION_FAILED);
                 return;
             } else if (status != BluetoothGatt.GATT_SUCCESS && newState != BluetoothProfile.STATE_DISCONNECTED) {
                 // TODO need to check this status
@@ -191,10 +289,15 @@ public class BLETransport implements Transport {
 
             if (newState == BluetoothProfile.STATE_CONNECTED) {
                 Log.e(TAG, "Connected to GATT server.");
-                gatt.requestMtu(512);
+                // Request largest MTU, device will answer with the largest value it supports.
+                if (!gatt.requestMtu(MAX_MTU)) {
+                    Log.e(TAG, "Failed to request MTU");
+                    gatt.discoverServices();
+                }
             } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                 Log.e(TAG, "Disconnected from GATT server.");
-                EventBus.getDefault().post(new DeviceConnectionEvent(ESPConstants.EVENT_DEVICE_DISCONNECTED));
+                requestQueue.clear(new RuntimeException("Device disconnected"));
+                postConnectionEvent(ESPConstants.EVENT_DEVICE_DISCONNECTED);
             }
         }
 
@@ -206,7 +309,7 @@ public class BLETransport implements Transport {
 
             if (status != BluetoothGatt.GATT_SUCCESS) {
                 Log.d(TAG, "Status not success");
-                EventBus.getDefault().post(new DeviceConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTION_FAILED));
+                postConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTION_FAILED);
                 return;
             }
 
@@ -214,7 +317,7 @@ public class BLETransport implements Transport {
 
             if (service == null) {
                 Log.e(TAG, "Service not found!");
-                EventBus.getDefault().post(new DeviceConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTION_FAILED));
+                postConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTION_FAILED);
                 return;
             }
 
@@ -222,18 +325,29 @@ public class BLETransport implements Transport {
 
                 if (characteristic == null) {
                     Log.e(TAG, "Tx characteristic not found!");
-                    EventBus.getDefault().post(new DeviceConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTION_FAILED));
+                    postConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTION_FAILED);
                     return;
                 }
 
                 String uuid = characteristic.getUuid().toString();
                 Log.d(TAG, "Characteristic UUID : " + uuid);
                 charUuidList.add(uuid);
+                serviceCharUuids.add(uuid);
 
                 characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
             }
 
-            readNextDescriptor();
+            GattAttributeCache.Entry cachedEntry = isAttributeCacheEnabled ? GattAttributeCache.get(currentDevice.getAddress()) : null;
+
+            if (cachedEntry != null && cachedEntry.matches(serviceCharUuids)) {
+                Log.d(TAG, "Using cached attributes, skipping descriptor read");
+                uuidMap.putAll(cachedEntry.uuidMap);
+                charUuidList.clear();
+                charUuidList.addAll(cachedEntry.uuidMap.values());
+                validateCachedAttributes(cachedEntry);
+            } else {
+                readNextDescriptor();
+            }
         }
 
         @Override
@@ -243,7 +357,7 @@ public class BLETransport implements Transport {
                 Log.d(TAG, "Read Descriptor : " + bluetoothGatt.readDescriptor(descriptor));
             } else {
                 Log.e(TAG, "Fail to write descriptor");
-                EventBus.getDefault().post(new DeviceConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTION_FAILED));
+                postConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTION_FAILED);
             }
         }
 
@@ -257,7 +371,7 @@ public class BLETransport implements Transport {
             if (status != BluetoothGatt.GATT_SUCCESS) {
                 Log.e(TAG, "Failed to read descriptor");
                 charUuidList.remove(charUuid);
-//                EventBus.getDefault().post(new DeviceConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTION_FAILED));
+//                postConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTION_FAILED);
 //                return;
             }
 
@@ -275,14 +389,7 @@ public class BLETransport implements Transport {
                 readNextDescriptor();
 
             } else {
-
-                BluetoothGattCharacteristic characteristic = service.getCharacteristic(UUID.fromString(uuidMap.get(ESPConstants.HANDLER_PROTO_VER)));
-
-                if (characteristic != null) {
-                    // Write anything. It doesn't matter. We need to read characteristic and for that we need to write something.
-                    characteristic.setValue("ESP");
-                    bluetoothGatt.writeCharacteristic(characteristic);
-                }
+                readVersionInfo();
             }
         }
 
@@ -291,6 +398,10 @@ public class BLETransport implements Transport {
             super.onMtuChanged(gatt, mtu, status);
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 Log.d(TAG, "Supported MTU = " + mtu);
+                BLETransport.this.mtu = mtu;
+            } else {
+                Log.e(TAG, "MTU negotiation failed, using default MTU");
+                BLETransport.this.mtu = DEFAULT_MTU;
             }
             gatt.discoverServices();
         }
@@ -309,59 +420,25 @@ public class BLETransport implements Transport {
             Log.d(TAG, "onCharacteristicRead, status " + status + " UUID : " + characteristic.getUuid().toString());
             super.onCharacteristicRead(gatt, characteristic, status);
 
-            if (uuidMap.get((ESPConstants.HANDLER_PROTO_VER)).equals(characteristic.getUuid().toString())) {
+            if (isReadingVersion && characteristic.getUuid().toString().equals(uuidMap.get(ESPConstants.HANDLER_PROTO_VER))) {
 
+                isReadingVersion = false;
                 String data = new String(characteristic.getValue(), StandardCharsets.UTF_8);
                 Log.d(TAG, "Value : " + data);
-                versionInfo = data;
-
-                try {
-                    JSONObject jsonObject = new JSONObject(data);
-                    JSONObject provInfo = jsonObject.getJSONObject("prov");
+                setVersionInfo(data);
 
-                    String deviceVersion = provInfo.getString("ver");
-                    Log.d(TAG, "Device Version : " + deviceVersion);
-
-                    JSONArray capabilities = provInfo.getJSONArray("cap");
-
-                    for (int i = 0; i < capabilities.length(); i++) {
-                        String cap = capabilities.getString(i);
-                        deviceCapabilities.add(cap);
-                    }
-                    Log.d(TAG, "Capabilities : " + deviceCapabilities);
-
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                    Log.d(TAG, "Capabilities JSON not available.");
-                }
-
-                EventBus.getDefault().post(new DeviceConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTED));
+                GattAttributeCache.put(currentDevice.getAddress(),
+                        new GattAttributeCache.Entry(uuidMap, serviceCharUuids, versionInfo, deviceCapabilities));
+                onDeviceReady(false);
+                return;
             }
 
-            if (currentResponseListener != null) {
-
-                if (status == BluetoothGatt.GATT_SUCCESS) {
-                    /*
-                     * Need to dispatch this on another thread since the caller
-                     * might decide to enqueue another send operation on success
-                     * of the first.
-                     */
-                    final ResponseListener responseListener = currentResponseListener;
-                    dispatcherThreadPool.submit(new Runnable() {
-                        @Override
-                        public void run() {
-                            currentResponseListener = null;
-                            byte[] charValue = characteristic.getValue();
-                            responseListener.onSuccess(charValue);
-                        }
-                    });
-                } else {
-
-                    currentResponseListener.onFailure(new Exception("Read from BLE failed"));
-//                    EventBus.getDefault().post(new DeviceProvEvent(LibConstants.EVENT_DEVICE_COMMUNICATION_FAILED));
-                }
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                byte[] value = characteristic.getValue();
+                requestQueue.onResponse(characteristic.getUuid(), value, getReadRoundTrips(value));
+            } else {
+                requestQueue.onFailure(characteristic.getUuid(), new Exception("Read from BLE failed"));
             }
-            transportToken.release();
         }
 
         @Override
@@ -372,17 +449,72 @@ public class BLETransport implements Transport {
             super.onCharacteristicWrite(gatt, characteristic, status);
 
             if (status == BluetoothGatt.GATT_SUCCESS) {
-                bluetoothGatt.readCharacteristic(characteristic);
-            } else {
-                if (currentResponseListener != null) {
-                    currentResponseListener.onFailure(new Exception("Write to BLE failed"));
-//                    EventBus.getDefault().post(new DeviceProvEvent(LibConstants.EVENT_DEVICE_COMMUNICATION_FAILED));
+                if (!gatt.readCharacteristic(characteristic)) {
+                    requestQueue.onFailure(characteristic.getUuid(), new Exception("Read from BLE failed"));
                 }
-                transportToken.release();
+            } else {
+                requestQueue.onFailure(characteristic.getUuid(), new Exception("Write to BLE failed"));
+            }
+        }
+    };
+
+    private BleRequestQueue.RequestExecutor requestExecutor = new BleRequestQueue.RequestExecutor() {
+
+        @Override
+        public boolean write(BleRequestQueue.BleRequest request) {
+
+            if (bluetoothGatt == null) {
+                return false;
             }
+            request.characteristic.setValue(request.data);
+            request.roundTrips = getWriteRoundTrips(request.data);
+            return bluetoothGatt.writeCharacteristic(request.characteristic);
+        }
+
+        @Override
+        public void onRequestTimeout(BleRequestQueue.BleRequest request) {
+
+            Log.e(TAG, "No response from device, disconnecting");
+            disconnect();
+            postConnectionEvent(ESPConstants.EVENT_DEVICE_DISCONNECTED);
         }
     };
 
+    /**
+     * Number of ATT exchanges needed by the stack to write the payload with current MTU.
+     * Payload which does not fit in a single write is sent with prepared writes followed by execute write.
+     */
+    private int getWriteRoundTrips(byte[] data) {
+
+        int length = data == null ? 0 : data.length;
+        if (length <= mtu - WRITE_HEADER_SIZE) {
+            return 1;
+        }
+        int chunkSize = mtu - PREPARE_WRITE_HEADER_SIZE;
+        return (length + chunkSize - 1) / chunkSize + 1;
+    }
+
+    /**
+     * Number of ATT exchanges needed by the stack to read the value with current MTU (read + read blob requests).
+     */
+    private int getReadRoundTrips(byte[] value) {
+
+        int length = value == null ? 0 : value.length;
+        int chunkSize = mtu - READ_HEADER_SIZE;
+        return Math.max(1, (length + chunkSize - 1) / chunkSize);
+    }
+
+    private void postConnectionEvent(short eventType) {
+
+        DeviceConnectionEvent event = new DeviceConnectionEvent(eventType);
+        if (currentDevice != null) {
+            Bundle data = new Bundle();
+            data.putString(ESPConstants.KEY_DEVICE_ADDRESS, currentDevice.getAddress());
+            event.setData(data);
+        }
+        EventBus.getDefault().post(event);
+    }
+
     private void readNextDescriptor() {
 
         boolean found = false;
@@ -398,7 +530,7 @@ public class BLETransport implements Transport {
                 if (characteristic == null) {
                     Log.e(TAG, "Tx characteristic not found!");
                     disconnect();
-                    EventBus.getDefault().post(new DeviceConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTION_FAILED));
+                    postConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTION_FAILED);
                     return;
                 }
 
@@ -416,15 +548,115 @@ public class BLETransport implements Transport {
         if (found) {
             isReadingDescriptors = true;
         } else {
-
             isReadingDescriptors = false;
+            readVersionInfo();
+        }
+    }
 
-            BluetoothGattCharacteristic characteristic = service.getCharacteristic(UUID.fromString(uuidMap.get(ESPConstants.HANDLER_PROTO_VER)));
+    private void readVersionInfo() {
 
-            if (characteristic != null) {
-                characteristic.setValue("ESP");
-                bluetoothGatt.writeCharacteristic(characteristic);
+        String protoVerUuid = uuidMap.get(ESPConstants.HANDLER_PROTO_VER);
+        BluetoothGattCharacteristic characteristic = protoVerUuid == null ? null : service.getCharacteristic(UUID.fromString(protoVerUuid));
+
+        if (characteristic != null) {
+            // Write anything. It doesn't matter. We need to read characteristic and for that we need to write something.
+            isReadingVersion = true;
+            characteristic.setValue("ESP");
+            bluetoothGatt.writeCharacteristic(characteristic);
+        }
+    }
+
+    private void setVersionInfo(String data) {
+
+        ArrayList<String> capabilities = new ArrayList<>();
+
+        try {
+            JSONObject jsonObject = new JSONObject(data);
+            JSONObject provInfo = jsonObject.getJSONObject("prov");
+
+            String deviceVersion = provInfo.getString("ver");
+            Log.d(TAG, "Device Version : " + deviceVersion);
+
+            JSONArray capArray = provInfo.getJSONArray("cap");
+
+            for (int i = 0; i < capArray.length(); i++) {
+                String cap = capArray.getString(i);
+                capabilities.add(cap);
+            }
+            Log.d(TAG, "Capabilities : " + capabilities);
+
+        } catch (JSONException e) {
+            e.printStackTrace();
+            Log.d(TAG, "Capabilities JSON not available.");
+        }
+        deviceCapabilities = capabilities;
+        versionInfo = data;
+    }
+
+    private void onDeviceReady(boolean isCacheUsed) {
+
+        connectToReadyTime = SystemClock.elapsedRealtime() - connectStartTime;
+        Log.d(TAG, "Device ready in " + connectToReadyTime + " ms, cached attributes used : " + isCacheUsed);
+        postConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTED);
+    }
+
+    /**
+     * Read version info through the request queue and compare it with cached value before device is reported
+     * as connected, so that a session never uses capabilities of a previous firmware.
+     * If firmware has changed, cached entry is removed and all descriptors are read again.
+     */
+    private void validateCachedAttributes(final GattAttributeCache.Entry cachedEntry) {
+
+        final String address = currentDevice.getAddress();
+        String protoVerUuid = uuidMap.get(ESPConstants.HANDLER_PROTO_VER);
+        BluetoothGattCharacteristic characteristic = protoVerUuid == null ? null : service.getCharacteristic(UUID.fromString(protoVerUuid));
+
+        if (characteristic == null) {
+            GattAttributeCache.remove(address);
+            readAllDescriptors();
+            return;
+        }
+
+        requestQueue.enqueue(new BleRequestQueue.BleRequest(characteristic, "ESP".getBytes(StandardCharsets.UTF_8), new ResponseListener() {
+
+            @Override
+            public void onSuccess(byte[] returnData) {
+
+                String data = returnData == null ? null : new String(returnData, StandardCharsets.UTF_8);
+                if (data != null && data.equals(cachedEntry.versionInfo)) {
+                    Log.d(TAG, "Cached attributes are valid");
+                    deviceCapabilities = new ArrayList<>(cachedEntry.deviceCapabilities);
+                    versionInfo = cachedEntry.versionInfo;
+                    onDeviceReady(true);
+                    return;
+                }
+                Log.e(TAG, "Version info changed, reading attributes again");
+                GattAttributeCache.remove(address);
+                readAllDescriptors();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.e(TAG, "Failed to validate cached attributes : " + e.getMessage());
+                GattAttributeCache.remove(address);
+                disconnect();
+                postConnectionEvent(ESPConstants.EVENT_DEVICE_CONNECTION_FAILED);
             }
+        }, requestTimeout));
+    }
+
+    /**
+     * Drop endpoint mapping taken from cache and read user description descriptor of every characteristic.
+     */
+    private void readAllDescriptors() {
+
+        if (bluetoothGatt == null) {
+            // Disconnected meanwhile, disconnect event is already posted.
+            return;
         }
+        uuidMap.clear();
+        charUuidList.clear();
+        charUuidList.addAll(serviceCharUuids);
+        readNextDescriptor();
     }
 }
@@ -0,0 +1,369 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.espressif.provisioning.transport;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.espressif.provisioning.listeners.ResponseListener;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking request queue used by {@link BLETransport}.
+ * Every request is a write followed by a read of the same characteristic.
+ * Android allows only one outstanding GATT operation per connection, so requests are
+ * started one after another in FIFO order, but callers never block while waiting for a slot.
+ * Each response is delivered to the listener of the request that produced it.
+ */
+class BleRequestQueue {
+
+    private static final String TAG = "Espressif::" + BleRequestQueue.class.getSimpleName();
+
+    static final long DEFAULT_REQUEST_TIMEOUT = 5000;
+
+    /**
+     * Starts GATT operations for queued requests.
+     */
+    interface RequestExecutor {
+
+        /**
+         * Start the write operation of the given request.
+         *
+         * @param request Request to be written.
+         * @return Returns true if the write operation was started.
+         */
+        boolean write(BleRequest request);
+
+        /**
+         * Called when GATT stack did not report back for the in-flight request within its timeout.
+         * Request and all pending requests have already been failed. A late callback can not be told
+         * apart from the response of a next request on the same characteristic, so connection
+         * should not be used anymore.
+         *
+         * @param request Request which has been timed out.
+         */
+        void onRequestTimeout(BleRequest request);
+    }
+
+    /**
+     * Single write / read exchange with the device.
+     */
+    static class BleRequest {
+
+        final BluetoothGattCharacteristic characteristic;
+        final byte[] data;
+        final ResponseListener listener;
+        final long timeout;
+
+        int roundTrips;
+        private long enqueueTime;
+        private long startTime;
+        private boolean isTimedOut;
+        private ScheduledFuture<?> timeoutTask;
+
+        BleRequest(BluetoothGattCharacteristic characteristic, byte[] data, ResponseListener listener, long timeout) {
+            this.characteristic = characteristic;
+            this.data = data;
+            this.listener = listener;
+            this.timeout = timeout;
+        }
+
+        UUID getUuid() {
+            return characteristic.getUuid();
+        }
+    }
+
+    private final ArrayDeque<BleRequest> pendingRequests = new ArrayDeque<>();
+    private final RequestExecutor requestExecutor;
+    private final ExecutorService dispatcher;
+    private final ScheduledExecutorService timeoutScheduler;
+
+    private BleRequest inFlightRequest;
+    private int maxQueueDepth;
+    private long completedCount;
+    private long failedCount;
+    private long totalRoundTrips;
+
+    BleRequestQueue(RequestExecutor requestExecutor, ExecutorService dispatcher, ScheduledExecutorService timeoutScheduler) {
+        this.requestExecutor = requestExecutor;
+        this.dispatcher = dispatcher;
+        this.timeoutScheduler = timeoutScheduler;
+    }
+
+    /**
+     * Add request in the queue. Request will be started as soon as the GATT connection is free.
+     *
+     * @param request Request to be sent.
+     */
+    void enqueue(BleRequest request) {
+
+        synchronized (this) {
+            request.enqueueTime = SystemClock.elapsedRealtime();
+            pendingRequests.add(request);
+            maxQueueDepth = Math.max(maxQueueDepth, getQueueDepth());
+        }
+        startNextRequest();
+    }
+
+    /**
+     * Called when the in-flight request has been written and read back successfully.
+     *
+     * @param uuid           UUID of the characteristic which has been read.
+     * @param value          Value read from the characteristic.
+     * @param readRoundTrips Number of ATT exchanges used to read the value.
+     */
+    void onResponse(UUID uuid, byte[] value, int readRoundTrips) {
+
+        BleRequest request = takeInFlightRequest(uuid);
+        if (request == null) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        int roundTrips = request.roundTrips + readRoundTrips;
+        Log.d(TAG, "Request completed in " + (now - request.startTime) + " ms with " + roundTrips
+                + " round trips, waited in queue " + (request.startTime - request.enqueueTime)
+                + " ms, queue depth : " + getQueueDepth());
+
+        synchronized (this) {
+            completedCount++;
+            totalRoundTrips += roundTrips;
+        }
+        if (!request.isTimedOut) {
+            dispatchSuccess(request.listener, value);
+        }
+        startNextRequest();
+    }
+
+    /**
+     * Called when the GATT operation of the in-flight request fails.
+     *
+     * @param uuid UUID of the characteristic on which operation has been failed.
+     * @param e    Exception
+     */
+    void onFailure(UUID uuid, Exception e) {
+
+        BleRequest request = takeInFlightRequest(uuid);
+        if (request == null) {
+            return;
+        }
+
+        synchronized (this) {
+            failedCount++;
+        }
+        if (!request.isTimedOut) {
+            dispatchFailure(request.listener, e);
+        }
+        startNextRequest();
+    }
+
+    /**
+     * Remove request with given listener if it is still waiting in the queue.
+     * In-flight request can not be removed because its GATT operation is already outstanding.
+     *
+     * @param listener Listener of the request.
+     * @return Returns true if request has been removed.
+     */
+    synchronized boolean remove(ResponseListener listener) {
+
+        for (BleRequest request : pendingRequests) {
+            if (request.listener == listener) {
+                pendingRequests.remove(request);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fail in-flight and all pending requests. Used when device gets disconnected.
+     *
+     * @param e Exception to be delivered to listeners.
+     */
+    void clear(Exception e) {
+
+        ArrayDeque<BleRequest> requests;
+
+        synchronized (this) {
+            requests = new ArrayDeque<>(pendingRequests);
+            pendingRequests.clear();
+            if (inFlightRequest != null) {
+                requests.addFirst(inFlightRequest);
+                inFlightRequest = null;
+            }
+        }
+
+        for (BleRequest request : requests) {
+            cancelTimeout(request);
+            if (!request.isTimedOut) {
+                dispatchFailure(request.listener, e);
+            }
+        }
+    }
+
+    /**
+     * Get number of requests which are waiting or in progress.
+     *
+     * @return Returns queue depth.
+     */
+    synchronized int getQueueDepth() {
+        return pendingRequests.size() + (inFlightRequest == null ? 0 : 1);
+    }
+
+    /**
+     * Get highest queue depth seen since this queue was created.
+     *
+     * @return Returns max queue depth.
+     */
+    synchronized int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    synchronized long getCompletedCount() {
+        return completedCount;
+    }
+
+    synchronized long getFailedCount() {
+        return failedCount;
+    }
+
+    synchronized long getTotalRoundTrips() {
+        return totalRoundTrips;
+    }
+
+    private void startNextRequest() {
+
+        while (true) {
+
+            BleRequest request;
+
+            synchronized (this) {
+                if (inFlightRequest != null || pendingRequests.isEmpty()) {
+                    return;
+                }
+                request = pendingRequests.poll();
+                inFlightRequest = request;
+                request.startTime = SystemClock.elapsedRealtime();
+            }
+
+            scheduleTimeout(request);
+
+            boolean isStarted;
+            try {
+                isStarted = requestExecutor.write(request);
+            } catch (Exception e) {
+                e.printStackTrace();
+                isStarted = false;
+            }
+
+            if (isStarted) {
+                return;
+            }
+
+            Log.e(TAG, "Failed to start write for " + request.getUuid());
+            synchronized (this) {
+                inFlightRequest = null;
+                failedCount++;
+            }
+            cancelTimeout(request);
+            dispatchFailure(request.listener, new RuntimeException("Write to BLE failed"));
+        }
+    }
+
+    private synchronized BleRequest takeInFlightRequest(UUID uuid) {
+
+        if (inFlightRequest == null || !inFlightRequest.getUuid().equals(uuid)) {
+            return null;
+        }
+        BleRequest request = inFlightRequest;
+        inFlightRequest = null;
+        cancelTimeout(request);
+        return request;
+    }
+
+    private void scheduleTimeout(final BleRequest request) {
+
+        if (request.timeout <= 0) {
+            return;
+        }
+
+        request.timeoutTask = timeoutScheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+
+                synchronized (BleRequestQueue.this) {
+                    if (inFlightRequest != request) {
+                        return;
+                    }
+                    request.isTimedOut = true;
+                    failedCount++;
+                }
+                Log.e(TAG, "Request timed out after " + request.timeout + " ms for " + request.getUuid());
+                dispatchFailure(request.listener, new RuntimeException("Request timed out"));
+
+                // Release the slot, so that no request waits for a callback which may never come.
+                // Response which arrives later does not match any in-flight request and is dropped.
+                clear(new RuntimeException("Previous request timed out"));
+                requestExecutor.onRequestTimeout(request);
+            }
+        }, request.timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelTimeout(BleRequest request) {
+        if (request.timeoutTask != null) {
+            request.timeoutTask.cancel(false);
+            request.timeoutTask = null;
+        }
+    }
+
+    private void dispatchSuccess(final ResponseListener listener, final byte[] value) {
+
+        if (listener == null) {
+            return;
+        }
+        /*
+         * Need to dispatch this on another thread since the caller
+         * might decide to enqueue another send operation on success
+         * of the first.
+         */
+        dispatcher.submit(new Runnable() {
+            @Override
+            public void run() {
+                listener.onSuccess(value);
+            }
+        });
+    }
+
+    private void dispatchFailure(final ResponseListener listener, final Exception e) {
+
+        if (listener == null) {
+            return;
+        }
+        dispatcher.submit(new Runnable() {
+            @Override
+            public void run() {
+                listener.onFailure(e);
+            }
+        });
+    }
+}
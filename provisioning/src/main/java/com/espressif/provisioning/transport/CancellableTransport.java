@@ -0,0 +1,32 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.espressif.provisioning.transport;
+
+import com.espressif.provisioning.listeners.ResponseListener;
+
+/**
+ * Transport which can drop a request that has not been sent to the device yet.
+ */
+public interface CancellableTransport extends Transport {
+
+    /***
+     * Cancel request sent with given listener, if it is still waiting to be sent.
+     * Request which is already being sent to the device is not affected.
+     * @param listener listener which was passed to {@link #sendConfigData}.
+     * @return true if request has been removed, its listener is not called in that case.
+     */
+    boolean cancelRequest(ResponseListener listener);
+}
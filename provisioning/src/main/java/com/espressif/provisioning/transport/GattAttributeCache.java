@@ -0,0 +1,294 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.espressif.provisioning.transport;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.protobuf.ByteString;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import espressif.GattCache;
+
+/**
+ * Cache of attributes discovered from provisioning service of BLE devices.
+ * Entry is keyed by device address and keeps endpoint to characteristic mapping
+ * together with the version / capabilities payload read from "proto-ver" endpoint,
+ * which identifies the firmware. On reconnect to a known device, cached entry is used instead of
+ * reading user description descriptor of every characteristic.
+ *
+ * <p>Cache is bounded (least recently used entry is dropped first) and is stored in a small protobuf file
+ * in cache directory of the app, so it survives app restarts. File is loaded in background when first connection
+ * starts and written in background after every change. Callers never wait for the file: until it is loaded,
+ * every lookup is a cache miss.
+ */
+class GattAttributeCache {
+
+    private static final String TAG = "Espressif::" + GattAttributeCache.class.getSimpleName();
+
+    private static final String FILE_NAME = "esp_gatt_cache.pb";
+    private static final int FILE_VERSION = 1;
+    private static final int MAX_ENTRIES = 32;
+
+    /**
+     * Attributes of one device.
+     */
+    static class Entry {
+
+        final Map<String, String> uuidMap;
+        // All characteristics of the provisioning service, used to detect changed GATT database.
+        final List<String> charUuidList;
+        final String versionInfo;
+        final List<String> deviceCapabilities;
+
+        Entry(Map<String, String> uuidMap, List<String> charUuidList, String versionInfo, List<String> deviceCapabilities) {
+            this.uuidMap = Collections.unmodifiableMap(new HashMap<>(uuidMap));
+            this.charUuidList = Collections.unmodifiableList(new ArrayList<>(charUuidList));
+            this.versionInfo = versionInfo;
+            this.deviceCapabilities = Collections.unmodifiableList(new ArrayList<>(deviceCapabilities));
+        }
+
+        /**
+         * Check whether cached mapping matches characteristics of the discovered service.
+         *
+         * @param discoveredCharUuids Characteristics UUIDs of the provisioning service.
+         * @return Returns true if service has same characteristics as when entry was created.
+         */
+        boolean matches(List<String> discoveredCharUuids) {
+            return discoveredCharUuids.size() == charUuidList.size() && discoveredCharUuids.containsAll(charUuidList);
+        }
+    }
+
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private static final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    // Entries removed before the file was loaded, so that loading does not bring them back.
+    private static final HashSet<String> removedBeforeLoad = new HashSet<>();
+
+    private static File cacheFile;
+    private static boolean isLoaded;
+
+    private GattAttributeCache() {
+    }
+
+    /**
+     * Start loading the cache file in background, if it is not loaded yet.
+     *
+     * @param context Context used to find cache directory.
+     */
+    static void load(Context context) {
+
+        synchronized (GattAttributeCache.class) {
+            if (cacheFile != null || context == null) {
+                return;
+            }
+            cacheFile = new File(context.getApplicationContext().getCacheDir(), FILE_NAME);
+        }
+
+        final File file = cacheFile;
+        ioExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    readFile(file);
+                } finally {
+                    synchronized (GattAttributeCache.class) {
+                        isLoaded = true;
+                        removedBeforeLoad.clear();
+                    }
+                }
+            }
+        });
+    }
+
+    static Entry get(String address) {
+
+        if (address == null) {
+            return null;
+        }
+        synchronized (GattAttributeCache.class) {
+            // Called on GATT callback thread, so it does not wait for the file.
+            if (!isLoadCompleted()) {
+                Log.d(TAG, "Attribute cache is not loaded yet");
+                return null;
+            }
+            return entries.get(address);
+        }
+    }
+
+    static void put(String address, Entry entry) {
+
+        if (address == null || entry == null) {
+            return;
+        }
+        synchronized (GattAttributeCache.class) {
+            entries.put(address, entry);
+            removedBeforeLoad.remove(address);
+        }
+        scheduleWrite();
+    }
+
+    static void remove(String address) {
+
+        if (address == null) {
+            return;
+        }
+        synchronized (GattAttributeCache.class) {
+            boolean isRemoved = entries.remove(address) != null;
+            if (!isLoadCompleted()) {
+                removedBeforeLoad.add(address);
+            } else if (!isRemoved) {
+                return;
+            }
+        }
+        scheduleWrite();
+    }
+
+    /**
+     * Must be called with class lock held.
+     */
+    private static boolean isLoadCompleted() {
+        // Without cache file (persistence not used), there is nothing to wait for.
+        return isLoaded || cacheFile == null;
+    }
+
+    private static void readFile(File file) {
+
+        if (!file.exists()) {
+            return;
+        }
+
+        GattCache.GattCacheStore store;
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            store = GattCache.GattCacheStore.parseFrom(inputStream);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read attribute cache : " + e.getMessage());
+            file.delete();
+            return;
+        }
+
+        if (store.getVersion() != FILE_VERSION) {
+            file.delete();
+            return;
+        }
+
+        synchronized (GattAttributeCache.class) {
+            for (GattCache.GattCacheEntry cacheEntry : store.getEntriesList()) {
+
+                // Entry whose payload does not match its hash is dropped.
+                if (!Arrays.equals(cacheEntry.getVersionHash().toByteArray(), getVersionHash(cacheEntry.getVersionInfo()))) {
+                    continue;
+                }
+                // Entries added or removed after loading started are newer than the ones in the file.
+                if (entries.containsKey(cacheEntry.getDeviceAddress()) || removedBeforeLoad.contains(cacheEntry.getDeviceAddress())) {
+                    continue;
+                }
+                entries.put(cacheEntry.getDeviceAddress(), new Entry(cacheEntry.getUuidMapMap(), cacheEntry.getCharUuidsList(),
+                        cacheEntry.getVersionInfo(), cacheEntry.getCapabilitiesList()));
+            }
+            Log.d(TAG, "Loaded attributes of " + entries.size() + " devices");
+        }
+    }
+
+    private static void scheduleWrite() {
+
+        final File file;
+        synchronized (GattAttributeCache.class) {
+            file = cacheFile;
+        }
+        if (file == null) {
+            return;
+        }
+
+        ioExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                writeFile(file);
+            }
+        });
+    }
+
+    private static void writeFile(File file) {
+
+        GattCache.GattCacheStore.Builder builder = GattCache.GattCacheStore.newBuilder().setVersion(FILE_VERSION);
+
+        synchronized (GattAttributeCache.class) {
+            // Iteration order of access ordered map is least recently used first.
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+
+                Entry entry = mapEntry.getValue();
+                String versionInfo = entry.versionInfo == null ? "" : entry.versionInfo;
+
+                builder.addEntries(GattCache.GattCacheEntry.newBuilder()
+                        .setDeviceAddress(mapEntry.getKey())
+                        .setVersionHash(ByteString.copyFrom(getVersionHash(versionInfo)))
+                        .setVersionInfo(versionInfo)
+                        .putAllUuidMap(entry.uuidMap)
+                        .addAllCharUuids(entry.charUuidList)
+                        .addAllCapabilities(entry.deviceCapabilities));
+            }
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+            builder.build().writeTo(outputStream);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write attribute cache : " + e.getMessage());
+            tempFile.delete();
+            return;
+        }
+
+        if (!tempFile.renameTo(file)) {
+            Log.e(TAG, "Failed to replace attribute cache file");
+            tempFile.delete();
+        }
+    }
+
+    private static byte[] getVersionHash(String versionInfo) {
+
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return md.digest(versionInfo.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            return new byte[0];
+        }
+    }
+}
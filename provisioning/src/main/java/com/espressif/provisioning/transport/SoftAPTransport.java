@@ -15,6 +15,7 @@
 
 package com.espressif.provisioning.transport;
 
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -30,26 +31,45 @@ import java.net.HttpCookie;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * HTTP Transport implementation of the Transport protocol
  * This transport assumes that the device establishes a Wifi
  * Access point and the device connects to that AP
  */
-public class SoftAPTransport implements Transport {
+public class SoftAPTransport implements CancellableTransport {
 
     private static final String TAG = "Espressif::" + SoftAPTransport.class.getSimpleName();
     private static final String SET_COOKIE_HEADER = "Set-Cookie";
     private static final String COOKIE_HEADER = "Cookie";
 
+    private static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    private static final int DEFAULT_READ_TIMEOUT = 10000;
+    private static final int MAX_COOKIES = 8;
+    private static final int BUFFER_SIZE = 4096;
+
     private String baseUrl = ESPConstants.DEFAULT_WIFI_BASE_URL;
     private ExecutorService workerThreadPool;
     private static CookieManager cookieManager;
 
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+
+    // Below objects are only used from worker thread, so they are reused for every request.
+    private final HashMap<String, URL> urlCache = new HashMap<>();
+    private final byte[] readBuffer = new byte[BUFFER_SIZE];
+    private final ByteArrayOutputStream responseBuffer = new ByteArrayOutputStream(BUFFER_SIZE);
+
+    // Requests which are waiting for the worker thread, so that they can be cancelled before they are sent.
+    private final ConcurrentHashMap<ResponseListener, Future<?>> pendingRequests = new ConcurrentHashMap<>();
+
     /**
      * Initialise HTTP transport with baseUrl which
      * is used as host address during HTTP communication
@@ -61,69 +81,95 @@ public class SoftAPTransport implements Transport {
         }
     }
 
-    private byte[] sendPostRequest(String path, byte[] data, final ResponseListener listener) {
+    /**
+     * Set connect and read timeouts used for every request.
+     * Connection to the device is kept alive between requests, so connect timeout only applies
+     * when a new connection has to be opened.
+     *
+     * @param connectTimeout Connect timeout in milliseconds.
+     * @param readTimeout    Read timeout in milliseconds.
+     */
+    public void setTimeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    private URL getUrl(String path) throws MalformedURLException {
+
+        URL url = urlCache.get(path);
+        if (url == null) {
+            url = new URL("http://" + baseUrl + "/" + path);
+            urlCache.put(path, url);
+        }
+        return url;
+    }
+
+    private byte[] sendPostRequest(String path, byte[] data) throws IOException {
+
         byte[] responseBytes = null;
-        try {
-            URL url = new URL("http://" + baseUrl + "/" + path);
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setDoOutput(true);
-
-            urlConnection.setRequestMethod("POST");
-            urlConnection.setRequestProperty("Accept", "text/plain");
-            urlConnection.setRequestProperty("Content-type", "application/x-www-form-urlencoded");
-            urlConnection.setConnectTimeout(5000);
-
-            if (cookieManager.getCookieStore().getCookies().size() > 0) {
-
-                Log.d(TAG, "Cookie - Name : " + cookieManager.getCookieStore().getCookies().get(0).getName());
-                Log.d(TAG, "Cookie - Value : " + cookieManager.getCookieStore().getCookies().get(0).getValue());
-                // While joining the Cookies, use ',' or ';' as needed. Most of the servers are using ';'
-                urlConnection.setRequestProperty(COOKIE_HEADER,
-                        TextUtils.join(";", cookieManager.getCookieStore().getCookies()));
+        long startTime = SystemClock.elapsedRealtime();
+        HttpURLConnection urlConnection = (HttpURLConnection) getUrl(path).openConnection();
+        urlConnection.setDoOutput(true);
+        urlConnection.setUseCaches(false);
+
+        urlConnection.setRequestMethod("POST");
+        urlConnection.setRequestProperty("Accept", "text/plain");
+        urlConnection.setRequestProperty("Content-type", "application/x-www-form-urlencoded");
+        urlConnection.setRequestProperty("Connection", "keep-alive");
+        urlConnection.setConnectTimeout(connectTimeout);
+        urlConnection.setReadTimeout(readTimeout);
+        urlConnection.setFixedLengthStreamingMode(data.length);
+
+        List<HttpCookie> cookies = cookieManager.getCookieStore().getCookies();
+        if (cookies.size() > 0) {
+            // While joining the Cookies, use ',' or ';' as needed. Most of the servers are using ';'
+            urlConnection.setRequestProperty(COOKIE_HEADER, TextUtils.join(";", cookies));
+        }
+
+        OutputStream os = urlConnection.getOutputStream();
+        os.write(data);
+        os.close();
+
+        int responseCode = urlConnection.getResponseCode();
+        List<String> cookiesHeader = urlConnection.getHeaderFields().get(SET_COOKIE_HEADER);
+
+        if (cookiesHeader != null) {
+
+            if (cookieManager.getCookieStore().getCookies().size() + cookiesHeader.size() > MAX_COOKIES) {
+                cookieManager.getCookieStore().removeAll();
             }
 
-            OutputStream os = urlConnection.getOutputStream();
-            os.write(data);
-            os.close();
-
-            int responseCode = urlConnection.getResponseCode();
-            Map<String, List<String>> headerFields = urlConnection.getHeaderFields();
-            List<String> cookiesHeader = headerFields.get(SET_COOKIE_HEADER);
-
-            if (cookiesHeader != null) {
-                for (String cookie : cookiesHeader) {
-                    HttpCookie httpCookie = HttpCookie.parse(cookie).get(0);
-                    // Default version of HttpCookie is 1. In version 1, quotes will be added.
-                    // So set version 0 so that quotes will not be added.
-                    httpCookie.setVersion(0);
-                    cookieManager.getCookieStore().add(null, httpCookie);
-                }
+            for (String cookie : cookiesHeader) {
+                HttpCookie httpCookie = HttpCookie.parse(cookie).get(0);
+                // Default version of HttpCookie is 1. In version 1, quotes will be added.
+                // So set version 0 so that quotes will not be added.
+                httpCookie.setVersion(0);
+                cookieManager.getCookieStore().add(null, httpCookie);
             }
+        }
 
-            if (responseCode == HttpURLConnection.HTTP_OK) {
+        /*
+         * Response body needs to be read completely and stream needs to be closed (without calling disconnect)
+         * so that underlying socket is returned to the pool and reused for the next request.
+         */
+        InputStream is = (responseCode == HttpURLConnection.HTTP_OK) ? urlConnection.getInputStream() : urlConnection.getErrorStream();
+
+        if (is != null) {
+            try {
                 int n;
-                byte[] byteChunk = new byte[4096];
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                InputStream is = urlConnection.getInputStream();
-                while ((n = is.read(byteChunk)) > 0) {
-                    outputStream.write(byteChunk, 0, n);
+                responseBuffer.reset();
+                while ((n = is.read(readBuffer)) > 0) {
+                    responseBuffer.write(readBuffer, 0, n);
+                }
+                if (responseCode == HttpURLConnection.HTTP_OK) {
+                    responseBytes = responseBuffer.toByteArray();
                 }
-                responseBytes = outputStream.toByteArray();
+            } finally {
+                is.close();
             }
-        } catch (MalformedURLException e) {
-            Log.e(TAG, e.getMessage());
-            e.printStackTrace();
-            listener.onFailure(new RuntimeException("Error ! Connection Lost"));
-        } catch (IOException e) {
-            Log.e(TAG, e.getMessage());
-            e.printStackTrace();
-            listener.onFailure(new RuntimeException("Error ! Connection Lost"));
-        } catch (Exception e) {
-            Log.e(TAG, e.getMessage());
-            e.printStackTrace();
-            listener.onFailure(new RuntimeException("Error ! Connection Lost"));
         }
 
+        Log.d(TAG, "Request to " + path + " completed in " + (SystemClock.elapsedRealtime() - startTime) + " ms");
         return responseBytes;
     }
 
@@ -135,17 +181,41 @@ public class SoftAPTransport implements Transport {
      */
     @Override
     public void sendConfigData(final String path, final byte[] data, final ResponseListener listener) {
-        this.workerThreadPool
-                .submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            byte[] returnData = sendPostRequest(path, data, listener);
-                            listener.onSuccess(returnData);
-                        } catch (Exception e) {
-                            listener.onFailure(e);
-                        }
-                    }
-                });
+        FutureTask<Void> request = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                if (listener != null && pendingRequests.remove(listener) == null) {
+                    // Request has been cancelled.
+                    return;
+                }
+                byte[] returnData;
+                try {
+                    returnData = sendPostRequest(path, data);
+                } catch (Exception e) {
+                    Log.e(TAG, "Error : " + e.getMessage());
+                    e.printStackTrace();
+                    listener.onFailure(new RuntimeException("Error ! Connection Lost"));
+                    return;
+                }
+                listener.onSuccess(returnData);
+            }
+        }, null);
+
+        // Registered before submitting, so that worker thread always finds the request.
+        if (listener != null) {
+            pendingRequests.put(listener, request);
+        }
+        this.workerThreadPool.execute(request);
+    }
+
+    @Override
+    public boolean cancelRequest(ResponseListener listener) {
+
+        Future<?> request = pendingRequests.remove(listener);
+        if (request == null) {
+            return false;
+        }
+        request.cancel(false);
+        return true;
     }
 }
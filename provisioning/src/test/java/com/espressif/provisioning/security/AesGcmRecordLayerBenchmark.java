@@ -0,0 +1,209 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.espressif.provisioning.security;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Time and allocation per 200 byte frame of {@link AesGcmRecordLayer} compared to encryption of Security2
+ * before the record layer, with patch version 1. Every exchange is a request encrypted by the client and
+ * decrypted by the device, and a response encrypted by the device and decrypted by the client.
+ * Results are printed for comparison between changes, the test does not fail on timing.
+ */
+public class AesGcmRecordLayerBenchmark {
+
+    private static final int FRAME_SIZE = 200;
+    private static final int EXCHANGE_COUNT = 50_000;
+    private static final int ROUNDS = 3;
+
+    // Every exchange encrypts and decrypts two frames.
+    private static final int FRAME_COUNT = EXCHANGE_COUNT * 4;
+
+    /**
+     * Encryption of Security2 before the record layer: key spec, nonce and parameter spec are built for every
+     * message and one cipher is initialised again for both directions.
+     */
+    private static class LegacySecurity2 {
+
+        private final byte[] key;
+        private final byte[] deviceNonce;
+        private final Cipher cipher;
+        private int counter;
+
+        LegacySecurity2(byte[] key, byte[] deviceNonce) throws GeneralSecurityException {
+            this.key = key;
+            this.deviceNonce = deviceNonce;
+            cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            counter = (deviceNonce[8] & 0xFF) << 24 | (deviceNonce[9] & 0xFF) << 16 | (deviceNonce[10] & 0xFF) << 8 | (deviceNonce[11] & 0xFF);
+        }
+
+        byte[] encrypt(byte[] data) throws GeneralSecurityException {
+            return doFinal(Cipher.ENCRYPT_MODE, data);
+        }
+
+        byte[] decrypt(byte[] data) throws GeneralSecurityException {
+            return doFinal(Cipher.DECRYPT_MODE, data);
+        }
+
+        private byte[] doFinal(int mode, byte[] data) throws GeneralSecurityException {
+
+            SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
+            byte[] nonce = new byte[12];
+            System.arraycopy(deviceNonce, 0, nonce, 0, 8);
+            System.arraycopy(intToBigEndian(counter), 0, nonce, 8, 4);
+            counter++;
+            cipher.init(mode, secretKeySpec, new GCMParameterSpec(128, nonce));
+            return cipher.doFinal(data);
+        }
+
+        private static byte[] intToBigEndian(int value) {
+            return new byte[]{(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value};
+        }
+    }
+
+    @Test
+    public void exchangeFrames() throws Exception {
+
+        Random random = new Random(1);
+        byte[] key = new byte[32];
+        byte[] nonce = new byte[AesGcmRecordLayer.NONCE_LENGTH];
+        byte[] frame = new byte[FRAME_SIZE];
+        random.nextBytes(key);
+        random.nextBytes(nonce);
+        random.nextBytes(frame);
+
+        LegacySecurity2 legacyClient = new LegacySecurity2(key, nonce);
+        LegacySecurity2 legacyDevice = new LegacySecurity2(key, nonce);
+        AesGcmRecordLayer client = new AesGcmRecordLayer(key, nonce, true);
+        AesGcmRecordLayer device = new AesGcmRecordLayer(key, nonce, true);
+        AesGcmRecordLayer bufferClient = new AesGcmRecordLayer(key, nonce, true);
+        AesGcmRecordLayer bufferDevice = new AesGcmRecordLayer(key, nonce, true);
+        FrameBuffers buffers = new FrameBuffers(frame);
+
+        double legacyTime = Double.MAX_VALUE;
+        double recordLayerTime = Double.MAX_VALUE;
+        double bufferTime = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long startTime = System.nanoTime();
+            exchangeLegacy(legacyClient, legacyDevice, frame);
+            long legacyEndTime = System.nanoTime();
+            exchange(client, device, frame);
+            long recordLayerEndTime = System.nanoTime();
+            exchangeWithBuffers(bufferClient, bufferDevice, buffers);
+            long bufferEndTime = System.nanoTime();
+
+            legacyTime = Math.min(legacyTime, (legacyEndTime - startTime) / 1e3 / FRAME_COUNT);
+            recordLayerTime = Math.min(recordLayerTime, (recordLayerEndTime - legacyEndTime) / 1e3 / FRAME_COUNT);
+            bufferTime = Math.min(bufferTime, (bufferEndTime - recordLayerEndTime) / 1e3 / FRAME_COUNT);
+        }
+        System.out.println(String.format("AES-GCM %d B frame : legacy %.2f us, record layer %.2f us, record layer with buffers %.2f us",
+                FRAME_SIZE, legacyTime, recordLayerTime, bufferTime));
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+            long threadId = Thread.currentThread().getId();
+
+            long startBytes = allocationBean.getThreadAllocatedBytes(threadId);
+            exchangeLegacy(legacyClient, legacyDevice, frame);
+            long legacyEndBytes = allocationBean.getThreadAllocatedBytes(threadId);
+            exchange(client, device, frame);
+            long recordLayerEndBytes = allocationBean.getThreadAllocatedBytes(threadId);
+            exchangeWithBuffers(bufferClient, bufferDevice, buffers);
+            long bufferEndBytes = allocationBean.getThreadAllocatedBytes(threadId);
+
+            System.out.println(String.format("AES-GCM %d B frame : allocated per frame, legacy %d B, record layer %d B, record layer with buffers %d B",
+                    FRAME_SIZE, (legacyEndBytes - startBytes) / FRAME_COUNT, (recordLayerEndBytes - legacyEndBytes) / FRAME_COUNT,
+                    (bufferEndBytes - recordLayerEndBytes) / FRAME_COUNT));
+        }
+    }
+
+    private static void exchangeLegacy(LegacySecurity2 client, LegacySecurity2 device, byte[] frame) throws GeneralSecurityException {
+
+        byte[] response = null;
+        for (int i = 0; i < EXCHANGE_COUNT; i++) {
+            byte[] request = device.decrypt(client.encrypt(frame));
+            response = client.decrypt(device.encrypt(request));
+        }
+        assertArrayEquals(frame, response);
+    }
+
+    private static void exchange(AesGcmRecordLayer client, AesGcmRecordLayer device, byte[] frame) throws GeneralSecurityException {
+
+        byte[] response = null;
+        for (int i = 0; i < EXCHANGE_COUNT; i++) {
+            byte[] request = device.decrypt(client.encrypt(frame));
+            response = client.decrypt(device.encrypt(request));
+        }
+        assertArrayEquals(frame, response);
+    }
+
+    private static void exchangeWithBuffers(AesGcmRecordLayer client, AesGcmRecordLayer device, FrameBuffers buffers) throws GeneralSecurityException {
+
+        ByteBuffer plainText = buffers.plainText;
+        ByteBuffer cipherText = buffers.cipherText;
+        plainText.clear();
+        plainText.put(buffers.frame);
+        plainText.flip();
+
+        // Output of every operation is the input of the next one.
+        for (int i = 0; i < EXCHANGE_COUNT; i++) {
+            cipherText.clear();
+            client.encrypt(plainText, cipherText);
+            cipherText.flip();
+            plainText.clear();
+            device.decrypt(cipherText, plainText);
+            plainText.flip();
+            cipherText.clear();
+            device.encrypt(plainText, cipherText);
+            cipherText.flip();
+            plainText.clear();
+            client.decrypt(cipherText, plainText);
+            plainText.flip();
+        }
+
+        byte[] response = new byte[plainText.remaining()];
+        plainText.get(response);
+        assertArrayEquals(buffers.frame, response);
+    }
+
+    /**
+     * Buffers reused for every frame, as a transport which keeps its own buffers would do.
+     */
+    private static class FrameBuffers {
+
+        final byte[] frame;
+        final ByteBuffer plainText;
+        final ByteBuffer cipherText;
+
+        FrameBuffers(byte[] frame) {
+            this.frame = frame;
+            plainText = ByteBuffer.allocate(frame.length);
+            cipherText = ByteBuffer.allocate(AesGcmRecordLayer.getEncryptedSize(frame.length));
+        }
+    }
+}
@@ -0,0 +1,241 @@
+// Copyright 2020 Espressif Systems (Shanghai) PTE LTD
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.espressif.provisioning.security;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of {@link AesGcmRecordLayer} against encryption of Security2 as it was before the record layer:
+ * same key and nonce must give same cipher text, and messages of the device must be decrypted in both patch versions.
+ */
+public class AesGcmRecordLayerTest {
+
+    private static final int MESSAGE_COUNT = 40;
+
+    /**
+     * Encryption of Security2 before {@link AesGcmRecordLayer}: with patch version 1 one counter is incremented
+     * for every encrypted and every decrypted message. Also used on device side of the tests, where device
+     * decrypts request and encrypts its response.
+     */
+    private static class LegacySecurity2 {
+
+        private final byte[] key;
+        private final byte[] deviceNonce;
+        private final int secPatchVersion;
+        private int counter;
+
+        LegacySecurity2(byte[] key, byte[] deviceNonce, int secPatchVersion) {
+            this.key = key;
+            this.deviceNonce = deviceNonce;
+            this.secPatchVersion = secPatchVersion;
+            counter = (deviceNonce[8] & 0xFF) << 24 | (deviceNonce[9] & 0xFF) << 16 | (deviceNonce[10] & 0xFF) << 8 | (deviceNonce[11] & 0xFF);
+        }
+
+        byte[] encrypt(byte[] data) throws GeneralSecurityException {
+            return doFinal(Cipher.ENCRYPT_MODE, data);
+        }
+
+        byte[] decrypt(byte[] data) throws GeneralSecurityException {
+            return doFinal(Cipher.DECRYPT_MODE, data);
+        }
+
+        private byte[] doFinal(int mode, byte[] data) throws GeneralSecurityException {
+
+            // Security2 used IvParameterSpec, which Android provider takes as GCM nonce with 128 bit tag.
+            // JDK provider accepts only GCMParameterSpec.
+            SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
+            GCMParameterSpec parameterSpec = new GCMParameterSpec(128, deviceNonce);
+
+            if (secPatchVersion == 1) {
+                byte[] nonce = new byte[12];
+                System.arraycopy(deviceNonce, 0, nonce, 0, 8);
+                System.arraycopy(intToBigEndian(counter), 0, nonce, 8, 4);
+                counter++;
+                parameterSpec = new GCMParameterSpec(128, nonce);
+            }
+
+            // Security2 reused one cipher, which JDK provider refuses for encryption with repeated nonce
+            // of patch version 0. Cipher text does not depend on the instance.
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(mode, secretKeySpec, parameterSpec);
+            return cipher.doFinal(data);
+        }
+
+        private static byte[] intToBigEndian(int value) {
+            return new byte[]{(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value};
+        }
+    }
+
+    @Test
+    public void patchVersion0MatchesLegacyEncryption() throws Exception {
+        exchangeMessages(0, createNonce(new Random(1), 0x12345678));
+    }
+
+    @Test
+    public void patchVersion1MatchesLegacyEncryption() throws Exception {
+        exchangeMessages(1, createNonce(new Random(2), 0x12345678));
+    }
+
+    @Test
+    public void patchVersion1CounterCarriesIntoHigherBytes() throws Exception {
+        // Counter crosses 0xFF and 0xFFFF boundaries within the sequence.
+        exchangeMessages(1, createNonce(new Random(3), 0x0000FFF0));
+    }
+
+    @Test
+    public void pipelinedRequestsUseOwnSequenceNumbers() throws Exception {
+
+        Random random = new Random(5);
+        byte[] key = createKey(random);
+        byte[] nonce = createNonce(random, 100);
+        AesGcmRecordLayer recordLayer = new AesGcmRecordLayer(key, nonce, true);
+        LegacySecurity2 device = new LegacySecurity2(key, nonce, 1);
+
+        int[] sequences = new int[3];
+        byte[][] responses = new byte[sequences.length][];
+        byte[][] encryptedResponses = new byte[sequences.length][];
+
+        // Requests reach device in order of their sequence numbers.
+        for (int i = 0; i < sequences.length; i++) {
+            sequences[i] = recordLayer.reserveSequence();
+            byte[] request = createData(random, 20 + i);
+            assertArrayEquals(request, device.decrypt(recordLayer.encryptRequest(sequences[i], request)));
+            responses[i] = createData(random, 30 + i);
+            encryptedResponses[i] = device.encrypt(responses[i]);
+        }
+
+        // Responses may be processed in any order.
+        for (int i = sequences.length - 1; i >= 0; i--) {
+            assertArrayEquals(responses[i], recordLayer.decryptResponse(sequences[i], encryptedResponses[i]));
+        }
+
+        // Every response is accepted only once.
+        try {
+            recordLayer.decryptResponse(sequences[0], encryptedResponses[0]);
+            fail("Response was accepted twice");
+        } catch (GeneralSecurityException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void modifiedResponseIsRejected() throws Exception {
+
+        Random random = new Random(4);
+        byte[] key = createKey(random);
+        byte[] nonce = createNonce(random, 0);
+        AesGcmRecordLayer recordLayer = new AesGcmRecordLayer(key, nonce, true);
+        LegacySecurity2 device = new LegacySecurity2(key, nonce, 1);
+
+        device.decrypt(recordLayer.encrypt(createData(random, 16)));
+        byte[] response = device.encrypt(createData(random, 16));
+        response[3] ^= 1;
+
+        try {
+            recordLayer.decrypt(response);
+            fail("Modified response was accepted");
+        } catch (GeneralSecurityException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Send sequence of requests of different sizes, including empty one, and check that record layer gives
+     * same cipher text as legacy encryption and decrypts responses encrypted by device.
+     * Odd requests go through ByteBuffer API with offsets in the buffers.
+     */
+    private static void exchangeMessages(int secPatchVersion, byte[] nonce) throws Exception {
+
+        Random random = new Random(secPatchVersion);
+        byte[] key = createKey(random);
+        boolean isCounterNonceUsed = secPatchVersion == 1;
+
+        AesGcmRecordLayer recordLayer = new AesGcmRecordLayer(key, nonce, isCounterNonceUsed);
+        LegacySecurity2 legacy = new LegacySecurity2(key, nonce, secPatchVersion);
+        LegacySecurity2 device = new LegacySecurity2(key, nonce, secPatchVersion);
+
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+
+            byte[] request = createData(random, i == 0 ? 0 : random.nextInt(200));
+            byte[] expectedRequest = legacy.encrypt(request);
+            byte[] encryptedRequest = i % 2 == 0 ? recordLayer.encrypt(request) : encryptWithBuffers(recordLayer, request);
+            assertArrayEquals("Request " + i, expectedRequest, encryptedRequest);
+            assertArrayEquals("Request " + i, request, device.decrypt(encryptedRequest));
+
+            byte[] response = createData(random, random.nextInt(200));
+            byte[] encryptedResponse = device.encrypt(response);
+            assertArrayEquals("Response " + i, response, legacy.decrypt(encryptedResponse));
+            byte[] decryptedResponse = i % 2 == 0 ? recordLayer.decrypt(encryptedResponse) : decryptWithBuffers(recordLayer, encryptedResponse);
+            assertArrayEquals("Response " + i, response, decryptedResponse);
+        }
+    }
+
+    private static byte[] encryptWithBuffers(AesGcmRecordLayer recordLayer, byte[] data) throws GeneralSecurityException {
+
+        ByteBuffer input = ByteBuffer.allocate(data.length + 5);
+        input.position(5);
+        input.put(data);
+        input.position(5);
+
+        ByteBuffer output = ByteBuffer.allocateDirect(AesGcmRecordLayer.getEncryptedSize(data.length) + 3);
+        output.position(3);
+        int length = recordLayer.encrypt(input, output);
+        assertEquals(AesGcmRecordLayer.getEncryptedSize(data.length), length);
+
+        byte[] result = new byte[length];
+        output.position(3);
+        output.get(result);
+        return result;
+    }
+
+    private static byte[] decryptWithBuffers(AesGcmRecordLayer recordLayer, byte[] data) throws GeneralSecurityException {
+
+        ByteBuffer output = ByteBuffer.allocate(AesGcmRecordLayer.getDecryptedSize(data.length));
+        int length = recordLayer.decrypt(ByteBuffer.wrap(data), output);
+        return Arrays.copyOf(output.array(), length);
+    }
+
+    private static byte[] createKey(Random random) {
+        return createData(random, 32);
+    }
+
+    private static byte[] createNonce(Random random, int counter) {
+        byte[] nonce = createData(random, AesGcmRecordLayer.NONCE_LENGTH);
+        nonce[8] = (byte) (counter >> 24);
+        nonce[9] = (byte) (counter >> 16);
+        nonce[10] = (byte) (counter >> 8);
+        nonce[11] = (byte) counter;
+        return nonce;
+    }
+
+    private static byte[] createData(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+}